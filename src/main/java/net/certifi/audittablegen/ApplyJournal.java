@@ -0,0 +1,201 @@
+/*    Copyright 2014 Certifi Inc.
+ *
+ *    This file is part of AuditTableGen.
+ *
+ *        AuditTableGen is free software: you can redistribute it and/or modify
+ *        it under the terms of the GNU General Public License as published by
+ *        the Free Software Foundation, either version 3 of the License, or
+ *        (at your option) any later version.
+ *
+ *        AuditTableGen is distributed in the hope that it will be useful,
+ *        but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *        GNU General Public License for more details.
+ *
+ *        You should have received a copy of the GNU General Public License
+ *        along with AuditTableGen.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.certifi.audittablegen;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A local file recording the groups of changes that have been applied,
+ * so that a run which was killed or had failures can be restarted without
+ * applying them again.  A group is the statements for one table, and is
+ * known by the hash of its statements.  A run skips the groups that are
+ * in the journal, and adds each group it applies without failures.
+ * 
+ * A journal is for one plan: the plan file applied with -apply, or the
+ * changes of a schema.  A journal for anything else is refused, so that a
+ * journal left behind by another run is never taken as this run's work.
+ * 
+ * The file is the header line, the line naming what the journal is for,
+ * and one hash per line after that.  Each hash is forced to disk before
+ * the next group starts, and a line cut short by a crash is ignored when
+ * the journal is read back.
+ */
+class ApplyJournal implements Closeable {
+    
+    private static final Logger logger = LoggerFactory.getLogger(ApplyJournal.class);
+    
+    static final String header = "#AuditTableGen apply journal 1";
+    static final int hashLength = 40; //sha1, in hex
+    
+    final File file;
+    final String id; //what the journal is for
+    final Set<String> completed = new HashSet<>();
+    FileChannel channel;
+    
+    ApplyJournal(File file, String id){
+        this.file = file;
+        this.id = id;
+    }
+    
+    /**
+     * Open a journal, reading the groups it already holds.  The file is
+     * created if it does not exist.
+     * 
+     * @param file
+     * @param id what the journal is for, such as the hash of a plan file.
+     * Must not contain a line break.
+     * @return The journal.
+     * @throws IOException if the file can not be read or written, is not
+     * a journal, or is a journal for something else.
+     */
+    static ApplyJournal open(File file, String id) throws IOException {
+        
+        ApplyJournal journal = new ApplyJournal(file, id);
+        
+        if (file.exists() && file.length() > 0){
+            try (BufferedReader reader = Files.newBufferedReader(file.toPath(), Charsets.UTF_8)){
+                if (!header.equals(reader.readLine())){
+                    throw new IOException("Not a journal file: " + file);
+                }
+                String line = reader.readLine();
+                if (!("for\t" + id).equals(line)){
+                    throw new IOException(String.format("Journal %s is for %s, not %s", file,
+                            line == null ? "nothing" : line.substring(line.indexOf('\t') + 1), id));
+                }
+                while ((line = reader.readLine()) != null){
+                    if (line.length() == hashLength){
+                        journal.completed.add(line);
+                    }
+                }
+            }
+        }
+        
+        journal.channel = new FileOutputStream(file, true).getChannel();
+        if (journal.channel.size() == 0){
+            journal.write(header);
+            journal.write("for\t" + id);
+        }
+        else if (!endsWithNewLine(file)){
+            //end a line cut short by a crash, so the next line is whole
+            journal.write("");
+        }
+        else if (journal.completed.size() > 0){
+            logger.info("Resuming from journal {}. {} groups of changes already applied",
+                    file, journal.completed.size());
+        }
+        
+        return journal;
+    }
+    
+    static boolean endsWithNewLine(File file) throws IOException {
+        
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")){
+            raf.seek(raf.length() - 1);
+            return raf.read() == '\n';
+        }
+    }
+    
+    /**
+     * @param statements
+     * @return the hash a group of statements is known by in the journal.
+     */
+    static String hash(List<String> statements){
+        
+        Hasher hasher = Hashing.sha1().newHasher();
+        for (String sql : statements){
+            hasher.putString(sql, Charsets.UTF_8).putByte((byte) 0);
+        }
+        return hasher.hash().toString();
+    }
+    
+    synchronized boolean isCompleted(String hash){
+        
+        return completed.contains(hash);
+    }
+    
+    /**
+     * @return the number of groups in the journal.
+     */
+    synchronized int size(){
+        
+        return completed.size();
+    }
+    
+    /**
+     * Record a group as applied.
+     * 
+     * @param hash hash of the group's statements
+     * @throws IOException 
+     */
+    synchronized void complete(String hash) throws IOException {
+        
+        if (completed.add(hash)){
+            write(hash);
+        }
+    }
+    
+    void write(String line) throws IOException {
+        
+        ByteBuffer buffer = ByteBuffer.wrap((line + "\n").getBytes(Charsets.UTF_8));
+        while (buffer.hasRemaining()){
+            channel.write(buffer);
+        }
+        channel.force(false);
+    }
+    
+    @Override
+    public synchronized void close(){
+        
+        if (channel != null){
+            try {
+                channel.close();
+            } catch (IOException e) {
+                logger.warn("Error closing journal {}", file, e);
+            }
+            channel = null;
+        }
+    }
+    
+    /**
+     * Close and delete the journal, once all the changes are applied.
+     */
+    void delete(){
+        
+        close();
+        if (!file.delete()){
+            logger.warn("Cannot delete journal {}", file);
+        }
+    }
+}
@@ -0,0 +1,409 @@
+/*    Copyright 2014 Certifi Inc.
+ *
+ *    This file is part of AuditTableGen.
+ *
+ *        AuditTableGen is free software: you can redistribute it and/or modify
+ *        it under the terms of the GNU General Public License as published by
+ *        the Free Software Foundation, either version 3 of the License, or
+ *        (at your option) any later version.
+ *
+ *        AuditTableGen is distributed in the hope that it will be useful,
+ *        but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *        GNU General Public License for more details.
+ *
+ *        You should have received a copy of the GNU General Public License
+ *        along with AuditTableGen.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.certifi.audittablegen;
+
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.sql.DataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Executes the statements of different tables concurrently, on a pool of
+ * ExecutionSessions with one connection each.  The statements of a table
+ * run in order on one session.  A table waits for the tables submitted
+ * before it that it depends on: an earlier submit for the same table, or a
+ * table it references.  Those are the only orderings that matter, so
+ * everything else runs in parallel.
+ * 
+ * Since a table only ever waits for tables submitted before it, the
+ * dependencies can not form a cycle.  At most threads tables run at a time,
+ * and submit() waits when a few times that many are pending, so the
+ * statements held in memory stay bounded.
+ * 
+ * A scheduler is meant to last for a run: its threads and sessions are
+ * kept until finish(), and await() waits for the tables submitted so far
+ * in between.  A scheduler made with a single session runs each table as
+ * it is submitted instead.  Either way, failed statements are counted, tables
+ * in the journal are skipped and tables applied are added to it, and
+ * tables that can not get their locks are retried and deferred as set
+ * by the LockRetryPolicy.
+ */
+class ApplyScheduler {
+    
+    private static final Logger logger = LoggerFactory.getLogger(ApplyScheduler.class);
+    
+    final IdentifierMetaData idMetaData;
+    final ApplyJournal journal; //null if there is none
+    final LockRetryPolicy lockRetry; //null to not retry
+    final ExecutorService executor; //null to run tables as they are submitted
+    final BlockingQueue<ExecutionSession> sessions;
+    final List<ExecutionSession> ownSessions = new ArrayList<>(); //closed by finish
+    final Semaphore pending;
+    final int maxPending; //tables submitted and not done, at most
+    final Map<Identifier, Future<?>> submitted = new HashMap<>(); //latest by table
+    final List<Group> deferred = Collections.synchronizedList(new ArrayList<Group>());
+    final Set<Identifier> deferredTables = Collections.newSetFromMap(new ConcurrentHashMap<Identifier, Boolean>());
+    final AtomicInteger failedUpdates = new AtomicInteger();
+    final AtomicReference<Throwable> error = new AtomicReference<>();
+    
+    /**
+     * The statements for a table, as submitted.
+     */
+    static class Group {
+        
+        final String tableName;
+        final List<String> statements;
+        final Set<Identifier> tables; //the table and the tables it references
+        final String hash; //journal hash, or null
+        
+        Group(String tableName, List<String> statements, Set<Identifier> tables, String hash){
+            this.tableName = tableName;
+            this.statements = statements;
+            this.tables = tables;
+            this.hash = hash;
+        }
+    }
+    
+    /**
+     * 
+     * @param dataSource
+     * @param threads number of tables run at a time, and of connections
+     * @param idMetaData case rules for matching table names
+     * @param journal journal to add the tables applied without failures
+     * to, or null
+     * @param lockRetry lock timeouts and retries, or null
+     */
+    ApplyScheduler(DataSource dataSource, int threads, IdentifierMetaData idMetaData,
+            ApplyJournal journal, LockRetryPolicy lockRetry){
+        
+        this.idMetaData = idMetaData;
+        this.journal = journal;
+        this.lockRetry = lockRetry;
+        //kept between calls, so it must not keep the JVM alive if the dmr
+        //is never closed
+        executor = Executors.newFixedThreadPool(threads,
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("apply-%d").build());
+        sessions = new ArrayBlockingQueue<>(threads);
+        maxPending = threads * 4;
+        pending = new Semaphore(maxPending);
+        
+        for (int i = 0; i < threads; i++){
+            ExecutionSession session = new ExecutionSession(dataSource);
+            session.lockRetry = lockRetry;
+            ownSessions.add(session);
+            sessions.add(session);
+        }
+    }
+    
+    /**
+     * Run each table as it is submitted, on a session held by the caller.
+     * 
+     * @param session
+     * @param idMetaData case rules for matching table names
+     * @param journal journal to add the tables applied without failures
+     * to, or null
+     * @param lockRetry lock timeouts and retries, or null
+     */
+    ApplyScheduler(ExecutionSession session, IdentifierMetaData idMetaData,
+            ApplyJournal journal, LockRetryPolicy lockRetry){
+        
+        this.idMetaData = idMetaData;
+        this.journal = journal;
+        this.lockRetry = lockRetry;
+        executor = null;
+        sessions = new ArrayBlockingQueue<>(1);
+        sessions.add(session);
+        maxPending = 0;
+        pending = null;
+    }
+    
+    /**
+     * Submit the statements for a table.  Waits if too many tables are
+     * pending.
+     * 
+     * @param tableName table the statements belong to
+     * @param statements statements to run in order
+     * @param referencedTables tables the statements reference, which must
+     * be done first if they were submitted before.
+     */
+    void submit(String tableName, List<String> statements, Collection<String> referencedTables){
+        
+        if (statements.isEmpty()){
+            return;
+        }
+        
+        String hash = null;
+        if (journal != null){
+            hash = ApplyJournal.hash(statements);
+            if (journal.isCompleted(hash)){
+                logger.debug("Changes for {} already applied", tableName);
+                return;
+            }
+        }
+        
+        Identifier table = idMetaData.getIdentifier(tableName);
+        Set<Identifier> tables = new HashSet<>();
+        tables.add(table);
+        for (String referencedTable : referencedTables){
+            tables.add(idMetaData.getIdentifier(referencedTable));
+        }
+        final Group group = new Group(tableName, statements, tables, hash);
+        
+        if (executor == null){
+            apply(group, false);
+            return;
+        }
+        
+        final List<Future<?>> dependencies = new ArrayList<>();
+        for (Identifier dependency : tables){
+            Future<?> future = submitted.get(dependency);
+            if (future != null && !future.isDone()){
+                dependencies.add(future);
+            }
+        }
+        
+        try {
+            pending.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw Throwables.propagate(e);
+        }
+        
+        Future<?> future = executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (Future<?> dependency : dependencies){
+                        waitFor(dependency);
+                    }
+                    apply(group, false);
+                } catch (RuntimeException e) {
+                    error.compareAndSet(null, e);
+                } finally {
+                    pending.release();
+                }
+            }
+        });
+        submitted.put(table, future);
+        
+        //finished tables are nothing to wait for
+        if (submitted.size() > 1024){
+            Iterator<Future<?>> iter = submitted.values().iterator();
+            while (iter.hasNext()){
+                if (iter.next().isDone()){
+                    iter.remove();
+                }
+            }
+        }
+    }
+    
+    void waitFor(Future<?> future){
+        
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw Throwables.propagate(e);
+        } catch (ExecutionException e) {
+            //reported by the failed task itself
+        }
+    }
+    
+    /**
+     * Execute the statements for a table, retrying the ones that failed on
+     * a lock timeout.  A table which still can not get its locks is
+     * deferred, and so is any later table that depends on a deferred table.
+     * 
+     * @param group
+     * @param last true if the table is not to be deferred again
+     */
+    void apply(Group group, boolean last){
+        
+        if (!last && lockRetry != null && !Collections.disjoint(group.tables, deferredTables)){
+            defer(group);
+            return;
+        }
+        
+        ExecutionSession session;
+        try {
+            session = sessions.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw Throwables.propagate(e);
+        }
+        
+        List<ExecutionSession.Result> results;
+        try {
+            results = session.execute(group.statements);
+            for (int attempt = 1; lockRetry != null && LockRetryPolicy.isLockTimeout(results)
+                    && lockRetry.backoff(attempt); attempt++){
+                logger.info("Lock timeout on {}. Retrying", group.tableName);
+                results = retryFailed(session, results);
+            }
+        } finally {
+            sessions.add(session);
+        }
+        
+        if (!last && lockRetry != null && LockRetryPolicy.isLockTimeout(results)){
+            defer(group);
+            return;
+        }
+        
+        boolean succeeded = true;
+        for (ExecutionSession.Result result : results){
+            logger.debug(result.sql);
+            if (result.isFailed()){
+                failedUpdates.incrementAndGet();
+                succeeded = false;
+                logger.error("Update failed...", result.error);
+            }
+        }
+        
+        if (succeeded && group.hash != null){
+            try {
+                journal.complete(group.hash);
+            } catch (IOException e) {
+                logger.error("Error writing journal {}", journal.file, e);
+            }
+        }
+    }
+    
+    void defer(Group group){
+        
+        logger.warn("Cannot lock {}. Deferred to the end of the run", group.tableName);
+        deferredTables.addAll(group.tables);
+        deferred.add(group);
+    }
+    
+    /**
+     * Execute the statements that failed again.  After a rollback that is
+     * all of them.
+     * 
+     * @return the results with those of the failed statements replaced.
+     */
+    static List<ExecutionSession.Result> retryFailed(ExecutionSession session, List<ExecutionSession.Result> results){
+        
+        List<Integer> failed = new ArrayList<>();
+        List<String> statements = new ArrayList<>();
+        for (int i = 0; i < results.size(); i++){
+            if (results.get(i).isFailed()){
+                failed.add(i);
+                statements.add(results.get(i).sql);
+            }
+        }
+        
+        List<ExecutionSession.Result> retried = session.execute(statements);
+        List<ExecutionSession.Result> merged = new ArrayList<>(results);
+        for (int i = 0; i < failed.size(); i++){
+            merged.set(failed.get(i), retried.get(i));
+        }
+        return merged;
+    }
+    
+    /**
+     * Wait for the tables submitted so far to finish, apart from the
+     * deferred ones, which wait for finish().
+     * 
+     * @return number of statements that failed since the last call to
+     * await() or finish().
+     */
+    int await(){
+        
+        if (pending != null){
+            pending.acquireUninterruptibly(maxPending);
+            pending.release(maxPending);
+        }
+        
+        Throwable e = error.getAndSet(null);
+        if (e != null){
+            throw Throwables.propagate(e);
+        }
+        
+        return failedUpdates.getAndSet(0);
+    }
+    
+    /**
+     * Wait for all submitted tables to finish, then run the deferred tables
+     * one at a time, and release the threads and connections the scheduler
+     * took.
+     * 
+     * @return number of statements that failed since the last call to
+     * await() or finish().
+     */
+    int finish(){
+        
+        try {
+            if (executor != null){
+                executor.shutdown();
+                try {
+                    while (!executor.awaitTermination(1, TimeUnit.MINUTES)){
+                        logger.info("Waiting for changes to finish...");
+                    }
+                } catch (InterruptedException e) {
+                    executor.shutdownNow();
+                    Thread.currentThread().interrupt();
+                    throw Throwables.propagate(e);
+                }
+            }
+            
+            Throwable e = error.getAndSet(null);
+            if (e != null){
+                throw Throwables.propagate(e);
+            }
+            
+            synchronized (deferred){
+                if (!deferred.isEmpty()){
+                    logger.info("Applying {} deferred tables", deferred.size());
+                }
+                for (Group group : deferred){
+                    apply(group, true);
+                }
+                deferred.clear();
+            }
+        } finally {
+            for (ExecutionSession session : ownSessions){
+                session.close();
+            }
+        }
+        
+        return failedUpdates.getAndSet(0);
+    }
+}
@@ -19,6 +19,8 @@
 package net.certifi.audittablegen;
 
 import com.google.common.base.Throwables;
+import java.io.File;
+import java.io.IOException;
 import java.net.URI;
 import java.sql.*;
 import java.util.*;
@@ -41,6 +43,19 @@ public class AuditTableGen {
     String driver;
     String catalog;
     String schema;
+    String databaseProduct; //product name and version
+    int threads = 4;
+    int window = 512; //tables read at a time, 0 to read all at once
+    File snapshotFile;
+    File planFile;  //write the changes to this file instead of applying them
+    File applyFile; //apply the changes in this plan file
+    File scriptFile; //write the changes to this SQL script instead of applying them
+    File typeCacheDir;
+    File spillDir; //spill pending changes here, null to keep them in memory
+    File journalFile; //record applied changes here, to resume a failed run
+    int lockTimeout = 0; //ms a change may wait for a lock, 0 for no limit
+    int statementTimeout = 0; //ms a change may run, 0 for no limit
+    int retryBudget = 300; //seconds a run may spend retrying locked tables
     Boolean initialized = false;
 
     /**
@@ -69,6 +84,7 @@ public class AuditTableGen {
         DatabaseMetaData dmd = connection.getMetaData();
         
         logger.debug("DatabaseProduct: {}", dmd.getDatabaseProductName());
+        databaseProduct = dmd.getDatabaseProductName() + " " + dmd.getDatabaseProductVersion();
 
         try {
             catalog = connection.getCatalog();
@@ -102,6 +118,10 @@ public class AuditTableGen {
         }
         
         if (dmr != null){
+            dmr.setMaxThreads(threads);
+            dmr.setTypeCacheDir(typeCacheDir);
+            dmr.setSpillDir(spillDir);
+            dmr.setLockTimeout(lockTimeout, statementTimeout, retryBudget * 1000L);
             this.initialized = true;
         }
         
@@ -137,7 +157,18 @@ public class AuditTableGen {
             }
         }
         
+        if (applyFile != null){
+            return applyPlan();
+        }
+        
         if (!dmr.hasAuditConfigTable()){
+            if (scriptFile != null){
+                message = "Audit configuration tables missing. Run without a script file to generate them.";
+                System.out.println(message);
+                logger.error(message);
+                return false;
+            }
+            
             message = "Audit configuration tables missing. Generating...";
             System.out.println(message);
             logger.info(message);
@@ -160,15 +191,74 @@ public class AuditTableGen {
         }
         else {
             ConfigSource configSource = new ConfigSource();
+            Map<String, String> fingerprints = null;
+            Map<String, String> planFingerprints = null;
+            SchemaSnapshot snapshot = null;
+            Iterator<TableDef> tableIter = null;
+            String configHash = null;
+
+            if (dmr.getIdentifierMetaData() != null){
+                configSource.setIdentifierMetaData(dmr.getIdentifierMetaData());
+            }
 
             //for now attributes come from the dmr only.
             //they could be supplied by other means.
-            configSource.addAttributes(dmr.getConfigAttributes());
-            
-            configSource.addTables(dmr.getTables());
+            List<ConfigAttribute> attributes = dmr.getConfigAttributes();
+            try {
+                configSource.addAttributes(attributes);
+            } catch (IllegalArgumentException e) {
+                logger.error("Invalid audit configuration attribute: {}", e.getMessage());
+                return false;
+            }
             configSource.setMaxUserNameLength(dmr.getMaxUserNameLength());
-                     
+            
+            //the factory decides which tables need their columns read,
+            //so it is created before the tables are loaded.
             ChangeSourceFactory factory = new ChangeSourceFactory(configSource);
+            factory.setMaxThreads(threads);
+            factory.setDatabaseProduct(databaseProduct);
+            
+            if (snapshotFile != null){
+                fingerprints = dmr.getTableFingerprints();
+            }
+            
+            if (planFile != null){
+                //taken before the tables are read, so that anything
+                //changed while planning shows up as drift at apply
+                planFingerprints = fingerprints != null ? fingerprints : dmr.getTableFingerprints();
+                if (planFingerprints == null){
+                    logger.error("Cannot read table fingerprints. Plan file not written");
+                    return false;
+                }
+            }
+            
+            if (fingerprints != null){
+                snapshot = SchemaSnapshot.load(snapshotFile);
+                factory.addTables(getTables(snapshot, fingerprints, factory));
+            }
+            else if (window > 0){
+                //only the table names are read now.  Columns are read
+                //a window at a time while the changes are planned, so
+                //the first changes do not wait for the whole schema.
+                List<String> tableNames = dmr.getTableNames();
+                if (tableNames == null){
+                    logger.error("Cannot read the table list");
+                    return false;
+                }
+                tableIter = dmr.getTableIterator(factory.getPlanningOrder(tableNames), factory, window);
+            }
+            else {
+                factory.addTables(dmr.getTables(factory));
+            }
+            
+            if (snapshot != null){
+                configHash = SchemaSnapshot.getConfigHash(attributes, configSource.getMaxUserNameLength());
+                if (configHash.equals(snapshot.configHash)){
+                    List<String> unchanged = new ArrayList<>(fingerprints.keySet());
+                    unchanged.removeAll(snapshot.getChangedTables(fingerprints));
+                    factory.setUnchangedTables(unchanged);
+                }
+            }
             
             //verify that data types for the audit columns
             if (!factory.verifyAuditColumnDataTypes(dmr)){
@@ -180,19 +270,405 @@ public class AuditTableGen {
                 dmr.setSessionUserSQL(factory.sessionUserSQL);
             }
           
-            List<DBChangeUnit> unitList = factory.getDBChangeList();
-            if (DBChangeUnit.validateUnitList(unitList)) {
-                dmr.readDBChangeList(unitList);
-                dmr.executeChanges();
-            } else {
-                logger.error("Program error. Database change list not formed properly.");
+            //tables are planned as they are read, and applied (or
+            //rendered to the plan file or script) as they are planned
+            Iterator<TableDef[]> pairs = tableIter == null
+                    ? factory.getTablePairs().iterator() : factory.getTablePairs(tableIter);
+            PlanFile plan = planFile == null ? null : new PlanFile(dmr.getSchema());
+            if (plan != null && spillDir != null){
+                try {
+                    plan.spillTo(spillDir);
+                } catch (IOException e) {
+                    logger.error("Cannot create spill file in {}", spillDir, e);
+                    return false;
+                }
+            }
+            ScriptFile script = null;
+            if (plan == null && scriptFile != null){
+                try {
+                    script = ScriptFile.create(scriptFile, dmr.getSchema());
+                } catch (IOException e) {
+                    logger.error("Cannot create script file {}", scriptFile, e);
+                    return false;
+                }
+            }
+            
+            int failedUpdates = dmr.getFailedUpdateCount();
+            boolean applied = false;
+            try {
+                applied = applyChanges(factory, pairs, plan != null ? plan : script);
+            } finally {
+                if (!applied && plan != null){
+                    plan.close();
+                }
+                if (!applied && script != null){
+                    script.discard();
+                }
+            }
+            if (!applied){
                 return false;
             }
             
+            if (plan != null){
+                return savePlan(plan, planFingerprints);
+            }
+            if (script != null){
+                return saveScript(script);
+            }
+            
+            if (fingerprints != null){
+                if (dmr.getFailedUpdateCount() > failedUpdates){
+                    logger.warn("Updates failed. Schema snapshot {} not saved", snapshotFile);
+                }
+                else {
+                    saveSnapshot(fingerprints, configSource.allTables, configHash);
+                }
+            }
+            
+        }
+        
+        return true;
+        
+    }
+    
+    /**
+     * Plan the changes for each pair of tables and apply them through the
+     * dmr, a batch at a time as they are planned.  Reading, planning and
+     * applying run as a ChangePipeline, so the first changes are applied
+     * while later tables are still being read.
+     * 
+     * @param factory
+     * @param pairs base table and audit table (or null) for each table
+     * @param sink if not null, the changes are rendered to this plan or
+     * script instead of being executed.
+     * @return false if the changes could not be applied.
+     */
+    boolean applyChanges(ChangeSourceFactory factory, Iterator<TableDef[]> pairs, ChangeSink sink){
+        
+        ApplyJournal journal = null;
+        if (sink == null && journalFile != null){
+            journal = openJournal("schema " + dmr.getSchema());
+            if (journal == null){
+                return false;
+            }
+        }
+        int failedUpdates = dmr.getFailedUpdateCount();
+        
+        ChangePipeline pipeline = new ChangePipeline(factory, pairs, factory.batchSize);
+        pipeline.start();
+        boolean completed = false;
+        
+        try {
+            try {
+                while (pipeline.hasNext()){
+                    ChangePlan changes = ChangePlan.of(pipeline.nextBatch(factory.batchSize));
+                    if (changes == null) {
+                        logger.error("Program error. Database change list not formed properly.");
+                        return false;
+                    }
+                    dmr.readChangePlan(changes);
+                    
+                    if (sink == null){
+                        dmr.executeChanges();
+                    }
+                    else if (!dmr.renderChanges(sink)){
+                        return false;
+                    }
+                }
+            } finally {
+                pipeline.close();
+                dmr.close();
+            }
+            completed = true;
+        } finally {
+            closeJournal(journal, failedUpdates, completed);
         }
         
         return true;
+    }
+    
+    /**
+     * Open the journal file and hand it to the dmr.
+     * 
+     * @param id what the journal is for
+     * @return the journal, or null if it can not be opened or is for
+     * something else.
+     */
+    ApplyJournal openJournal(String id){
         
+        ApplyJournal journal;
+        try {
+            journal = ApplyJournal.open(journalFile, id);
+        } catch (IOException e) {
+            logger.error("Cannot open journal file {}", journalFile, e);
+            return null;
+        }
+        
+        dmr.setJournal(journal);
+        return journal;
+    }
+    
+    /**
+     * Take the journal back from the dmr.  It is kept for the next run if
+     * the run stopped before all the changes were made or any updates
+     * failed, and deleted otherwise.
+     * 
+     * @param journal journal, or null if there is none
+     * @param failedUpdates failed update count of the dmr before the changes
+     * @param completed true if all the changes were made, without an
+     * exception
+     */
+    void closeJournal(ApplyJournal journal, int failedUpdates, boolean completed){
+        
+        if (journal == null){
+            return;
+        }
+        
+        dmr.setJournal(null);
+        if (!completed){
+            logger.warn("Run stopped. Run again with journal {} to resume", journalFile);
+            journal.close();
+        }
+        else if (dmr.getFailedUpdateCount() > failedUpdates){
+            logger.warn("Updates failed. Run again with journal {} to resume", journalFile);
+            journal.close();
+        }
+        else {
+            journal.delete();
+        }
+    }
+    
+    /**
+     * Save the changes rendered to the plan to the plan file, with the
+     * fingerprints of the tables they touch.
+     * 
+     * @param plan
+     * @param fingerprints fingerprints of the tables when they were read
+     * @return true if the plan file is saved.
+     */
+    boolean savePlan(PlanFile plan, Map<String, String> fingerprints){
+        
+        plan.setFingerprints(fingerprints);
+        //close() drops the spilled statements
+        int statements = plan.getStatementCount();
+        
+        try {
+            plan.save(planFile);
+        } catch (IOException e) {
+            logger.error("Error saving plan file {}", planFile, e);
+            return false;
+        } finally {
+            plan.close();
+        }
+        
+        String message = String.format("Plan with %d statements saved to %s",
+                statements, planFile);
+        System.out.println(message);
+        logger.info(message);
+        return true;
+    }
+    
+    /**
+     * Finish the script the changes were written to.
+     * 
+     * @param script
+     * @return true if the script file is written.
+     */
+    boolean saveScript(ScriptFile script){
+        
+        try {
+            script.close();
+        } catch (IOException e) {
+            logger.error("Error writing script file {}", scriptFile, e);
+            script.discard();
+            return false;
+        }
+        
+        String message = String.format("Script with %d statements written to %s",
+                script.getStatementCount(), scriptFile);
+        System.out.println(message);
+        logger.info(message);
+        return true;
+    }
+    
+    /**
+     * Apply the changes in the plan file.  Nothing is applied if the schema
+     * is not the one the plan was made for, or if any table the plan
+     * touches has changed since.
+     * 
+     * @return true if the plan is applied without failed updates.
+     */
+    boolean applyPlan(){
+        
+        PlanFile plan;
+        try {
+            plan = PlanFile.load(applyFile);
+        } catch (IOException e) {
+            logger.error("Cannot read plan file {}", applyFile, e);
+            return false;
+        }
+        
+        String currentSchema = dmr.getSchema() == null ? "" : dmr.getSchema();
+        if (!plan.schema.equalsIgnoreCase(currentSchema)){
+            logger.error("Plan is for schema '{}', not '{}'. Not applied", plan.schema, currentSchema);
+            return false;
+        }
+        
+        Map<String, String> current = dmr.getTableFingerprints();
+        if (current == null){
+            logger.error("Cannot read table fingerprints. Plan not applied");
+            return false;
+        }
+        
+        ApplyJournal journal = null;
+        if (journalFile != null){
+            journal = openJournal("plan " + plan.hash);
+            if (journal == null){
+                return false;
+            }
+        }
+        
+        List<String> drift = plan.getDrift(current);
+        if (journal != null && !drift.isEmpty()){
+            //tables changed by an earlier run of this plan are expected to
+            //have drifted, and their changes are skipped
+            Set<String> applied = plan.getAppliedTables(journal);
+            List<String> unexpected = new ArrayList<>();
+            for (String tableName : drift){
+                if (!applied.contains(tableName)){
+                    unexpected.add(tableName);
+                }
+            }
+            if (unexpected.size() < drift.size()){
+                logger.info("Resuming plan. Tables already changed by it: {}", applied);
+            }
+            drift = unexpected;
+        }
+        if (!drift.isEmpty()){
+            logger.error("Tables changed since the plan was made: {}. Plan not applied", drift);
+            if (journal != null){
+                //kept as it was, for the run it belongs to
+                dmr.setJournal(null);
+                journal.close();
+            }
+            return false;
+        }
+        
+        int failedUpdates = dmr.getFailedUpdateCount();
+        boolean completed = false;
+        try {
+            try {
+                dmr.executeStatements(plan.statementTables, plan.statementAuditTables, plan.statements);
+            } finally {
+                dmr.close();
+            }
+            completed = true;
+        } finally {
+            closeJournal(journal, failedUpdates, completed);
+        }
+        
+        return dmr.getFailedUpdateCount() == failedUpdates;
+    }
+    
+    /**
+     * Get the table definitions for the run.  Only tables whose
+     * fingerprint differs from the snapshot are read from the database,
+     * the rest are taken from the snapshot.  Changed tables not accepted
+     * by the filter are returned without columns.
+     * 
+     * @param snapshot snapshot from the previous run
+     * @param fingerprints current fingerprints from the dmr
+     * @param filter tables which need columns
+     * @return List of TableDef objects in the order of fingerprints
+     */
+    List<TableDef> getTables(SchemaSnapshot snapshot, Map<String, String> fingerprints, TableFilter filter){
+        
+        List<String> changed = snapshot.getChangedTables(fingerprints);
+        logger.info("{} of {} tables changed since the last snapshot", changed.size(), fingerprints.size());
+        
+        List<String> accepted = new ArrayList<>();
+        Map<String, TableDef> changedDefs = new HashMap<>();
+        for (String tableName : changed){
+            if (filter.accept(tableName)){
+                accepted.add(tableName);
+            }
+            else {
+                TableDef td = new TableDef();
+                td.setName(tableName);
+                changedDefs.put(tableName, td);
+            }
+        }
+        for (TableDef td : dmr.getTables(accepted)){
+            changedDefs.put(td.getName(), td);
+        }
+        
+        Set<String> changedNames = new HashSet<>(changed);
+        List<TableDef> tables = new ArrayList<>();
+        for (String tableName : fingerprints.keySet()){
+            TableDef td = changedNames.contains(tableName)
+                    ? changedDefs.get(tableName) : snapshot.getTable(tableName);
+            if (td != null){
+                tables.add(td);
+            }
+        }
+        
+        return tables;
+    }
+    
+    /**
+     * Save the schema snapshot after changes were applied.  Tables the run
+     * altered or created have new fingerprints, and are read again so the
+     * snapshot matches the database.  Tables read without columns are left
+     * out, so they are read in full if a later run needs them.
+     * 
+     * @param fingerprints fingerprints read before the changes were applied
+     * @param tables table definitions used for the run
+     * @param configHash hash of the configuration used for the run
+     */
+    void saveSnapshot(Map<String, String> fingerprints, List<TableDef> tables, String configHash){
+        
+        Map<String, String> current = dmr.getTableFingerprints();
+        if (current == null){
+            return;
+        }
+        
+        Map<String, TableDef> tableMap = new HashMap<>();
+        Set<String> skipped = new HashSet<>();
+        for (TableDef td : tables){
+            if (td.getColumns().isEmpty()){
+                skipped.add(td.getName());
+            }
+            else {
+                tableMap.put(td.getName(), td);
+            }
+        }
+        
+        SchemaSnapshot snapshot = new SchemaSnapshot();
+        snapshot.configHash = configHash;
+        List<String> reread = new ArrayList<>();
+        
+        for (Map.Entry<String, String> entry : current.entrySet()){
+            if (skipped.contains(entry.getKey())){
+                continue;
+            }
+            if (entry.getValue().equals(fingerprints.get(entry.getKey()))
+                    && tableMap.containsKey(entry.getKey())){
+                snapshot.putTable(tableMap.get(entry.getKey()), entry.getValue());
+            }
+            else {
+                reread.add(entry.getKey());
+            }
+        }
+        
+        for (TableDef td : dmr.getTables(reread)){
+            snapshot.putTable(td, current.get(td.getName()));
+        }
+        
+        try {
+            snapshot.save(snapshotFile);
+        } catch (IOException e) {
+            logger.error("Error saving schema snapshot {}", snapshotFile, e);
+        }
     }
     
     
@@ -255,9 +731,20 @@ public class AuditTableGen {
         options.addOption("driver", true, "specifiy jdbc driver. Only used if can't resolve from url");
         options.addOption("u", "username", true, "DB server login username");
         options.addOption("p", "password", true, "DB server login password");
-        options.addOption("f", "filename", true, "name of file to store the script");
+        options.addOption("f", "filename", true, "name of file to store the script. The SQL for the changes is written there instead of being executed");
         options.addOption("schema", true, "name of the target schema");
         options.addOption("url", true, "full url to DB.  Overrides -d, -s");
+        options.addOption("t", "threads", true, "max worker threads for reading metadata and planning changes. Default is 4");
+        options.addOption("snapshot", true, "file to cache the schema between runs. Only changed tables are read and planned");
+        options.addOption("typecache", true, "directory to cache database data types in. Default is ~/.audittablegen");
+        options.addOption("window", true, "read table metadata this many tables at a time while the changes are planned. Default is 512, 0 reads all tables first. Not used with -snapshot");
+        options.addOption("plan", true, "save the changes with table fingerprints to this file instead of applying them");
+        options.addOption("apply", true, "apply the changes saved with -plan, if none of the tables they touch have changed");
+        options.addOption("spill", true, "directory to spill pending changes to when there are too many to hold in memory");
+        options.addOption("journal", true, "file recording the changes applied, so a run that stopped part way resumes where it stopped");
+        options.addOption("locktimeout", true, "ms a change may wait for a lock. Tables that time out are retried, then deferred to the end of the run");
+        options.addOption("statementtimeout", true, "ms a change may run before it is cancelled, and retried like a lock timeout");
+        options.addOption("retrybudget", true, "seconds a run may spend waiting to retry tables that timed out. Default is 300");
         CommandLineParser parser = new GnuParser();
         CommandLine cmd;
         AuditTableGen atg;
@@ -288,6 +775,31 @@ public class AuditTableGen {
         try {
             ds = getRunTimeDataSource(prop);
             atg = new AuditTableGen(ds, prop.getProperty("schema", null));
+            atg.threads = Integer.parseInt(prop.getProperty("threads", "4"));
+            atg.window = Integer.parseInt(prop.getProperty("window", "512"));
+            atg.typeCacheDir = new File(prop.getProperty("typecache",
+                    new File(System.getProperty("user.home"), ".audittablegen").getPath()));
+            if (prop.containsKey("snapshot")) {
+                atg.snapshotFile = new File(prop.getProperty("snapshot"));
+            }
+            if (prop.containsKey("plan")) {
+                atg.planFile = new File(prop.getProperty("plan"));
+            }
+            if (prop.containsKey("apply")) {
+                atg.applyFile = new File(prop.getProperty("apply"));
+            }
+            if (prop.containsKey("spill")) {
+                atg.spillDir = new File(prop.getProperty("spill"));
+            }
+            if (prop.containsKey("filename")) {
+                atg.scriptFile = new File(prop.getProperty("filename"));
+            }
+            if (prop.containsKey("journal")) {
+                atg.journalFile = new File(prop.getProperty("journal"));
+            }
+            atg.lockTimeout = Integer.parseInt(prop.getProperty("locktimeout", "0"));
+            atg.statementTimeout = Integer.parseInt(prop.getProperty("statementtimeout", "0"));
+            atg.retryBudget = Integer.parseInt(prop.getProperty("retrybudget", "300"));
             //logger.info(atg.getDataSourceInfo());
 
             //DataSourceDMR dsDMR = GetDataSourceDMR (cmd);
@@ -387,6 +899,50 @@ public class AuditTableGen {
             }
         }
     
+        if (cmd.hasOption("threads")) {
+            prop.setProperty("threads", cmd.getOptionValue("threads"));
+        }
+        
+        if (cmd.hasOption("snapshot")) {
+            prop.setProperty("snapshot", cmd.getOptionValue("snapshot"));
+        }
+        
+        if (cmd.hasOption("window")) {
+            prop.setProperty("window", cmd.getOptionValue("window"));
+        }
+        
+        if (cmd.hasOption("typecache")) {
+            prop.setProperty("typecache", cmd.getOptionValue("typecache"));
+        }
+        
+        if (cmd.hasOption("plan")) {
+            prop.setProperty("plan", cmd.getOptionValue("plan"));
+        }
+        
+        if (cmd.hasOption("apply")) {
+            prop.setProperty("apply", cmd.getOptionValue("apply"));
+        }
+        
+        if (cmd.hasOption("spill")) {
+            prop.setProperty("spill", cmd.getOptionValue("spill"));
+        }
+        
+        if (cmd.hasOption("journal")) {
+            prop.setProperty("journal", cmd.getOptionValue("journal"));
+        }
+        
+        if (cmd.hasOption("locktimeout")) {
+            prop.setProperty("locktimeout", cmd.getOptionValue("locktimeout"));
+        }
+        
+        if (cmd.hasOption("statementtimeout")) {
+            prop.setProperty("statementtimeout", cmd.getOptionValue("statementtimeout"));
+        }
+        
+        if (cmd.hasOption("retrybudget")) {
+            prop.setProperty("retrybudget", cmd.getOptionValue("retrybudget"));
+        }
+        
         //optional params - this is for the output script
         if (cmd.hasOption("filename")) {
             prop.setProperty("filename", cmd.getOptionValue("filename"));
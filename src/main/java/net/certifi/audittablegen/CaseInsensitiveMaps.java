@@ -0,0 +1,50 @@
+/*    Copyright 2014 Certifi Inc.
+ *
+ *    This file is part of AuditTableGen.
+ *
+ *        AuditTableGen is free software: you can redistribute it and/or modify
+ *        it under the terms of the GNU General Public License as published by
+ *        the Free Software Foundation, either version 3 of the License, or
+ *        (at your option) any later version.
+ *
+ *        AuditTableGen is distributed in the hope that it will be useful,
+ *        but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *        GNU General Public License for more details.
+ *
+ *        You should have received a copy of the GNU General Public License
+ *        along with AuditTableGen.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.certifi.audittablegen;
+
+import java.util.Map;
+import org.apache.commons.collections.map.CaseInsensitiveMap;
+
+/**
+ * Typed views of the commons-collections CaseInsensitiveMap, which
+ * predates generics.
+ */
+final class CaseInsensitiveMaps {
+    
+    private CaseInsensitiveMaps(){
+    }
+    
+    /**
+     * @return a new, empty map whose String keys are compared ignoring case.
+     */
+    @SuppressWarnings("unchecked")
+    static <V> Map<String, V> newMap(){
+        return new CaseInsensitiveMap();
+    }
+    
+    /**
+     * @param map entries to copy
+     * @return a new map holding the entries of map, whose String keys are
+     * compared ignoring case.
+     */
+    @SuppressWarnings("unchecked")
+    static <V> Map<String, V> newMap(Map<String, ? extends V> map){
+        return new CaseInsensitiveMap(map);
+    }
+}
@@ -0,0 +1,211 @@
+/*    Copyright 2014 Certifi Inc.
+ *
+ *    This file is part of AuditTableGen.
+ *
+ *        AuditTableGen is free software: you can redistribute it and/or modify
+ *        it under the terms of the GNU General Public License as published by
+ *        the Free Software Foundation, either version 3 of the License, or
+ *        (at your option) any later version.
+ *
+ *        AuditTableGen is distributed in the hope that it will be useful,
+ *        but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *        GNU General Public License for more details.
+ *
+ *        You should have received a copy of the GNU General Public License
+ *        along with AuditTableGen.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.certifi.audittablegen;
+
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.Futures;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Streams tables through reading, planning and applying, so that a table is
+ * planned as soon as it is read and its changes are applied as soon as they
+ * are planned.
+ * 
+ * A reader thread pulls tables from the iterator (which reads their columns
+ * from the DataSource as it goes) and hands each one to the planning
+ * threads of the ChangeSourceFactory.  The plans wait in a bounded queue, in
+ * table order, for the caller to take them with nextBatch().  When the queue
+ * is full the reader waits, so no more than the capacity of the queue is
+ * ever held in memory however many tables there are.
+ */
+class ChangePipeline {
+    
+    private static final Logger logger = LoggerFactory.getLogger(ChangePipeline.class);
+    
+    //marks the end of the tables in the queue
+    static final Future<List<DBChangeUnit>> end = Futures.immediateFuture(null);
+    
+    final ChangeSourceFactory factory;
+    final Iterator<TableDef[]> pairs;
+    final BlockingQueue<Future<List<DBChangeUnit>>> planned;
+    ExecutorService planners;
+    Thread reader;
+    Future<List<DBChangeUnit>> head;
+    
+    /**
+     * 
+     * @param factory plans the changes for each table
+     * @param pairs base table and audit table (or null) for each table
+     * @param capacity maximum number of tables read or planned ahead of
+     * the caller.  Values less than 1 are treated as 1.
+     */
+    ChangePipeline(ChangeSourceFactory factory, Iterator<TableDef[]> pairs, int capacity){
+        
+        this.factory = factory;
+        this.pairs = pairs;
+        this.planned = new ArrayBlockingQueue<>(Math.max(1, capacity));
+    }
+    
+    /**
+     * Start reading and planning tables in the background.
+     */
+    void start(){
+        
+        planners = Executors.newFixedThreadPool(factory.maxThreads);
+        
+        reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                read();
+            }
+        }, "ChangePipeline-reader");
+        reader.setDaemon(true);
+        reader.start();
+    }
+    
+    /**
+     * Read the tables and queue their plans.  The end of the tables is always
+     * queued, after any error, so the caller is never left waiting.
+     */
+    void read(){
+        
+        try {
+            while (pairs.hasNext()){
+                final TableDef[] pair = pairs.next();
+                planned.put(planners.submit(new Callable<List<DBChangeUnit>>() {
+                    @Override
+                    public List<DBChangeUnit> call() {
+                        return factory.getDBChangeList(pair[0], pair[1]);
+                    }
+                }));
+            }
+        } catch (InterruptedException e) {
+            //closed before all tables were read
+            Thread.currentThread().interrupt();
+        } catch (Throwable e) {
+            //handed on in table order, to be thrown to the caller.
+            //Errors too, e.g. OutOfMemoryError on a large catalog
+            logger.error("Error reading tables", e);
+            queue(Futures.<List<DBChangeUnit>>immediateFailedFuture(e));
+        } finally {
+            queue(end);
+        }
+    }
+    
+    /**
+     * Queue a plan for the caller, unless the pipeline has been closed.
+     * 
+     * @param future 
+     */
+    void queue(Future<List<DBChangeUnit>> future){
+        
+        if (Thread.currentThread().isInterrupted()){
+            //closed, nobody is waiting
+            return;
+        }
+        try {
+            planned.put(future);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    /**
+     * 
+     * @return true if there are tables left to take, waiting for the next
+     * one to be read if need be.
+     */
+    boolean hasNext(){
+        
+        if (head == null){
+            try {
+                head = planned.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw Throwables.propagate(e);
+            }
+        }
+        
+        return head != end;
+    }
+    
+    /**
+     * Take the changes for the next table, and for any tables after it which
+     * are already planned, up to maxTables.  Only the first table is waited
+     * for.
+     * 
+     * @param maxTables maximum number of tables taken
+     * @return list of changes for the tables taken, in table order.
+     */
+    List<DBChangeUnit> nextBatch(int maxTables){
+        
+        List<DBChangeUnit> units = new ArrayList<>();
+        int tables = 0;
+        
+        while (hasNext()){
+            units.addAll(get(head));
+            head = null;
+            tables++;
+            
+            Future<List<DBChangeUnit>> next = planned.peek();
+            if (tables >= maxTables || next == null || !next.isDone()){
+                break;
+            }
+        }
+        
+        return units;
+    }
+    
+    List<DBChangeUnit> get(Future<List<DBChangeUnit>> future){
+        
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw Throwables.propagate(e);
+        } catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+    
+    /**
+     * Stop reading and planning.  Tables not yet taken are discarded.
+     */
+    void close(){
+        
+        if (reader != null){
+            reader.interrupt();
+        }
+        if (planners != null){
+            planners.shutdownNow();
+        }
+        planned.clear();
+    }
+}
@@ -0,0 +1,190 @@
+/*    Copyright 2014 Certifi Inc.
+ *
+ *    This file is part of AuditTableGen.
+ *
+ *        AuditTableGen is free software: you can redistribute it and/or modify
+ *        it under the terms of the GNU General Public License as published by
+ *        the Free Software Foundation, either version 3 of the License, or
+ *        (at your option) any later version.
+ *
+ *        AuditTableGen is distributed in the hope that it will be useful,
+ *        but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *        GNU General Public License for more details.
+ *
+ *        You should have received a copy of the GNU General Public License
+ *        along with AuditTableGen.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.certifi.audittablegen;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A validated list of database changes, held as one Operation per
+ * begin/end group of DBChangeUnits.  The unit list is validated once, when
+ * the plan is made, and is not changed after that.
+ */
+public class ChangePlan implements Iterable<ChangePlan.Operation> {
+    
+    static final DBChangeUnit BEGIN = new DBChangeUnit(DBChangeType.begin);
+    static final DBChangeUnit END = new DBChangeUnit(DBChangeType.end);
+    
+    final Operation[] operations;
+    final int unitCount;
+    
+    ChangePlan(Operation[] operations){
+        
+        int count = 0;
+        for (Operation op : operations){
+            count += op.size();
+        }
+        this.operations = operations;
+        this.unitCount = count;
+    }
+    
+    /**
+     * Make a plan from a list of change units.
+     * 
+     * @param units list of <begin-stuff-end> groups, see
+     * DBChangeUnit.validateUnitList
+     * @return ChangePlan for the units, or null if the list is not valid.
+     */
+    static ChangePlan of(List<DBChangeUnit> units){
+        
+        if (!DBChangeUnit.validateUnitList(units)){
+            return null;
+        }
+        
+        List<Operation> operations = new ArrayList<>();
+        DBChangeUnit header = null;
+        List<DBChangeUnit> details = new ArrayList<>();
+        
+        for (DBChangeUnit unit : units){
+            switch (unit.getChangeType()){
+                case begin:
+                    header = null;
+                    details.clear();
+                    break;
+                case end:
+                    operations.add(new Operation(header,
+                            details.toArray(new DBChangeUnit[details.size()])));
+                    break;
+                case createTable:
+                case alterTable:
+                case createTriggers:
+                case dropTriggers:
+                    header = unit;
+                    break;
+                default:
+                    details.add(unit);
+                    break;
+            }
+        }
+        
+        return new ChangePlan(operations.toArray(new Operation[operations.size()]));
+    }
+    
+    /**
+     * @return number of operations in the plan.
+     */
+    int size(){
+        return operations.length;
+    }
+    
+    /**
+     * @return number of change units in the plan, counting the begin and
+     * end of each operation.
+     */
+    int getUnitCount(){
+        return unitCount;
+    }
+    
+    Operation get(int index){
+        return operations[index];
+    }
+    
+    @Override
+    public Iterator<Operation> iterator(){
+        return Collections.unmodifiableList(Arrays.asList(operations)).iterator();
+    }
+    
+    /**
+     * @return the plan as a flat list of change units.
+     */
+    List<DBChangeUnit> toUnitList(){
+        
+        List<DBChangeUnit> units = new ArrayList<>(unitCount);
+        for (Operation op : operations){
+            units.addAll(op.toUnitList());
+        }
+        return units;
+    }
+    
+    /**
+     * One begin/end group: the unit that names the change (createTable,
+     * alterTable, createTriggers or dropTriggers) and the units that detail it.
+     */
+    static class Operation {
+        
+        final DBChangeUnit header;
+        final DBChangeUnit[] details;
+        
+        Operation(DBChangeUnit header, DBChangeUnit[] details){
+            this.header = header;
+            this.details = details;
+        }
+        
+        DBChangeType getChangeType(){
+            return header.getChangeType();
+        }
+        
+        String getTableName(){
+            return header.getTableName();
+        }
+        
+        DBChangeUnit getHeader(){
+            return header;
+        }
+        
+        /**
+         * @return number of units in the operation, counting begin and end.
+         */
+        int size(){
+            return details.length + 3;
+        }
+        
+        /**
+         * @return the operation as begin, header, details and end, without
+         * copying the units.  This is the form the SQL renderers take.
+         */
+        List<DBChangeUnit> toUnitList(){
+            
+            return new AbstractList<DBChangeUnit>() {
+                @Override
+                public DBChangeUnit get(int index){
+                    if (index == 0){
+                        return BEGIN;
+                    }
+                    if (index == 1){
+                        return header;
+                    }
+                    if (index == details.length + 2){
+                        return END;
+                    }
+                    return details[index - 2];
+                }
+                
+                @Override
+                public int size(){
+                    return details.length + 3;
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,36 @@
+/*    Copyright 2014 Certifi Inc.
+ *
+ *    This file is part of AuditTableGen.
+ *
+ *        AuditTableGen is free software: you can redistribute it and/or modify
+ *        it under the terms of the GNU General Public License as published by
+ *        the Free Software Foundation, either version 3 of the License, or
+ *        (at your option) any later version.
+ *
+ *        AuditTableGen is distributed in the hope that it will be useful,
+ *        but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *        GNU General Public License for more details.
+ *
+ *        You should have received a copy of the GNU General Public License
+ *        along with AuditTableGen.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.certifi.audittablegen;
+
+/**
+ * Receives the SQL of db change commands rendered instead of executed, see
+ * DataSourceDMR.renderChanges.
+ */
+public interface ChangeSink {
+    
+    /**
+     * Add the SQL for an operation.
+     * 
+     * @param changeType change type of the operation
+     * @param tableName table the operation changes
+     * @param auditTableName audit table of the operation, or empty
+     * @param sql 
+     */
+    void addStatement(DBChangeType changeType, String tableName, String auditTableName, String sql);
+}
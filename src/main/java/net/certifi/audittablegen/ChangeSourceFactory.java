@@ -18,8 +18,13 @@
 
 package net.certifi.audittablegen;
 
+import com.google.common.base.Throwables;
 import java.util.*;
-import org.apache.commons.collections.map.CaseInsensitiveMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import org.apache.commons.lang3.exception.ContextedRuntimeException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -29,13 +34,16 @@ import org.slf4j.LoggerFactory;
  *
  * @author Glenn Sacks
  */
-public class ChangeSourceFactory {
+public class ChangeSourceFactory implements TableFilter {
     
     private static final Logger logger = LoggerFactory.getLogger(ChangeSourceFactory.class);
     ConfigSource configSource;
-    Map<String, TableDef> auditTablesMap;
-    Map<String, TableDef> baseTableMap;
+    Map<Identifier, TableDef> auditTablesMap;
+    Map<Identifier, TableDef> baseTableMap;
     List<TableDef> baseTableList;
+    Set<Identifier> unchangedTables = new HashSet<>();
+    int maxThreads = 1;
+    int batchSize = 256; //tables planned at a time from an iterator
     String tablePrefix = "zz_";
     String tablePostfix = "";
     String columnPrefix = "zz_";
@@ -53,12 +61,13 @@ public class ChangeSourceFactory {
     String sessionUserTypeName = "";
     Integer sessionUserDefaultDataType = java.sql.Types.CHAR;
     Integer sessionUserDataSize = 0; //must be set if dataType requires a size
+    String databaseProduct; //product and version, null if not known
     
     ChangeSourceFactory (ConfigSource configSource){
     
         this.configSource = configSource;
-        auditTablesMap = new CaseInsensitiveMap();
-        baseTableMap = new CaseInsensitiveMap();
+        auditTablesMap = new HashMap<>();
+        baseTableMap = new HashMap<>();
         baseTableList = new ArrayList<>();
         
         for (ConfigAttribute attrib : configSource.dbAttribs) {
@@ -100,29 +109,121 @@ public class ChangeSourceFactory {
             }
         }
         
+        //generated names take the case the database stores unquoted names
+        //in, so they stay the names they had before SQL quoted names.
+        //Names read from the database are used as they are.
+        tablePrefix = getStoredName(tablePrefix);
+        tablePostfix = getStoredName(tablePostfix);
+        
         for (TableDef td : configSource.allTables ){
             
-            String tableName = td.getName();
-            if (tableName.toLowerCase().startsWith(tablePrefix.toLowerCase())
-                    && tableName.toLowerCase().endsWith(tablePostfix.toLowerCase())){
-                //matches audit table pattern
-                auditTablesMap.put(tableName, td);
-            }
-            else {
-                baseTableList.add(td);
-                baseTableMap.put(tableName, td);
-            }
+            classifyTable(td);
+        }
+        
+        
+    }
+    
+    /**
+     * Add tables read after the factory was created, e.g. with the factory
+     * as the TableFilter.  The tables are added to the configSource as well.
+     * 
+     * @param tableDefs 
+     */
+    void addTables(List<TableDef> tableDefs){
+        
+        configSource.addTables(tableDefs);
+        
+        for (TableDef td : tableDefs ){
+            
+            classifyTable(td);
+        }
+    }
+    
+    void classifyTable(TableDef td){
+        
+        String tableName = td.getName();
+        if (isAuditTableName(tableName)){
+            //matches audit table pattern
+            auditTablesMap.put(getIdentifier(tableName), td);
+        }
+        else {
+            baseTableList.add(td);
+            baseTableMap.put(getIdentifier(tableName), td);
         }
+    }
+    
+    Boolean isAuditTableName(String tableName){
         
+        return tableName.regionMatches(true, 0, tablePrefix, 0, tablePrefix.length())
+                && tableName.regionMatches(true, tableName.length() - tablePostfix.length(),
+                        tablePostfix, 0, tablePostfix.length());
+    }
+    
+    /**
+     * Get the identifier for a table or column name, under the case rules
+     * of the configSource.
+     * 
+     * @param name
+     * @return Identifier for the name.
+     */
+    Identifier getIdentifier(String name){
         
+        return configSource.idMetaData.getIdentifier(name);
     }
     
     /**
-     * Compares the value of str to the pattern represented by pattern. pattern
-     * may be a simple string, or may contain wildcards or a regular expression
-     * in a future implementation. CURRENTLY ONLY SUPPORTS case insensitive
-     * string compare, always matches on the wildcard '*' or an empty string in
-     * pattern.
+     * @param name
+     * @return the name in the case the database stores unquoted names in.
+     */
+    String getStoredName(String name){
+        
+        return configSource.idMetaData.getStoredName(name);
+    }
+    
+    /**
+     * @param name name of an audit column without prefix and postfix
+     * @return the generated audit column name, in the stored case.
+     */
+    String getAuditColumnName(String name){
+        
+        return getStoredName(columnPrefix + name + columnPostfix);
+    }
+    
+    /**
+     * 
+     * @param baseTableName
+     * @return Identifier for the name of the audit table of a base table.
+     */
+    Identifier getAuditIdentifier(String baseTableName){
+        
+        return getIdentifier(tablePrefix + baseTableName + tablePostfix);
+    }
+    
+    /**
+     * Columns are only needed for base tables which are not excluded, and
+     * for the audit tables of those base tables.  Excluded tables only get
+     * their triggers dropped, which needs the table name alone.
+     * 
+     * @param tableName
+     * @return True if the columns of the table are needed for planning.
+     */
+    @Override
+    public boolean accept(String tableName){
+        
+        String baseTableName = tableName;
+        if (isAuditTableName(tableName)
+                && tableName.length() >= tablePrefix.length() + tablePostfix.length()){
+            baseTableName = tableName.substring(tablePrefix.length(),
+                    tableName.length() - tablePostfix.length());
+        }
+        
+        return !isTableExcluded(baseTableName);
+    }
+    
+    /**
+     * Compare a string to a pattern, ignoring case.  The pattern may be a
+     * plain name, a glob or a regular expression, as described in
+     * NameMatcher.  It always matches on the wildcard '*' or an empty string.
      *
      * @param str string being compared
      * @param pattern string or expression to compare to
@@ -130,79 +231,199 @@ public class ChangeSourceFactory {
      */
     Boolean isPatternMatch(String str, String pattern) {
 
-        //TODO: this is where regexp or wildcard pattern matching should go
-        if (pattern.isEmpty()
-                || pattern.equals("*")
-                || pattern.toLowerCase().equals(str.toLowerCase())) {
-            return Boolean.TRUE;
-        }
+        return NameMatcher.of(pattern).matches(str);
 
-        return Boolean.FALSE;
+    }
 
+    /**
+     * @param tableName
+     * @return the settings planning uses for the table, from one lookup.
+     */
+    TableConfig getTableConfig(String tableName) {
+        
+        return configSource.getPlanningConfig(tableName);
     }
 
     Boolean isTableExcluded(String tableName) {
 
-        Boolean result = Boolean.FALSE;
-
-        for (ConfigAttribute attrib : configSource.excludes) {
-            if (attrib.getColumnName().isEmpty()
-                    && isPatternMatch(tableName, attrib.getTableName())) {
-                result = Boolean.TRUE;
-            }
+        return getTableConfig(tableName).getExcludeTable();
+        
+    }
+    
+    Boolean isColumnExcluded(String tableName, String columnName) {
+        
+        return getTableConfig(tableName).isColumnExcluded(columnName);
+    }
+    
+    Boolean hasTriggerType(String tableName, ConfigAttributeTypes type){
+        
+        return hasTriggerType(getTableConfig(tableName), type);
+    }
+    
+    Boolean hasTriggerType(TableConfig tableConfig, ConfigAttributeTypes type){
+        
+        switch (type) {
+            case auditinsert:
+                return tableConfig.getHasInsertTrigger();
+            case auditupdate:
+                return tableConfig.getHasUpdateTrigger();
+            case auditdelete:
+                return tableConfig.getHasDeleteTrigger();
+            default:
+                return Boolean.TRUE;
         }
-
-        if (result) {
-            //check for include -> overrides exclude
-            for (ConfigAttribute attrib : configSource.includes) {
-                if (attrib.getColumnName().isEmpty()
-                        && isPatternMatch(tableName, attrib.getTableName())) {
-                    result = Boolean.FALSE;
-                }
-            }
+    }
+    
+    List<DBChangeUnit> getDBChangeList(TableDef baseTableDef){
+        
+        if (baseTableDef == null ){
+            logger.error("Invalid input. null TableDef");
+            return new ArrayList<>();
         }
         
-        return result;
+        return getDBChangeList(baseTableDef,
+                auditTablesMap.get(getAuditIdentifier(baseTableDef.getName())));
+    }
+    
+    /**
+     * Get the changes for one base table, given its audit table.
+     * 
+     * @param baseTableDef
+     * @param auditTableDef the audit table, or null if there is none yet
+     * @return list of changes for the table.
+     */
+    List<DBChangeUnit> getDBChangeList(TableDef baseTableDef, TableDef auditTableDef){
+        
+        if (baseTableDef == null ){
+            logger.error("Invalid input. null TableDef");
+            return new ArrayList<>();
+        }
+        
+        String baseTableName = baseTableDef.getName();
+        String auditTableName = tablePrefix + baseTableName + tablePostfix;
+        String key = getShapeKey(baseTableDef, auditTableDef, auditTableName);
+        if (key == null){
+            return planTable(baseTableDef, auditTableDef);
+        }
         
+        ShapeCache cache = getPlanCache();
+        @SuppressWarnings("unchecked")
+        List<DBChangeUnit> template = (List<DBChangeUnit>) cache.get(key);
+        
+        if (template == null){
+            List<DBChangeUnit> tableChangeUnits = planTable(baseTableDef, auditTableDef);
+            cache.put(key, ShapeCache.tokenize(tableChangeUnits, baseTableName, auditTableName));
+            return tableChangeUnits;
+        }
+        
+        return ShapeCache.detokenize(template, baseTableName, auditTableName);
     }
     
-    Boolean isColumnExcluded(String tableName, String columnName) {
+    /**
+     * Get a key for everything planTable uses from a table and its audit
+     * table, with the table names tokenized as in ShapeCache.  Settings which
+     * are looked up by table or column name are resolved into the key.
+     * 
+     * @param baseTableDef
+     * @param auditTableDef the audit table, or null if there is none yet
+     * @param auditTableName
+     * @return key for the plan, or null if the plan can not be shared.
+     */
+    String getShapeKey(TableDef baseTableDef, TableDef auditTableDef, String auditTableName){
         
-        Boolean result = Boolean.FALSE;
+        String baseTableName = baseTableDef.getName();
+        StringBuilder builder = new StringBuilder();
         
-        for (ConfigAttribute attrib : configSource.excludes) {
-            if (isPatternMatch(columnName, attrib.getColumnName())
-                    && isPatternMatch(tableName, attrib.getTableName())) {
-                result = Boolean.TRUE;
+        //generated audit column names must not look like table names
+        for (String name : new String[]{"action", "ts", "userId", "sessionUser"}){
+            String columnName = getAuditColumnName(name);
+            if (ShapeCache.isAmbiguous(columnName, baseTableName, auditTableName)
+                    || !columnName.equals(ShapeCache.tokenize(columnName, baseTableName, auditTableName))){
+                return null;
             }
         }
-
-        if (result) {
-            //check for include -> overrides exclude
-            for (ConfigAttribute attrib : configSource.includes) {
-                if (isPatternMatch(columnName, attrib.getColumnName())
-                        && isPatternMatch(tableName, attrib.getTableName())) {
-                    result = Boolean.FALSE;
+        
+        TableConfig tableConfig = getTableConfig(baseTableName);
+        if (tableConfig.getExcludeTable()){
+            return builder.append("excluded|").append(baseTableDef.getAuditTrigger()).toString();
+        }
+        
+        if (baseTableDef.getColumns().isEmpty()){
+            //invalid, left to planTable to report
+            return null;
+        }
+        
+        builder.append(hasTriggerType(tableConfig, ConfigAttributeTypes.auditinsert)).append('|')
+                .append(hasTriggerType(tableConfig, ConfigAttributeTypes.auditupdate)).append('|')
+                .append(hasTriggerType(tableConfig, ConfigAttributeTypes.auditdelete)).append('\n');
+        
+        for (ColumnDef columnDef : baseTableDef.getColumns()){
+            if (!appendColumnKey(builder, columnDef, baseTableName, auditTableName)){
+                return null;
+            }
+            builder.append('|').append(tableConfig.isColumnExcluded(columnDef.getName())).append('\n');
+        }
+        
+        if (auditTableDef == null){
+            builder.append("none");
+        }
+        else {
+            builder.append("audit\n");
+            for (ColumnDef columnDef : auditTableDef.getColumns()){
+                if (!appendColumnKey(builder, columnDef, baseTableName, auditTableName)){
+                    return null;
                 }
+                builder.append('\n');
             }
         }
         
-        return result;
+        return builder.toString();
     }
     
-    Boolean hasTriggerType(String tableName, ConfigAttributeTypes type){
+    boolean appendColumnKey(StringBuilder builder, ColumnDef columnDef, String baseTableName, String auditTableName){
         
-        Boolean result = Boolean.TRUE;
-        for (ConfigAttribute attrib : configSource.triggerAttribs) {
-            if (tableName.equalsIgnoreCase(attrib.getTableName())){
-                if (attrib.getType().equals(type))
-                    result = attrib.getBooleanValue();
-            }
+        if (ShapeCache.isAmbiguous(columnDef.getName(), baseTableName, auditTableName)){
+            return false;
         }
-        return result;
+        builder.append(ShapeCache.tokenize(columnDef.getName(), baseTableName, auditTableName)).append('|')
+                .append(columnDef.getTypeName()).append('|')
+                .append(columnDef.getSize()).append('|')
+                .append(columnDef.getDecimalSize());
+        return true;
     }
     
-    List<DBChangeUnit> getDBChangeList(TableDef baseTableDef){
+    /**
+     * Get the cache for planned changes.  It is shared with other factories
+     * using the same settings against the same database product and
+     * identifier case rules.
+     * 
+     * @return ShapeCache for plan templates.
+     */
+    ShapeCache getPlanCache(){
+        
+        IdentifierMetaData idMetaData = configSource.idMetaData;
+        StringBuilder builder = new StringBuilder("plan");
+        for (Object setting : new Object[]{databaseProduct,
+                idMetaData.getStoresLowerCaseIds(), idMetaData.getStoresUpperCaseIds(),
+                idMetaData.getStoresMixedCaseIds(),
+                tablePrefix, tablePostfix, columnPrefix, columnPostfix,
+                auditIdTypeName, auditUserTypeName, auditTimeStampTypeName, auditActionTypeName,
+                sessionUserSQL, sessionUserTypeName, sessionUserDataSize,
+                configSource.getMaxUserNameLength()}){
+            builder.append('|').append(setting);
+        }
+        
+        return ShapeCache.getShared(builder.toString());
+    }
+    
+    /**
+     * Plan the changes for one base table, given its audit table.
+     * 
+     * @param baseTableDef
+     * @param auditTableDef the audit table, or null if there is none yet
+     * @return list of changes for the table.
+     */
+    List<DBChangeUnit> planTable(TableDef baseTableDef, TableDef auditTableDef){
         
         List<DBChangeUnit> tableChangeUnits = new ArrayList();
         List<DBChangeUnit> renameColumnChangeUnits = new ArrayList();
@@ -218,39 +439,25 @@ public class ChangeSourceFactory {
             return tableChangeUnits;
         }
         
-        if (baseTableDef.getColumns().isEmpty()){
-            ContextedRuntimeException e = new ContextedRuntimeException();
-            e.setContextValue("tableName", baseTableDef.getName());
-            logger.error("Invalid Input. TableDef has no columns.", e);
-            return tableChangeUnits;
-        }
-        
         String auditTableName = tablePrefix
                 + baseTableName
                 + tablePostfix;
         
-        String auditActionColumn = columnPrefix
-                + "action"
-                + columnPostfix;
+        String auditActionColumn = getAuditColumnName("action");
         
-        String auditTimeStampColumn = columnPrefix
-                + "ts"
-                + columnPostfix;
+        String auditTimeStampColumn = getAuditColumnName("ts");
                 
-        String auditUserColumn = columnPrefix
-                + "userId"
-                + columnPostfix;
+        String auditUserColumn = getAuditColumnName("userId");
         
-        String sessionUserColumn = columnPrefix
-                + "sessionUser"
-                + columnPostfix;
-        
-        TableDef auditTableDef = null;
-        if (auditTablesMap.containsKey(auditTableName)){
-            auditTableDef = auditTablesMap.get(auditTableName);
-        }
+        String sessionUserColumn = getAuditColumnName("sessionUser");
         
-        if (isTableExcluded(baseTableName)){
+        TableConfig tableConfig = getTableConfig(baseTableName);
+        if (tableConfig.getExcludeTable()){
+            if (Boolean.FALSE.equals(baseTableDef.getAuditTrigger())){
+                //known to have no audit trigger.  Nothing to drop
+                return tableChangeUnits;
+            }
+            
             //drop all audit triggers
             tableChangeUnits.add(new DBChangeUnit(DBChangeType.begin));
             workUnit = new DBChangeUnit(DBChangeType.dropTriggers);
@@ -262,6 +469,13 @@ public class ChangeSourceFactory {
             return tableChangeUnits;
         }
         
+        if (baseTableDef.getColumns().isEmpty()){
+            ContextedRuntimeException e = new ContextedRuntimeException();
+            e.setContextValue("tableName", baseTableDef.getName());
+            logger.error("Invalid Input. TableDef has no columns.", e);
+            return tableChangeUnits;
+        }
+        
         //create or alter audit table
         if (null == auditTableDef){
             //create table
@@ -272,7 +486,7 @@ public class ChangeSourceFactory {
             
             //create id column
             workUnit = new DBChangeUnit(DBChangeType.addColumn);
-            workUnit.setColumnName(auditTableName + "Id");
+            workUnit.setColumnName(auditTableName + getStoredName("Id"));
             workUnit.setTableName(auditTableName);
             workUnit.setTypeName(auditIdTypeName);
             workUnit.setIdentity(Boolean.TRUE);
@@ -341,15 +555,15 @@ public class ChangeSourceFactory {
             alterTableChangeUnits.add(workUnit);
             
             //to make this a little easier, get a map for the column list
-            Map<String, ColumnDef> auditColumnMap = new CaseInsensitiveMap();
+            Map<Identifier, ColumnDef> auditColumnMap = new HashMap<>();
             for ( ColumnDef auditColumn : auditTableDef.getColumns()){
-                auditColumnMap.put(auditColumn.getName(), auditColumn);
+                auditColumnMap.put(getIdentifier(auditColumn.getName()), auditColumn);
             }
 
             //make sure the audit columns and the id exist
             //create the audit tracking columns
             //action
-            if (!auditColumnMap.containsKey(auditActionColumn)){
+            if (!auditColumnMap.containsKey(getIdentifier(auditActionColumn))){
                 logger.warn ("Existing audit table {} does not contain column {}. Creating", auditTableName, auditActionColumn );
                 workUnit = new DBChangeUnit(DBChangeType.addColumn);
                 workUnit.setColumnName(auditActionColumn);
@@ -361,7 +575,7 @@ public class ChangeSourceFactory {
             }
             
             //user
-            if (!auditColumnMap.containsKey(auditUserColumn)){
+            if (!auditColumnMap.containsKey(getIdentifier(auditUserColumn))){
                 logger.warn ("Existing audit table {} does not contain column {}. Creating", auditTableName, auditUserColumn );
                 workUnit = new DBChangeUnit(DBChangeType.addColumn);
                 workUnit.setColumnName(auditUserColumn);
@@ -373,7 +587,7 @@ public class ChangeSourceFactory {
             }
             
             //timestamp
-            if (!auditColumnMap.containsKey(auditTimeStampColumn)){            
+            if (!auditColumnMap.containsKey(getIdentifier(auditTimeStampColumn))){            
                 logger.warn ("Existing audit table {} does not contain column {}. Creating", auditTableName, auditTimeStampColumn );
                 workUnit = new DBChangeUnit(DBChangeType.addColumn);
                 workUnit.setColumnName(auditTimeStampColumn);
@@ -386,7 +600,7 @@ public class ChangeSourceFactory {
             
             //seesionuser
             if (!sessionUserSQL.isEmpty()) {
-                if (!auditColumnMap.containsKey(sessionUserColumn)) {
+                if (!auditColumnMap.containsKey(getIdentifier(sessionUserColumn))) {
                     logger.warn("Existing audit table {} does not contain column {}. Creating", auditTableName, sessionUserColumn);
                     workUnit = new DBChangeUnit(DBChangeType.addColumn);
                     workUnit.setColumnName(sessionUserColumn);
@@ -400,9 +614,9 @@ public class ChangeSourceFactory {
             
             //add or alter columns
             for ( ColumnDef baseColumn : baseTableDef.getColumns()){
-                if (auditColumnMap.containsKey(baseColumn.name)){
+                ColumnDef auditColumn = auditColumnMap.get(getIdentifier(baseColumn.name));
+                if (auditColumn != null){
                     //existing column
-                    ColumnDef auditColumn = auditColumnMap.get(baseColumn.name);
                     if (auditColumn.getTypeName().equalsIgnoreCase(baseColumn.getTypeName())
                             && auditColumn.getSize() >= baseColumn.getSize()
                             && auditColumn.getDecimalSize() >= baseColumn.getDecimalSize()){
@@ -430,7 +644,7 @@ public class ChangeSourceFactory {
                         do {
                             newColumnName = String.format("%s_prev%d", auditColumn.getName(), i);
                             i++;
-                        } while (auditColumnMap.containsKey(newColumnName));
+                        } while (auditColumnMap.containsKey(getIdentifier(newColumnName)));
                         //rename the old version of the audit column
                         renameColumnChangeUnits.add((new DBChangeUnit(DBChangeType.begin)));
                         workUnit = new DBChangeUnit(DBChangeType.alterTable);
@@ -493,21 +707,21 @@ public class ChangeSourceFactory {
         workUnit = new DBChangeUnit(DBChangeType.fireOnInsert);
         workUnit.setTableName(baseTableName);
         workUnit.setAuditTableName(auditTableName);
-        workUnit.setFiresTrigger(hasTriggerType(baseTableName, ConfigAttributeTypes.auditinsert));
+        workUnit.setFiresTrigger(hasTriggerType(tableConfig, ConfigAttributeTypes.auditinsert));
         tableChangeUnits.add(workUnit);
 
         //update trigger
         workUnit = new DBChangeUnit(DBChangeType.fireOnUpdate);
         workUnit.setTableName(baseTableName);
         workUnit.setAuditTableName(auditTableName);
-        workUnit.setFiresTrigger(hasTriggerType(baseTableName, ConfigAttributeTypes.auditupdate));
+        workUnit.setFiresTrigger(hasTriggerType(tableConfig, ConfigAttributeTypes.auditupdate));
         tableChangeUnits.add(workUnit);
 
         //delete trigger
         workUnit = new DBChangeUnit(DBChangeType.fireOnDelete);
         workUnit.setTableName(baseTableName);
         workUnit.setAuditTableName(auditTableName);
-        workUnit.setFiresTrigger(hasTriggerType(baseTableName, ConfigAttributeTypes.auditdelete));
+        workUnit.setFiresTrigger(hasTriggerType(tableConfig, ConfigAttributeTypes.auditdelete));
         tableChangeUnits.add(workUnit);
 
         //now add the columns that will be included in the trigger
@@ -517,7 +731,7 @@ public class ChangeSourceFactory {
             workUnit.setTableName(baseTableName);
             workUnit.setAuditTableName(auditTableName);
             workUnit.setColumnName(baseColumnDef.getName());
-            if (isColumnExcluded(baseTableDef.getName(), baseColumnDef.getName())){
+            if (tableConfig.isColumnExcluded(baseColumnDef.getName())){
                 workUnit.setFiresTrigger(Boolean.FALSE);
             }
             tableChangeUnits.add(workUnit);
@@ -563,23 +777,265 @@ public class ChangeSourceFactory {
         
     }
     
+    /**
+     * Tables that have not changed since a previous run which applied the
+     * same configuration.  A base table is skipped by getDBChangeList() if it
+     * is unchanged and is either excluded or its audit table is unchanged too,
+     * since the previous run already left it in the planned state.
+     * 
+     * @param tableNames 
+     */
+    void setUnchangedTables(Collection<String> tableNames){
+        
+        unchangedTables.clear();
+        for (String tableName : tableNames){
+            unchangedTables.add(getIdentifier(tableName));
+        }
+    }
+    
+    boolean isUnchanged(String baseTableName){
+        
+        if (unchangedTables.isEmpty() || !unchangedTables.contains(getIdentifier(baseTableName))){
+            return false;
+        }
+        
+        return isTableExcluded(baseTableName)
+                || unchangedTables.contains(getAuditIdentifier(baseTableName));
+    }
+    
     List<DBChangeUnit> getDBChangeList(){
         
-        List<DBChangeUnit> dbChangeUnits = new ArrayList();
+        return getDBChangeList(getTablePairs());
+        
+    }
+    
+    /**
+     * Get the base tables added to the factory that need planning, each
+     * with its audit table.
+     * 
+     * @return base table and audit table (or null) for each table
+     */
+    List<TableDef[]> getTablePairs(){
+        
+        List<TableDef[]> pairs = new ArrayList<>();
         
         for ( TableDef td : baseTableList) {
-            List<DBChangeUnit> tableChangeUnits = getDBChangeList(td);
-            dbChangeUnits.addAll(tableChangeUnits);
+            if (isUnchanged(td.getName())){
+                continue;
+            }
+            pairs.add(new TableDef[]{td,
+                auditTablesMap.get(getAuditIdentifier(td.getName()))});
+        }
+        
+        return pairs;
+    }
+    
+    /**
+     * Get the changes for pairs of base table and audit table.  Each table
+     * is planned on its own, so with more than one thread the pairs are split
+     * into slices planned concurrently.  The changes are returned in the
+     * order of the pairs either way.
+     * 
+     * @param pairs base table and audit table (or null) for each table
+     * @return list of changes for all of the tables.
+     */
+    List<DBChangeUnit> getDBChangeList(final List<TableDef[]> pairs){
+        
+        List<DBChangeUnit> dbChangeUnits = new ArrayList<>();
+        int threads = Math.max(1, Math.min(maxThreads, pairs.size()));
+        
+        if (threads == 1){
+            for (TableDef[] pair : pairs){
+                dbChangeUnits.addAll(getDBChangeList(pair[0], pair[1]));
+            }
+            return dbChangeUnits;
+        }
+        
+        //a few slices per thread, so one slow slice does not hold up the rest
+        int slices = Math.min(pairs.size(), threads * 4);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<List<DBChangeUnit>>> futures = new ArrayList<>(slices);
+        
+        try {
+            for (int i = 0; i < slices; i++){
+                final List<TableDef[]> slice = pairs.subList(
+                        i * pairs.size() / slices, (i + 1) * pairs.size() / slices);
+                futures.add(executor.submit(new Callable<List<DBChangeUnit>>() {
+                    @Override
+                    public List<DBChangeUnit> call() {
+                        List<DBChangeUnit> units = new ArrayList<>();
+                        for (TableDef[] pair : slice){
+                            units.addAll(getDBChangeList(pair[0], pair[1]));
+                        }
+                        return units;
+                    }
+                }));
+            }
+            
+            for (Future<List<DBChangeUnit>> future : futures){
+                dbChangeUnits.addAll(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw Throwables.propagate(e);
+        } catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        } finally {
+            executor.shutdownNow();
         }
         
         return dbChangeUnits;
+    }
+    
+    /**
+     * set the maximum number of threads used to plan the changes.
+     * 
+     * @param threads maximum number of threads.  Values less than 1 are
+     * treated as 1.
+     */
+    void setMaxThreads(int threads){
+        
+        maxThreads = Math.max(1, threads);
+    }
+    
+    /**
+     * @param databaseProduct product name and version of the target
+     * database, or null if not known.
+     */
+    void setDatabaseProduct(String databaseProduct){
+        
+        this.databaseProduct = databaseProduct;
+    }
+    
+    /**
+     * Get the changes for tables supplied in planning order (see
+     * getPlanningOrder), without holding on to them.  Each audit table
+     * must follow its base table.
+     * 
+     * @param tables iterator over base tables and their audit tables
+     * @return list of changes for all of the tables.
+     */
+    List<DBChangeUnit> getDBChangeList(Iterator<TableDef> tables){
+        
+        List<DBChangeUnit> dbChangeUnits = new ArrayList<>();
+        List<TableDef[]> pairs = new ArrayList<>();
+        Iterator<TableDef[]> pairIter = getTablePairs(tables);
+        
+        while (pairIter.hasNext()){
+            pairs.add(pairIter.next());
+            //plan a batch at a time, so the tables can be released
+            if (pairs.size() >= batchSize){
+                dbChangeUnits.addAll(getDBChangeList(pairs));
+                pairs.clear();
+            }
+        }
+        dbChangeUnits.addAll(getDBChangeList(pairs));
+        
+        return dbChangeUnits;
+    }
+    
+    /**
+     * Pair up tables supplied in planning order (see getPlanningOrder).
+     * Tables are read from the supplied iterator only as the pairs are
+     * needed.  An audit table which does not directly follow its own base
+     * table is skipped, so it is never planned as a base table.  That
+     * happens when the base table could not be read.
+     * 
+     * @param tables iterator over base tables and their audit tables
+     * @return iterator over base table and audit table (or null) for each
+     * base table.
+     */
+    Iterator<TableDef[]> getTablePairs(final Iterator<TableDef> tables){
+        
+        return new Iterator<TableDef[]>() {
+            
+            TableDef pending; //base table read ahead of its pair
+            
+            @Override
+            public boolean hasNext() {
+                
+                while (pending == null && tables.hasNext()){
+                    TableDef td = tables.next();
+                    if (isAuditTableName(td.getName())){
+                        logger.warn("Skipping audit table {}, its base table was not read", td.getName());
+                    }
+                    else {
+                        pending = td;
+                    }
+                }
+                
+                return pending != null;
+            }
+            
+            @Override
+            public TableDef[] next() {
+                
+                if (!hasNext()){
+                    throw new NoSuchElementException();
+                }
+                TableDef baseTableDef = pending;
+                pending = null;
+                
+                if (tables.hasNext()){
+                    TableDef td = tables.next();
+                    if (getIdentifier(td.getName()).equals(getAuditIdentifier(baseTableDef.getName()))){
+                        return new TableDef[]{baseTableDef, td};
+                    }
+                    if (isAuditTableName(td.getName())){
+                        logger.warn("Skipping audit table {}, its base table was not read", td.getName());
+                    }
+                    else {
+                        pending = td;
+                    }
+                }
+                
+                return new TableDef[]{baseTableDef, null};
+            }
+            
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+    
+    /**
+     * Order table names for getDBChangeList(Iterator): each base table is
+     * followed by its audit table, if it has one.  Audit tables without a
+     * base table are left out, as are unchanged tables.
+     * 
+     * @param tableNames names of all tables in the database/schema
+     * @return names in planning order
+     */
+    List<String> getPlanningOrder(List<String> tableNames){
+        
+        Map<Identifier, String> auditNames = new HashMap<>();
+        for (String tableName : tableNames){
+            if (isAuditTableName(tableName)){
+                auditNames.put(getIdentifier(tableName), tableName);
+            }
+        }
+        
+        List<String> order = new ArrayList<>();
+        for (String tableName : tableNames){
+            if (isAuditTableName(tableName) || isUnchanged(tableName)){
+                continue;
+            }
+            order.add(tableName);
+            String auditTableName = auditNames.get(getAuditIdentifier(tableName));
+            if (auditTableName != null){
+                order.add(auditTableName);
+            }
+        }
         
+        return order;
     }
     
     List<DBChangeUnit> getDBChangeList(String tableName){
         
-        if (baseTableMap.containsKey(tableName)){
-            return getDBChangeList(baseTableMap.get(tableName));
+        TableDef baseTableDef = baseTableMap.get(getIdentifier(tableName));
+        if (baseTableDef != null){
+            return getDBChangeList(baseTableDef);
         }
         else {
             //not found.  Return empty list
@@ -33,11 +33,14 @@ public class ColumnDef {
     int decimalSize; //field precision
     DataTypeDef dataTypeDef;
     
-    //the map contains all of the meta data.  It does not need to 
+    //all of the meta data.  It does not need to 
     //be set.  But if a DMR requires more information it can store
     //he full meta list here, and it will get it back in the changeSource
-    //object.  This is just a fallback for an oddball case;
-    Map<String, String> sourceMeta;
+    //object.  This is just a fallback for an oddball case, so only the
+    //values are kept per column, against a layout shared by all columns
+    //of the same result set.  The map is built on request.
+    SourceMetaLayout sourceLayout;
+    String[] sourceValues;
 
     public int getDecimalSize() {
         return decimalSize;
@@ -63,12 +66,33 @@ public class ColumnDef {
         this.size = size;
     }
 
+    /**
+     * @return case insensitive map of the meta data the column was read
+     * from, or null if none was kept.  A new map is built on each call.
+     */
     public Map<String, String> getSourceMeta() {
-        return sourceMeta;
+        if (sourceLayout == null){
+            return null;
+        }
+        return sourceLayout.toMap(sourceValues);
     }
 
     public void setSourceMeta(Map<String, String> sourceMeta) {
-        this.sourceMeta = sourceMeta;
+        if (sourceMeta == null){
+            setSourceMeta(null, null);
+            return;
+        }
+        String[] names = sourceMeta.keySet().toArray(new String[sourceMeta.size()]);
+        String[] values = new String[names.length];
+        for (int i = 0; i < names.length; i++){
+            values[i] = sourceMeta.get(names[i]);
+        }
+        setSourceMeta(new SourceMetaLayout(names), values);
+    }
+
+    void setSourceMeta(SourceMetaLayout layout, String[] values) {
+        this.sourceLayout = layout;
+        this.sourceValues = values;
     }
 
     public String getTypeName() {
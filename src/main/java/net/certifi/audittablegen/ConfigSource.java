@@ -19,9 +19,10 @@
 package net.certifi.audittablegen;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import org.apache.commons.collections.map.CaseInsensitiveMap;
+import java.util.concurrent.ConcurrentHashMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -41,12 +42,15 @@ public class ConfigSource {
     List<ConfigAttribute> dbAttribs; //prefixes & postfixes
     List<ConfigAttribute> triggerAttribs; //triggers
     List<ConfigAttribute> otherAttributes; //these are of unknown type
-    //IdentifierMetaData idMetaData;
+    IdentifierMetaData idMetaData; //case rules for table names
     int maxUserNameLength;
+    ExclusionRules exclusionRules; //compiled excludes & includes
+    Map<Identifier, TableConfig> tablesConfig; //per table settings, by table name
+    Map<Identifier, TableConfig> resolvedConfig; //settings for planning, by table name
 
     
     ConfigSource(){
-        //this.idMetaData = idMetaData;
+        idMetaData = new IdentifierMetaData();
         //existingTables = new CaseInsensitiveMap();
         //existingAuditTables = new CaseInsensitiveMap();
         dbAttribs = new ArrayList<>();
@@ -54,6 +58,8 @@ public class ConfigSource {
         excludes = new ArrayList<>();
         includes = new ArrayList<>();
         otherAttributes = new ArrayList<>();
+        tablesConfig = new HashMap<>();
+        resolvedConfig = new ConcurrentHashMap<>();
                 
         allTables = new ArrayList<>();
 
@@ -68,14 +74,26 @@ public class ConfigSource {
         }
     }
 
+    /**
+     * 
+     * @param attrib
+     * @throws IllegalArgumentException if the table or column pattern of
+     * an include or exclude is not valid.
+     */
     void addAttribute(ConfigAttribute attrib) {
         
         switch (attrib.getType()) {
             case exclude:
+                validatePatterns(attrib);
                 excludes.add(attrib);
+                exclusionRules = null;
+                resolvedConfig.clear();
                 break;
             case include:
+                validatePatterns(attrib);
                 includes.add(attrib);
+                exclusionRules = null;
+                resolvedConfig.clear();
                 break;
             case tableprefix: 
             case tablepostfix:
@@ -94,6 +112,8 @@ public class ConfigSource {
             case auditupdate:
             case auditdelete:
                 triggerAttribs.add(attrib);
+                indexTriggerAttribute(attrib);
+                resolvedConfig.clear();
             case unknown:
             default:
                 otherAttributes.add(attrib);
@@ -101,6 +121,129 @@ public class ConfigSource {
         }
     }
     
+    static void validatePatterns(ConfigAttribute attrib){
+        
+        NameMatcher.validate(attrib.getTableName());
+        NameMatcher.validate(attrib.getColumnName());
+    }
+    
+    /**
+     * Record a trigger attribute against its table.  Like the attributes,
+     * the last one read for a table and trigger type wins.
+     * 
+     * @param attrib 
+     */
+    void indexTriggerAttribute(ConfigAttribute attrib){
+        
+        TableConfig tableConfig = ensureTableConfig(attrib.getTableName());
+        
+        switch (attrib.getType()) {
+            case auditinsert:
+                tableConfig.setHasInsertTrigger(attrib.getBooleanValue());
+                break;
+            case auditupdate:
+                tableConfig.setHasUpdateTrigger(attrib.getBooleanValue());
+                break;
+            case auditdelete:
+                tableConfig.setHasDeleteTrigger(attrib.getBooleanValue());
+                break;
+        }
+    }
+    
+    /**
+     * Get the settings for a table, adding them if the table has none yet.
+     * 
+     * @param tableName
+     * @return TableConfig for the table.
+     */
+    TableConfig ensureTableConfig(String tableName){
+        
+        Identifier id = idMetaData.getIdentifier(tableName);
+        TableConfig tableConfig = tablesConfig.get(id);
+        
+        if (tableConfig == null){
+            tableConfig = new TableConfig(tableName);
+            tablesConfig.put(id, tableConfig);
+        }
+        
+        return tableConfig;
+    }
+    
+    /**
+     * Get the settings for a table.  The lookup is not case sensitive.
+     * 
+     * @param tableName
+     * @return TableConfig for the table, or null if no attribute names the
+     * table.
+     */
+    TableConfig getTableConfig(String tableName){
+        
+        return tablesConfig.get(idMetaData.getIdentifier(tableName));
+    }
+    
+    /**
+     * Set the case rules of the database, as read by the DataSourceDMR.
+     * Table settings already indexed are indexed again under the new rules.
+     * 
+     * @param idMetaData 
+     */
+    void setIdentifierMetaData(IdentifierMetaData idMetaData){
+        
+        this.idMetaData = idMetaData;
+        
+        Map<Identifier, TableConfig> reindexed = new HashMap<>();
+        for (Map.Entry<Identifier, TableConfig> entry : tablesConfig.entrySet()){
+            reindexed.put(idMetaData.getIdentifier(entry.getKey().getName()), entry.getValue());
+        }
+        tablesConfig = reindexed;
+        resolvedConfig.clear();
+    }
+    
+    /**
+     * Get everything planning needs to know about a table with one lookup:
+     * its trigger settings, whether it is excluded, and the column includes
+     * and excludes which apply to it.  These are resolved from the
+     * attributes the first time the table is looked up.
+     * 
+     * @param tableName
+     * @return TableConfig for the table.
+     */
+    TableConfig getPlanningConfig(String tableName){
+        
+        Identifier id = idMetaData.getIdentifier(tableName);
+        TableConfig tableConfig = resolvedConfig.get(id);
+        
+        if (tableConfig == null){
+            tableConfig = new TableConfig(tableName);
+            TableConfig indexed = tablesConfig.get(id);
+            if (indexed != null){
+                tableConfig.setTriggers(indexed);
+            }
+            ExclusionRules rules = getExclusionRules();
+            tableConfig.setExcludeTable(rules.isTableExcluded(tableName));
+            tableConfig.columnExcludes = rules.columnExcludes.forTable(tableName);
+            tableConfig.columnIncludes = rules.columnIncludes.forTable(tableName);
+            resolvedConfig.put(id, tableConfig);
+        }
+        
+        return tableConfig;
+    }
+    
+    /**
+     * Get the include and exclude attributes compiled for matching.  They
+     * are compiled on first use after an include or exclude is added.
+     * 
+     * @return ExclusionRules for the current attributes.
+     */
+    synchronized ExclusionRules getExclusionRules(){
+        
+        if (exclusionRules == null){
+            exclusionRules = new ExclusionRules(excludes, includes);
+        }
+        
+        return exclusionRules;
+    }
+    
     void addTable(TableDef tableDef){
         
         allTables.add(tableDef);
@@ -47,6 +47,25 @@ public class DBChangeUnit {
         this.changeType = changeType;
     }
     
+    /**
+     * Copy a change unit.
+     * 
+     * @param unit 
+     */
+    DBChangeUnit( DBChangeUnit unit) {
+        this.changeType = unit.changeType;
+        this.tableName = unit.tableName;
+        this.auditTableName = unit.auditTableName;
+        this.columnName = unit.columnName;
+        this.newColumnName = unit.newColumnName;
+        this.foreignTable = unit.foreignTable;
+        this.firesTrigger = unit.firesTrigger;
+        this.typeName = unit.typeName;
+        this.size = unit.size;
+        this.decimalSize = unit.decimalSize;
+        this.identity = unit.identity;
+    }
+    
     public DBChangeType getChangeType() {
         return changeType;
     }
@@ -18,7 +18,11 @@
 
 package net.certifi.audittablegen;
 
+import java.io.File;
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 
 /**
@@ -77,7 +81,7 @@ public interface DataSourceDMR {
      *
      * @return List of ConfigAttribute objects or an empty list if none are found.
      */
-    List getConfigAttributes();
+    List<ConfigAttribute> getConfigAttributes();
     
     /**
      * Get List of TableDef objects for all tables
@@ -85,7 +89,56 @@ public interface DataSourceDMR {
      * 
      * @return List of TableDef objects or an empty list if none are found.
      */
-    List getTables ();
+    List<TableDef> getTables ();
+    
+    /**
+     * Get List of TableDef objects for all tables
+     * in the targeted database/schema, reading columns only for the
+     * tables accepted by the filter.
+     * 
+     * @param filter
+     * @return List of TableDef objects or an empty list if none are found.
+     * Tables not accepted by the filter have no columns.
+     */
+    List<TableDef> getTables (TableFilter filter);
+    
+    /**
+     * Get List of TableDef objects for the named tables
+     * in the targeted database/schema
+     * 
+     * @param tableNames
+     * @return List of TableDef objects in the order of tableNames.
+     */
+    List<TableDef> getTables (Collection<String> tableNames);
+    
+    /**
+     * Get an iterator over the TableDef objects for the named tables, which
+     * reads the columns a window of tables at a time instead of all at once.
+     * 
+     * @param tableNames names of the tables, in the order wanted
+     * @param filter tables which need columns, or null for all
+     * @param windowSize maximum number of tables read at a time
+     * @return Iterator over TableDef objects in the order of tableNames.
+     */
+    Iterator<TableDef> getTableIterator (List<String> tableNames, TableFilter filter, int windowSize);
+    
+    /**
+     * Get the names of all tables in the targeted database/schema, without
+     * reading any columns.
+     * 
+     * @return List of table names, or null if they cannot be read.
+     */
+    List<String> getTableNames ();
+    
+    /**
+     * Get a fingerprint for each table in the targeted database/schema.
+     * The fingerprint changes whenever the shape of the table changes.  It
+     * is meant to be much cheaper to read than the table definitions.
+     * 
+     * @return Map of table name to fingerprint, or null if the fingerprints
+     * cannot be read.
+     */
+    Map<String, String> getTableFingerprints ();
     
     /**
      * Get List of ColumnDef objects for all tables
@@ -94,7 +147,7 @@ public interface DataSourceDMR {
      * @param tableName
      * @return List of ColumnDef objects or an empty list if none are found.
      */
-    List getColumns (String tableName);
+    List<ColumnDef> getColumns (String tableName);
     
     /**
      * Get the max user name length from MetaData
@@ -110,10 +163,50 @@ public interface DataSourceDMR {
     void readDBChangeList(List<DBChangeUnit> units);
     
     /**
-     * Execute the db change commands currently in the change buffer
+     * Read the operations of a change plan into a buffer
+     * 
+     * @param plan 
+     */
+    void readChangePlan(ChangePlan plan);
+    
+    /**
+     * Execute the db change commands currently in the change buffer.
+     * Tables that can not get their locks are left for close(), at the end
+     * of the run, rather than retried at the end of each call.
      */
     void executeChanges();
     
+    /**
+     * Render the db change commands currently in the change buffer to SQL
+     * and add them to a plan file or script, instead of executing them.
+     * The buffer is emptied.
+     * 
+     * @param sink PlanFile or ScriptFile
+     * @return False if SQL could not be generated for a command.
+     */
+    boolean renderChanges(ChangeSink sink);
+    
+    /**
+     * Execute SQL statements, such as those of a plan file, in order.
+     * Consecutive statements for the same audit table (or the same table,
+     * if they have no audit table) are applied together, the same as the
+     * db change commands of a table, and different tables may be applied
+     * concurrently.
+     * 
+     * @param tableNames table of each statement
+     * @param auditTableNames audit table of each statement, or empty
+     * @param statements 
+     */
+    void executeStatements(List<String> tableNames, List<String> auditTableNames, List<String> statements);
+    
+    /**
+     * Finish the run of db change commands: execute the commands deferred
+     * to the end of the run, and release the threads and connections held
+     * for executing them.  New ones are taken if more commands are
+     * executed.
+     */
+    void close();
+    
     /**
      * Read an ordered list of db change commands into a buffer and execute
      * them.  Any commands currently in the buffer will be executed ahead
@@ -123,6 +216,13 @@ public interface DataSourceDMR {
      */
     void executeDBChangeList(List<DBChangeUnit> units);
     
+    /**
+     * Get the number of db change commands that failed when executed.
+     * 
+     * @return count of failed commands since this object was created.
+     */
+    int getFailedUpdateCount();
+    
     /**
      * Discard any db change commands currently in the change buffer
      * without executing them.
@@ -158,6 +258,14 @@ public interface DataSourceDMR {
 //    void renameColumn (String tableName, String columnName);
 //    void alterColumn (String tableName, ColumnDef columnDef);
     
+    /**
+     * get the case rules for identifiers, as read from the DataSource
+     * metadata.
+     * 
+     * @return IdentifierMetaData of the DataSource.
+     */
+    IdentifierMetaData getIdentifierMetaData();
+    
     /**
      * set the custom SQL used to retrieve the current session user.
      * Session user, if used, is set by the login application, and is distinct
@@ -174,6 +282,58 @@ public interface DataSourceDMR {
      */
     String getSessionUserSQL();
     
+    /**
+     * set a directory to cache the data types of the database in.  Data
+     * types are then only read from the database the first time a database
+     * product and version is seen.
+     * 
+     * @param dir cache directory, or null to not cache data types in a file.
+     */
+    void setTypeCacheDir (File dir);
+    
+    /**
+     * set a directory to spill pending db change commands to.  Once more
+     * commands are read than are held in memory, the rest are rendered to
+     * SQL and written to a temporary file there, then read back from it
+     * when they are executed or rendered.
+     * 
+     * @param dir spill directory, or null to hold all commands in memory.
+     */
+    void setSpillDir (File dir);
+    
+    /**
+     * set a journal of the changes applied.  The changes for a table that
+     * are in the journal are skipped, and the ones applied without failures
+     * are added to it, so a run that stopped part way can be resumed.
+     * 
+     * @param journal journal, or null to apply all changes.
+     */
+    void setJournal (ApplyJournal journal);
+    
+    /**
+     * set timeouts for the locks and statements of the db change commands,
+     * so that a change never holds up other users of a table for long.
+     * The commands for a table that time out are retried after a growing,
+     * jittered delay, and deferred to the end of the run if they still
+     * can not get their locks.
+     * 
+     * @param lockTimeout ms a command may wait for a lock, 0 for no limit
+     * @param statementTimeout ms a command may run, 0 for no limit
+     * @param retryBudget total ms a run may spend waiting to retry
+     */
+    void setLockTimeout (int lockTimeout, int statementTimeout, long retryBudget);
+    
+    /**
+     * set the maximum number of worker threads used for work that can run
+     * concurrently against the DataSource, such as reading table metadata
+     * and executing the changes of different tables.  Changes run on one
+     * connection per thread.
+     * 
+     * @param threads maximum number of threads.  Values less than 1 are
+     * treated as 1.
+     */
+    void setMaxThreads (int threads);
+    
 }
 
     
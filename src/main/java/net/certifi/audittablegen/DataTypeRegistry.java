@@ -0,0 +1,212 @@
+/*    Copyright 2014 Certifi Inc.
+ *
+ *    This file is part of AuditTableGen.
+ *
+ *        AuditTableGen is free software: you can redistribute it and/or modify
+ *        it under the terms of the GNU General Public License as published by
+ *        the Free Software Foundation, either version 3 of the License, or
+ *        (at your option) any later version.
+ *
+ *        AuditTableGen is distributed in the hope that it will be useful,
+ *        but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *        GNU General Public License for more details.
+ *
+ *        You should have received a copy of the GNU General Public License
+ *        along with AuditTableGen.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.certifi.audittablegen;
+
+import com.google.common.base.Charsets;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The data types of a database, as read from DatabaseMetaData.getTypeInfo(),
+ * indexed by type name and by java.sql.Types code.
+ *
+ * Registries are shared by all DataSourceDMR objects in the JVM which
+ * connect to the same database product and version, and can be saved to
+ * a cache directory so later runs do not need to read the types again.
+ */
+public class DataTypeRegistry {
+    
+    private static final Logger logger = LoggerFactory.getLogger(DataTypeRegistry.class);
+    static final String header = "#AuditTableGen data types 1";
+    static final Map<String, DataTypeRegistry> shared = new HashMap<>();
+    
+    //case insensitive, see GenericDMR.getDataTypes
+    Map<String, DataTypeDef> byName = CaseInsensitiveMaps.newMap();
+    Map<Integer, DataTypeDef> byType = new HashMap<>();
+    List<DataTypeDef> types = new ArrayList<>(); //in the order added
+    
+    DataTypeRegistry(){
+    }
+    
+    /**
+     * Index an existing map of data types.
+     * 
+     * @param typeMap data types keyed by type name
+     */
+    DataTypeRegistry(Map<String, DataTypeDef> typeMap){
+        
+        byName = typeMap;
+        for (DataTypeDef dtd : typeMap.values()){
+            index(dtd);
+        }
+    }
+    
+    /**
+     * Add a data type.  If more than one type has the same java.sql.Types
+     * code, the first one added is the one returned by get(int).
+     * 
+     * @param dtd 
+     */
+    void add(DataTypeDef dtd){
+        
+        byName.put(dtd.type_name, dtd);
+        index(dtd);
+    }
+    
+    void index(DataTypeDef dtd){
+        
+        types.add(dtd);
+        if (!byType.containsKey(dtd.data_type)){
+            byType.put(dtd.data_type, dtd);
+        }
+    }
+    
+    DataTypeDef get(String typeName){
+        return byName.get(typeName);
+    }
+    
+    DataTypeDef get(int dataType){
+        return byType.get(dataType);
+    }
+    
+    static synchronized DataTypeRegistry getShared(String key){
+        return shared.get(key);
+    }
+    
+    static synchronized void putShared(String key, DataTypeRegistry registry){
+        shared.put(key, registry);
+    }
+    
+    /**
+     * @param dir cache directory
+     * @param key database product and version
+     * @return the file for the key in dir
+     */
+    static File getCacheFile(File dir, String key){
+        return new File(dir, key.replaceAll("[^A-Za-z0-9._-]", "_") + ".types");
+    }
+    
+    /**
+     * Load a registry from file.
+     * 
+     * @param file
+     * @return the registry, or null if the file does not exist or cannot
+     * be read.
+     */
+    static DataTypeRegistry load(File file){
+        
+        if (!file.exists()){
+            return null;
+        }
+        
+        DataTypeRegistry registry = new DataTypeRegistry();
+        
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), Charsets.UTF_8)){
+            
+            String line = reader.readLine();
+            if (!header.equals(line)){
+                logger.warn("Ignoring data type cache {} with unknown format", file);
+                return null;
+            }
+            
+            while ((line = reader.readLine()) != null){
+                String[] fields = line.split("\t", -1);
+                DataTypeDef dtd = new DataTypeDef();
+                dtd.type_name = fields[0];
+                dtd.data_type = Integer.parseInt(fields[1]);
+                dtd.precision = Integer.parseInt(fields[2]);
+                dtd.literal_prefix = fromField(fields[3]);
+                dtd.literal_suffix = fromField(fields[4]);
+                dtd.create_params = fromField(fields[5]);
+                dtd.nullable = Short.parseShort(fields[6]);
+                dtd.case_sensitive = Boolean.parseBoolean(fields[7]);
+                dtd.searchable = Short.parseShort(fields[8]);
+                dtd.unsigned_attribute = Boolean.parseBoolean(fields[9]);
+                dtd.fixed_prec_scale = Boolean.parseBoolean(fields[10]);
+                dtd.auto_increment = Boolean.parseBoolean(fields[11]);
+                dtd.local_type_name = fromField(fields[12]);
+                dtd.minimum_scale = Short.parseShort(fields[13]);
+                dtd.maximum_scale = Short.parseShort(fields[14]);
+                dtd.sql_data_type = Integer.parseInt(fields[15]);
+                dtd.sql_datetime_sub = Integer.parseInt(fields[16]);
+                dtd.num_prec_radix = Integer.parseInt(fields[17]);
+                dtd.createWithSize = Boolean.parseBoolean(fields[18]);
+                registry.add(dtd);
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Ignoring unreadable data type cache {}", file, e);
+            return null;
+        }
+        
+        return registry;
+    }
+    
+    /**
+     * Write the registry to file, through a temporary file so a partial
+     * file is never left behind.
+     * 
+     * @param file
+     * @throws IOException 
+     */
+    void save(File file) throws IOException {
+        
+        File dir = file.getAbsoluteFile().getParentFile();
+        dir.mkdirs();
+        File temp = File.createTempFile(file.getName(), ".tmp", dir);
+        
+        try (BufferedWriter writer = Files.newBufferedWriter(temp.toPath(), Charsets.UTF_8)){
+            writer.write(header);
+            writer.newLine();
+            for (DataTypeDef dtd : types){
+                Object[] fields = {dtd.type_name, dtd.data_type, dtd.precision, toField(dtd.literal_prefix),
+                    toField(dtd.literal_suffix), toField(dtd.create_params), dtd.nullable, dtd.case_sensitive,
+                    dtd.searchable, dtd.unsigned_attribute, dtd.fixed_prec_scale, dtd.auto_increment,
+                    toField(dtd.local_type_name), dtd.minimum_scale, dtd.maximum_scale, dtd.sql_data_type,
+                    dtd.sql_datetime_sub, dtd.num_prec_radix, dtd.createWithSize};
+                StringBuilder builder = new StringBuilder();
+                for (Object field : fields){
+                    if (builder.length() > 0){
+                        builder.append('\t');
+                    }
+                    builder.append(field);
+                }
+                writer.write(builder.toString());
+                writer.newLine();
+            }
+        }
+        
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+    
+    //null is written as \N, tabs and line breaks are not expected in type info
+    static String toField(String value){
+        return value == null ? "\\N" : value;
+    }
+    
+    static String fromField(String field){
+        return field.equals("\\N") ? null : field;
+    }
+}
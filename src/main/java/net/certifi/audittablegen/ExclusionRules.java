@@ -0,0 +1,119 @@
+/*    Copyright 2014 Certifi Inc.
+ *
+ *    This file is part of AuditTableGen.
+ *
+ *        AuditTableGen is free software: you can redistribute it and/or modify
+ *        it under the terms of the GNU General Public License as published by
+ *        the Free Software Foundation, either version 3 of the License, or
+ *        (at your option) any later version.
+ *
+ *        AuditTableGen is distributed in the hope that it will be useful,
+ *        but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *        GNU General Public License for more details.
+ *
+ *        You should have received a copy of the GNU General Public License
+ *        along with AuditTableGen.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.certifi.audittablegen;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The include and exclude attributes compiled into NameMatchers, so
+ * deciding whether a table or column is excluded does not loop over the
+ * attributes.  An include overrides an exclude.  A rule without a column
+ * name applies to the table and to all of its columns.
+ */
+public class ExclusionRules {
+    
+    NameMatcher tableExcludes = new NameMatcher();
+    NameMatcher tableIncludes = new NameMatcher();
+    ColumnRules columnExcludes = new ColumnRules();
+    ColumnRules columnIncludes = new ColumnRules();
+    
+    ExclusionRules(List<ConfigAttribute> excludes, List<ConfigAttribute> includes){
+        
+        for (ConfigAttribute attrib : excludes){
+            if (attrib.getColumnName().isEmpty()){
+                tableExcludes.add(attrib.getTableName());
+            }
+            columnExcludes.add(attrib.getTableName(), attrib.getColumnName());
+        }
+        
+        for (ConfigAttribute attrib : includes){
+            if (attrib.getColumnName().isEmpty()){
+                tableIncludes.add(attrib.getTableName());
+            }
+            columnIncludes.add(attrib.getTableName(), attrib.getColumnName());
+        }
+    }
+    
+    boolean isTableExcluded(String tableName){
+        
+        return tableExcludes.matches(tableName) && !tableIncludes.matches(tableName);
+    }
+    
+    /**
+     * Column patterns grouped by table pattern.  The column patterns which
+     * apply to a table are compiled into one NameMatcher, which
+     * ConfigSource keeps in the TableConfig of the table.
+     */
+    static class ColumnRules {
+        
+        Map<String, List<String>> exactTables = new HashMap<>();
+        Map<String, List<String>> patternTables = new LinkedHashMap<>();
+        Map<String, NameMatcher> tableMatchers = new HashMap<>();
+        
+        void add(String tablePattern, String columnPattern){
+            
+            List<String> columns;
+            if (NameMatcher.isExact(tablePattern)){
+                columns = getList(exactTables, tablePattern.toLowerCase(Locale.ROOT));
+            }
+            else {
+                columns = getList(patternTables, tablePattern);
+                if (!tableMatchers.containsKey(tablePattern)){
+                    tableMatchers.put(tablePattern, NameMatcher.of(tablePattern));
+                }
+            }
+            columns.add(columnPattern);
+        }
+        
+        NameMatcher forTable(String tableName){
+            
+            NameMatcher matcher = new NameMatcher();
+            List<String> columns = exactTables.get(tableName.toLowerCase(Locale.ROOT));
+            if (columns != null){
+                for (String column : columns){
+                    matcher.add(column);
+                }
+            }
+            for (Map.Entry<String, List<String>> entry : patternTables.entrySet()){
+                if (tableMatchers.get(entry.getKey()).matches(tableName)){
+                    for (String column : entry.getValue()){
+                        matcher.add(column);
+                    }
+                }
+            }
+            
+            return matcher;
+        }
+        
+        static List<String> getList(Map<String, List<String>> map, String key){
+            
+            List<String> list = map.get(key);
+            if (list == null){
+                list = new ArrayList<>();
+                map.put(key, list);
+            }
+            return list;
+        }
+    }
+}
@@ -0,0 +1,323 @@
+/*    Copyright 2014 Certifi Inc.
+ *
+ *    This file is part of AuditTableGen.
+ *
+ *        AuditTableGen is free software: you can redistribute it and/or modify
+ *        it under the terms of the GNU General Public License as published by
+ *        the Free Software Foundation, either version 3 of the License, or
+ *        (at your option) any later version.
+ *
+ *        AuditTableGen is distributed in the hope that it will be useful,
+ *        but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *        GNU General Public License for more details.
+ *
+ *        You should have received a copy of the GNU General Public License
+ *        along with AuditTableGen.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.certifi.audittablegen;
+
+import java.io.Closeable;
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import javax.sql.DataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A connection held for executing changes, so that a run takes one
+ * connection from the DataSource instead of one per statement.  The
+ * statements passed to execute() together, e.g. those for one table, are
+ * sent as JDBC batches if the driver supports batch updates, and the outcome
+ * of each statement is reported back.
+ * 
+ * Where the database has transactional DDL, such as PostgreSQL, the
+ * statements of each execute() are applied in one transaction: if one
+ * fails, none of them are applied.
+ * 
+ * A session is meant for one thread at a time.
+ */
+class ExecutionSession implements Closeable {
+    
+    private static final Logger logger = LoggerFactory.getLogger(ExecutionSession.class);
+    
+    final DataSource dataSource;
+    int maxBatchSize = 100; //statements sent to the database at a time
+    Connection conn;
+    Statement stmt;
+    boolean batchUpdates; //driver supports addBatch/executeBatch
+    boolean transactions = true; //use a transaction per execute() where DDL is transactional
+    boolean transactional; //statements are run in a transaction
+    LockRetryPolicy lockRetry; //timeouts to set on the connection, or null
+    
+    ExecutionSession(DataSource dataSource){
+        
+        this.dataSource = dataSource;
+    }
+    
+    /**
+     * Result of one statement.
+     */
+    static class Result {
+        
+        final String sql;
+        final SQLException error; //null if the statement succeeded
+        
+        Result(String sql, SQLException error){
+            this.sql = sql;
+            this.error = error;
+        }
+        
+        boolean isFailed(){
+            return error != null;
+        }
+    }
+    
+    void open() throws SQLException {
+        
+        if (conn == null){
+            conn = dataSource.getConnection();
+            try {
+                batchUpdates = conn.getMetaData().supportsBatchUpdates();
+                stmt = conn.createStatement();
+                //before any transaction, which a failed SET would abort
+                if (lockRetry != null){
+                    setTimeouts();
+                }
+                transactional = transactions
+                        && conn.getMetaData().supportsDataDefinitionAndDataManipulationTransactions();
+                if (transactional){
+                    conn.setAutoCommit(false);
+                }
+            } catch (SQLException e) {
+                close();
+                throw e;
+            }
+        }
+    }
+    
+    /**
+     * Set the lock and statement timeouts of the lockRetry policy on the
+     * connection.  A timeout the database does not know is logged and
+     * left out.
+     * 
+     * @throws SQLException 
+     */
+    void setTimeouts() throws SQLException {
+        
+        if (lockRetry.queryTimeout > 0){
+            stmt.setQueryTimeout(lockRetry.queryTimeout);
+        }
+        for (String sql : lockRetry.sessionSQL){
+            try {
+                stmt.execute(sql);
+            } catch (SQLException e) {
+                logger.warn("Cannot set timeout: {}", sql, e);
+            }
+        }
+    }
+    
+    /**
+     * Execute statements in order.  A failed statement does not stop the
+     * ones after it, unless they are run in a transaction.  Then the
+     * transaction is rolled back, and every statement is reported failed.
+     * 
+     * @param statements
+     * @return a Result for each statement, in order.
+     */
+    List<Result> execute(List<String> statements){
+        
+        List<Result> results = new ArrayList<>(statements.size());
+        
+        try {
+            open();
+        } catch (SQLException e) {
+            for (String sql : statements){
+                results.add(new Result(sql, e));
+            }
+            return results;
+        }
+        
+        for (int i = 0; i < statements.size(); i += maxBatchSize){
+            if (transactional && isFailed(results)){
+                break;
+            }
+            List<String> batch = statements.subList(i, Math.min(statements.size(), i + maxBatchSize));
+            if (batchUpdates && batch.size() > 1){
+                executeBatch(batch, results);
+            }
+            else {
+                executeEach(batch, results);
+            }
+        }
+        
+        if (transactional){
+            return endTransaction(statements, results);
+        }
+        return results;
+    }
+    
+    static boolean isFailed(List<Result> results){
+        
+        for (Result result : results){
+            if (result.isFailed()){
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Commit the statements, or roll them back if any failed.
+     * 
+     * @param statements all statements of the transaction
+     * @param results results of the statements that were run
+     * @return a Result for each statement.  After a rollback, the
+     * statements which did not fail themselves fail with the rollback.
+     */
+    List<Result> endTransaction(List<String> statements, List<Result> results){
+        
+        SQLException error = null;
+        for (Result result : results){
+            if (result.isFailed()){
+                error = result.error;
+                break;
+            }
+        }
+        
+        try {
+            if (conn == null){
+                //the connection was dropped, and the transaction with it
+                if (error == null){
+                    error = new SQLException("Connection closed before commit");
+                }
+            }
+            else if (error == null){
+                conn.commit();
+                return results;
+            }
+            else {
+                conn.rollback();
+            }
+        } catch (SQLException e) {
+            logger.warn("Error ending transaction", e);
+            if (error == null){
+                error = e;
+            }
+            close();
+        }
+        
+        SQLException rolledBack = new SQLException("Rolled back with the other statements for the table", error);
+        List<Result> rolledBackResults = new ArrayList<>(statements.size());
+        for (int i = 0; i < statements.size(); i++){
+            if (i < results.size() && results.get(i).isFailed()){
+                rolledBackResults.add(results.get(i));
+            }
+            else {
+                rolledBackResults.add(new Result(statements.get(i), rolledBack));
+            }
+        }
+        return rolledBackResults;
+    }
+    
+    void executeBatch(List<String> batch, List<Result> results){
+        
+        int done = 0;
+        
+        try {
+            open();
+            for (String sql : batch){
+                stmt.addBatch(sql);
+            }
+            stmt.executeBatch();
+            done = batch.size();
+            for (String sql : batch){
+                results.add(new Result(sql, null));
+            }
+        } catch (BatchUpdateException e) {
+            //drivers either stop at the failed statement, or go on and
+            //mark each failed statement
+            int[] counts = e.getUpdateCounts() == null ? new int[0] : e.getUpdateCounts();
+            for (; done < counts.length && done < batch.size(); done++){
+                results.add(new Result(batch.get(done),
+                        counts[done] == Statement.EXECUTE_FAILED ? e : null));
+            }
+            if (done < batch.size()){
+                results.add(new Result(batch.get(done), e));
+                done++;
+            }
+        } catch (SQLException e) {
+            //not known which statements ran, so none are run again
+            logger.warn("Batch failed without update counts", e);
+            for (; done < batch.size(); done++){
+                results.add(new Result(batch.get(done), e));
+            }
+        } finally {
+            clearBatch();
+        }
+        
+        //after a driver stopped at a failed statement
+        executeEach(batch.subList(done, batch.size()), results);
+    }
+    
+    void executeEach(List<String> statements, List<Result> results){
+        
+        //a transaction is rolled back after a failed statement anyway
+        boolean stop = transactional && isFailed(results);
+        
+        for (String sql : statements){
+            if (stop){
+                break;
+            }
+            try {
+                open();
+                stmt.executeUpdate(sql);
+                results.add(new Result(sql, null));
+            } catch (SQLException e) {
+                results.add(new Result(sql, e));
+                stop = transactional;
+            }
+        }
+    }
+    
+    void clearBatch(){
+        
+        if (stmt == null){
+            return;
+        }
+        try {
+            stmt.clearBatch();
+        } catch (SQLException e) {
+            //the statement is unusable, take a new connection when next used
+            logger.warn("Error clearing batch", e);
+            close();
+        }
+    }
+    
+    /**
+     * Release the connection.  It is taken again if more statements are
+     * executed.
+     */
+    @Override
+    public void close(){
+        
+        try {
+            if (stmt != null){
+                stmt.close();
+            }
+            if (conn != null){
+                conn.close();
+            }
+        } catch (SQLException e) {
+            logger.warn("Error closing connection for executing changes", e);
+        } finally {
+            stmt = null;
+            conn = null;
+        }
+    }
+}
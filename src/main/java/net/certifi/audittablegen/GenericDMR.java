@@ -18,11 +18,20 @@
 
 package net.certifi.audittablegen;
 
+import com.google.common.base.Charsets;
 import com.google.common.base.Throwables;
+import com.google.common.hash.Hashing;
+import java.io.File;
+import java.io.IOException;
 import java.sql.*;
 import java.sql.Types;
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import javax.sql.DataSource;
 import liquibase.Liquibase;
@@ -46,8 +55,13 @@ import com.google.common.primitives.Ints;
 class GenericDMR implements DataSourceDMR {
     private static final Logger logger = LoggerFactory.getLogger(GenericDMR.class);
     
+    //dollar quote tag around trigger function bodies.  It does not use the
+    //table name, which may hold characters a tag can not.
+    static final String TRIGGER_BODY_TAG = "$audit$";
+    
     DataSource dataSource;
     String databaseProduct;
+    String databaseVersion;
     String unverifiedSchema;
     String verifiedSchema;
     String unverifiedAuditConfigTable = "auditconfig";
@@ -55,8 +69,23 @@ class GenericDMR implements DataSourceDMR {
     String lastSQL; //adding this for testing
     String sessionUserSQL;
     Queue<List<DBChangeUnit>> operations = new ArrayDeque<>();
+    File spillDir; //null to hold all pending changes in memory
+    int spillThreshold = 1000; //operations held in memory before spilling
+    SpillFile spill; //rendered operations past spillThreshold, in order
+    ExecutionSession session; //connection held while executing changes
+    ApplyScheduler scheduler; //executes changes until close()
+    ApplyJournal journal; //groups of changes already applied, or null
+    LockRetryPolicy lockRetry; //lock timeouts for applying changes, or null
     Map<String, DataTypeDef> dataTypes = null;
-    //IdentifierMetaData idMetaData;
+    DataTypeRegistry typeRegistry; //indexes dataTypes
+    boolean typesFromCache = false; //dataTypes were not read by this object
+    File typeCacheDir; //null to keep data types in memory only
+    boolean bulkIntrospection = true; //read all columns with one metadata call
+    int maxThreads = 4; //worker threads for per-table metadata calls and changes
+    int failedUpdates = 0;
+    ShapeCache sqlCache; //when there is no database product to share by
+    String sqlCacheConfig;
+    IdentifierMetaData idMetaData;
    
     
     /**
@@ -84,13 +113,14 @@ class GenericDMR implements DataSourceDMR {
         Connection conn = ds.getConnection();
         DatabaseMetaData dmd = conn.getMetaData();
         databaseProduct = dmd.getDatabaseProductName();
-        //idMetaData = new IdentifierMetaData();
+        databaseVersion = dmd.getDatabaseProductVersion();
+        idMetaData = new IdentifierMetaData();
 
-        //storing this data for potential future use.
-        //not using it for anything currently
-        //idMetaData.setStoresLowerCaseIds(dmd.storesLowerCaseIdentifiers());
-        //idMetaData.setStoresMixedCaseIds(dmd.storesMixedCaseIdentifiers());
-        //idMetaData.setStoresUpperCaseIds(dmd.storesUpperCaseIdentifiers());
+        //case rules for table and column names
+        idMetaData.setStoresLowerCaseIds(dmd.storesLowerCaseIdentifiers());
+        idMetaData.setStoresMixedCaseIds(dmd.storesMixedCaseIdentifiers());
+        idMetaData.setStoresUpperCaseIds(dmd.storesUpperCaseIdentifiers());
+        idMetaData.setQuoteString(dmd.getIdentifierQuoteString());
 
         unverifiedSchema = schema;
 
@@ -189,7 +219,7 @@ class GenericDMR implements DataSourceDMR {
      * @return A list of ConfigAttribute objects or an empty list if none are found.
      */
     @Override
-    public List getConfigAttributes(){
+    public List<ConfigAttribute> getConfigAttributes(){
         
         StringBuilder builder = new StringBuilder();
         String schema;
@@ -203,18 +233,17 @@ class GenericDMR implements DataSourceDMR {
         
         builder.append("select attribute, tablename, columnname, value from ").append(schema).append(verifiedAuditConfigTable);
                 
-        List<ConfigAttribute> attributes = new ArrayList();
+        List<ConfigAttribute> attributes = new ArrayList<>();
         
-        try {
+        try (Connection conn = dataSource.getConnection();
+                Statement stmt = conn.createStatement();
+                ResultSet rs = stmt.executeQuery(builder.toString())) {
  
-            Connection conn = dataSource.getConnection();
             //String defaultSchema = conn.getSchema();
 
             //if ( schema != null){
             //    conn.setSchema(schema);
             //}
-            Statement stmt = conn.createStatement();
-            ResultSet rs = stmt.executeQuery(builder.toString());
             
             while (rs.next()){
                 //load attributes into configSource
@@ -230,10 +259,6 @@ class GenericDMR implements DataSourceDMR {
             
             //conn.setSchema(defaultSchema);
             
-            rs.close();
-            stmt.close();
-            conn.close();
-            
         } catch (SQLException ex) {
             logger.error("Error retrieving audit configuration " + ex.getMessage());
         }
@@ -244,14 +269,125 @@ class GenericDMR implements DataSourceDMR {
     
     /**
      * Get List of TableDef objects for all tables
-     * in the targeted database/schema
+     * in the targeted database/schema.  When bulkIntrospection is set the
+     * columns for every table are read with a single metadata call, otherwise
+     * (or if the bulk call fails) getColumns is called once per table.
+     * 
+     * @return ArrayList of TableDef objects or an empty list if none are found.
+     */
+    @Override
+    public List<TableDef> getTables (){
+     
+        return getTables((TableFilter) null);
+ 
+    }
+    
+    /**
+     * Get List of TableDef objects for all tables in the targeted
+     * database/schema.  Columns are only read for the tables accepted by
+     * the filter, the rest are returned with an empty column list.
      * 
+     * @param filter the filter, or null to read columns for every table
      * @return ArrayList of TableDef objects or an empty list if none are found.
      */
     @Override
-    public List getTables (){
+    public List<TableDef> getTables (TableFilter filter){
      
-        List<TableDef> tables = new ArrayList<>();
+        List<String> tableNames = getTableNames();
+        
+        if (tableNames == null){
+            return null;
+        }
+        
+        List<TableDef> tables = newTableDefs(tableNames);
+        List<TableDef> accepted = new ArrayList<>();
+        for (TableDef tableDef : tables){
+            if (filter == null || filter.accept(tableDef.getName())){
+                accepted.add(tableDef);
+            }
+        }
+        
+        if (accepted.size() < tables.size()){
+            logger.info("Reading columns for {} of {} tables", accepted.size(), tables.size());
+        }
+        
+        Map<String, Throwable> errors = loadColumns(accepted);
+        
+        //tables which could not be read are left out
+        if (!errors.isEmpty()){
+            Iterator<TableDef> tableIter = tables.iterator();
+            while (tableIter.hasNext()){
+                if (errors.containsKey(tableIter.next().getName())){
+                    tableIter.remove();
+                }
+            }
+        }
+        
+        return tables;
+ 
+    }
+    
+    /**
+     * Get List of TableDef objects for the named tables only.  Columns
+     * are read the same way as for getTables(TableFilter), with the bulk
+     * call narrowed to the named tables where the database allows it.
+     * 
+     * @param tableNames
+     * @return ArrayList of TableDef objects, in the order of tableNames.
+     * Tables whose columns cannot be read are left out.
+     */
+    @Override
+    public List<TableDef> getTables (Collection<String> tableNames){
+        
+        List<TableDef> tables = newTableDefs(tableNames);
+        
+        loadColumns(tables);
+        
+        return tables;
+    }
+    
+    /**
+     * Load the columns for the tables in the list with loadColumnsBulk when
+     * bulkIntrospection is set, and with loadColumnsParallel otherwise or
+     * if the bulk call fails.
+     * 
+     * @param tables TableDef objects to populate
+     * @return errors for the tables that could not be read, keyed by table
+     * name.  Those tables have been removed from the list.  Empty if the
+     * columns were read in bulk.
+     */
+    Map<String, Throwable> loadColumns (List<TableDef> tables){
+        
+        if (bulkIntrospection){
+            try {
+                loadColumnsBulk(tables);
+                return new LinkedHashMap<>();
+            } catch (SQLException e) {
+                logger.warn("Bulk column introspection failed, reading columns per table", e);
+                for ( TableDef tableDef : tables){
+                    tableDef.setColumns(new ArrayList<ColumnDef>());
+                }
+            }
+        }
+        
+        return loadColumnsParallel(tables);
+    }
+    
+    @Override
+    public Iterator<TableDef> getTableIterator (List<String> tableNames, TableFilter filter, int windowSize){
+        
+        return new TableDefIterator(this, tableNames, filter, windowSize);
+    }
+    
+    /**
+     * Get the names of all tables in the targeted database/schema
+     * 
+     * @return List of table names, or null if they cannot be read.
+     */
+    @Override
+    public List<String> getTableNames (){
+        
+        List<String> tableNames = new ArrayList<>();
         
         try (Connection conn = dataSource.getConnection()){
             
@@ -259,24 +395,7 @@ class GenericDMR implements DataSourceDMR {
             ResultSet rs = dmd.getTables(null, verifiedSchema, null, new String[]{"TABLE"});
             
             while (rs.next()){
-                TableDef tableDef = new TableDef();
-                tableDef.setName(rs.getString("TABLE_NAME").trim());
-                tables.add(tableDef);
-                
-//                //ToDo: handle case where table full name matches the prefix or postfi
-//                if ( table.toUpperCase().startsWith(configSource.getTablePrefix().toUpperCase())
-//                     && table.toUpperCase().endsWith(configSource.getTablePostfix().toUpperCase())){
-//                    configSource.addExistingAuditTable(table);
-//                }
-//                else {
-//                    configSource.ensureTableConfig(table);
-//                    
-//                    //just in case audit config has set up the table with the
-//                    //wrong case sensitivity, update the table name with the
-//                    //value returned from the db
-//                    TableConfig tc = configSource.getTableConfig(table);
-//                    tc.setTableName(table);
-//                }
+                tableNames.add(rs.getString("TABLE_NAME").trim());
             }
             
             rs.close();
@@ -286,12 +405,265 @@ class GenericDMR implements DataSourceDMR {
             return null;
         }
         
-        for ( TableDef tableDef : tables){
-            tableDef.setColumns(getColumns(tableDef.getName()));
+        return tableNames;
+    }
+    
+    List<TableDef> newTableDefs (Collection<String> tableNames){
+        
+        List<TableDef> tables = new ArrayList<>(tableNames.size());
+        
+        for (String tableName : tableNames){
+            TableDef tableDef = new TableDef();
+            tableDef.setName(tableName);
+            tables.add(tableDef);
         }
         
         return tables;
- 
+    }
+    
+    /**
+     * Get a fingerprint for each table in the targeted database/schema.
+     * The fingerprint is a hash of the column names, types and sizes, read
+     * with one metadata call for the whole schema, and of the triggers
+     * listed by getTriggerListSQL, so that a dropped audit trigger changes
+     * it too.
+     * 
+     * @return Map of table name to fingerprint in table order, or null if
+     * the fingerprints cannot be read, including when the triggers cannot
+     * be listed.
+     */
+    @Override
+    public Map<String, String> getTableFingerprints (){
+        
+        List<String> tableNames = getTableNames();
+        
+        if (tableNames == null){
+            return null;
+        }
+        
+        Map<String, StringBuilder> shapes = new LinkedHashMap<>();
+        for (String tableName : tableNames){
+            shapes.put(tableName, new StringBuilder());
+        }
+        
+        try (Connection conn = dataSource.getConnection()){
+            
+            DatabaseMetaData dmd = conn.getMetaData();
+            ResultSet rs = dmd.getColumns(null, verifiedSchema, null, null);
+            
+            while (rs.next()){
+                StringBuilder shape = shapes.get(rs.getString("TABLE_NAME").trim());
+                if (shape != null){
+                    shape.append(rs.getString("COLUMN_NAME")).append(' ')
+                            .append(rs.getString("TYPE_NAME")).append(' ')
+                            .append(rs.getInt("COLUMN_SIZE")).append(' ')
+                            .append(rs.getInt("DECIMAL_DIGITS")).append('\n');
+                }
+            }
+            
+            rs.close();
+            
+            String query = getTriggerListSQL();
+            if (query == null){
+                logger.warn("Triggers cannot be listed for this database. No table fingerprints");
+                return null;
+            }
+            
+            PreparedStatement stmt = conn.prepareStatement(query);
+            if (verifiedSchema != null){
+                stmt.setString(1, verifiedSchema);
+            }
+            rs = stmt.executeQuery();
+            int columnCount = rs.getMetaData().getColumnCount();
+            
+            while (rs.next()){
+                StringBuilder shape = shapes.get(rs.getString(1).trim());
+                if (shape != null){
+                    shape.append("trigger");
+                    for (int i = 2; i <= columnCount; i++){
+                        shape.append(' ').append(rs.getString(i));
+                    }
+                    shape.append('\n');
+                }
+            }
+            
+            rs.close();
+            stmt.close();
+            
+        } catch (SQLException e){
+            logger.error("SQL error retrieving table fingerprints: ", e);
+            return null;
+        }
+        
+        Map<String, String> fingerprints = new LinkedHashMap<>();
+        for (Entry<String, StringBuilder> entry : shapes.entrySet()){
+            fingerprints.put(entry.getKey(), Hashing.md5().hashString(entry.getValue(), Charsets.UTF_8).toString());
+        }
+        
+        return fingerprints;
+    }
+    
+    /**
+     * Get the query listing the triggers of the targeted schema for
+     * getTableFingerprints.  The first column is the table name, the rest
+     * describe the trigger, such as its name and type.  If there is a
+     * verified schema, it is the one parameter.  By default the standard
+     * INFORMATION_SCHEMA.TRIGGERS view is used, override this for a
+     * database without it.
+     * 
+     * @return SQL query, or null if the triggers cannot be listed.
+     */
+    String getTriggerListSQL(){
+        
+        StringBuilder builder = new StringBuilder();
+        builder.append("SELECT EVENT_OBJECT_TABLE, TRIGGER_NAME, ACTION_TIMING, EVENT_MANIPULATION").append(System.lineSeparator());
+        builder.append("FROM INFORMATION_SCHEMA.TRIGGERS").append(System.lineSeparator());
+        if (verifiedSchema != null){
+            builder.append("WHERE EVENT_OBJECT_SCHEMA = ?").append(System.lineSeparator());
+        }
+        builder.append("ORDER BY EVENT_OBJECT_TABLE, TRIGGER_NAME, EVENT_MANIPULATION");
+        
+        return builder.toString();
+    }
+    
+    /**
+     * Load the columns for each table in the list with one getColumns call
+     * per table, spread across up to maxThreads workers sharing the
+     * DataSource.  Tables keep their original order.  A table whose
+     * metadata cannot be read is removed from the list and its error is
+     * returned.
+     * 
+     * @param tables TableDef objects to populate
+     * @return errors for the tables that could not be read, keyed by table
+     * name in table order.  Empty if there were none.
+     */
+    Map<String, Throwable> loadColumnsParallel (List<TableDef> tables){
+        
+        Map<String, Throwable> errors = new LinkedHashMap<>();
+        
+        if (tables.isEmpty()){
+            return errors;
+        }
+        
+        //load the data types up front so the workers don't race to do it
+        getDataTypes();
+        
+        int threads = Math.max(1, Math.min(maxThreads, tables.size()));
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<List<ColumnDef>>> futures = new ArrayList<>(tables.size());
+        
+        try {
+            for (final TableDef tableDef : tables){
+                futures.add(executor.submit(new Callable<List<ColumnDef>>() {
+                    @Override
+                    public List<ColumnDef> call() {
+                        return getColumns(tableDef.getName());
+                    }
+                }));
+            }
+            
+            Iterator<TableDef> tableIter = tables.iterator();
+            for (Future<List<ColumnDef>> future : futures){
+                TableDef tableDef = tableIter.next();
+                try {
+                    tableDef.setColumns(future.get());
+                } catch (ExecutionException e) {
+                    logger.error("Error reading columns for table {}", tableDef.getName(), e.getCause());
+                    errors.put(tableDef.getName(), e.getCause());
+                    tableIter.remove();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw Throwables.propagate(e);
+        } finally {
+            executor.shutdownNow();
+        }
+        
+        return errors;
+    }
+    
+    /**
+     * Load the columns for all of the tables in the list with one
+     * DatabaseMetaData.getColumns call for the whole schema.  The result set
+     * is ordered by table name, so rows are streamed into the matching TableDef
+     * as they are read.  Rows for anything not in the list (views, system
+     * tables) are skipped.  The call is narrowed to the longest name prefix
+     * the tables have in common, if there is one.
+     * 
+     * @param tables TableDef objects to populate
+     * @throws SQLException 
+     */
+    void loadColumnsBulk (List<TableDef> tables) throws SQLException {
+        
+        //getDataTypes will initialize the map if it isn't already loaded
+        Map<String, DataTypeDef> dtds = getDataTypes();
+        
+        if (tables.isEmpty()){
+            return;
+        }
+        
+        Map<String, TableDef> tableMap = new HashMap<>();
+        for (TableDef tableDef : tables){
+            tableMap.put(tableDef.getName(), tableDef);
+        }
+        
+        try (Connection conn = dataSource.getConnection()){
+            
+            DatabaseMetaData dmd = conn.getMetaData();
+            ResultSet rs = dmd.getColumns(null, verifiedSchema, getTableNamePattern(tables), null);
+            SourceMetaLayout layout = SourceMetaLayout.of(rs.getMetaData());
+            String currentName = null;
+            TableDef current = null;
+            
+            while (rs.next()){
+                String tableName = rs.getString("TABLE_NAME").trim();
+                if (!tableName.equals(currentName)){
+                    currentName = tableName;
+                    current = tableMap.get(tableName);
+                }
+                if (current != null){
+                    current.addColumn(getColumnDef(rs, layout, dtds));
+                }
+            }
+            
+            rs.close();
+        }
+        
+    }
+    
+    /**
+     * Get a table name pattern for DatabaseMetaData.getColumns matching every
+     * table in the list.  Search string wildcards in the names are left as
+     * they are; they only widen the match, and extra rows are skipped.
+     * 
+     * @param tables
+     * @return common name prefix followed by '%', or null if the names have
+     * no prefix in common.
+     */
+    String getTableNamePattern (List<TableDef> tables){
+        
+        String prefix = null;
+        for (TableDef tableDef : tables){
+            String name = tableDef.getName();
+            if (prefix == null){
+                prefix = name;
+            }
+            else {
+                int i = 0;
+                while (i < prefix.length() && i < name.length()
+                        && prefix.charAt(i) == name.charAt(i)){
+                    i++;
+                }
+                prefix = prefix.substring(0, i);
+            }
+        }
+        
+        if (prefix == null || prefix.isEmpty()){
+            return null;
+        }
+        
+        return prefix + "%";
     }
     
     /**
@@ -302,47 +674,25 @@ class GenericDMR implements DataSourceDMR {
      * @return ArrayList of ColumnDef objects or an empty list if none are found.
      */
     @Override
-    public List getColumns (String tableName){
+    public List<ColumnDef> getColumns (String tableName){
         
         //getDataTypes will initialize the map if it isn't already loaded
         Map<String, DataTypeDef> dtds = getDataTypes();
         
-        List columns = new ArrayList<>();
+        List<ColumnDef> columns = new ArrayList<>();
         
-        try {
-            Connection conn = dataSource.getConnection();
-            DatabaseMetaData dmd = conn.getMetaData();
-            ResultSet rs = dmd.getColumns(null, verifiedSchema, tableName, null);
+        try (Connection conn = dataSource.getConnection();
+                ResultSet rs = conn.getMetaData().getColumns(null, verifiedSchema, tableName, null)){
             
             //load all of the metadata in the result set into a map for each column
             
-            ResultSetMetaData rsmd = rs.getMetaData();
-            int metaDataColumnCount = rsmd.getColumnCount();
+            SourceMetaLayout layout = SourceMetaLayout.of(rs.getMetaData());
             if (! rs.isBeforeFirst()) {
                 throw new RuntimeException("No results for DatabaseMetaData.getColumns(" + verifiedSchema + "." + tableName + ")");
             }
             while (rs.next()){
-                ColumnDef columnDef = new ColumnDef();
-                Map columnMetaData = new CaseInsensitiveMap();
-                for (int i = 1; i <= metaDataColumnCount; i++){
-                    columnMetaData.put(rsmd.getColumnName(i), rs.getString(i));
-                }
-                columnDef.setName(rs.getString("COLUMN_NAME"));
-                columnDef.setTypeName(rs.getString("TYPE_NAME"));
-                columnDef.setSqlType(rs.getInt("DATA_TYPE"));
-                columnDef.setSize(rs.getInt("COLUMN_SIZE"));
-                columnDef.setDecimalSize(rs.getInt("DECIMAL_DIGITS"));
-                columnDef.setSourceMeta(columnMetaData);
-                
-                if (dtds.containsKey(columnDef.getTypeName())){
-                    columnDef.setDataTypeDef(dtds.get(columnDef.getTypeName()));
-                }
-                else {
-                    throw new RuntimeException("Missing DATA_TYPE definition for data type " + columnDef.getTypeName());
-                }
-                columns.add(columnDef);
+                columns.add(getColumnDef(rs, layout, dtds));
             }
-            
         }
         catch (SQLException e) {
             throw Throwables.propagate(e);
@@ -351,23 +701,98 @@ class GenericDMR implements DataSourceDMR {
         return columns;
         
     }
+    
+    /**
+     * Build a ColumnDef from the current row of a DatabaseMetaData.getColumns
+     * result set.
+     * 
+     * @param rs result set positioned on a column row
+     * @param layout source meta data layout of rs
+     * @param dtds data types, keyed by type name
+     * @return ColumnDef for the current row
+     * @throws SQLException 
+     */
+    ColumnDef getColumnDef (ResultSet rs, SourceMetaLayout layout,
+            Map<String, DataTypeDef> dtds) throws SQLException {
+        
+        ColumnDef columnDef = new ColumnDef();
+        columnDef.setName(rs.getString("COLUMN_NAME"));
+        columnDef.setTypeName(rs.getString("TYPE_NAME"));
+        columnDef.setSqlType(rs.getInt("DATA_TYPE"));
+        columnDef.setSize(rs.getInt("COLUMN_SIZE"));
+        columnDef.setDecimalSize(rs.getInt("DECIMAL_DIGITS"));
+        columnDef.setSourceMeta(layout, layout.read(rs));
+
+        DataTypeDef dtd = findDataType(dtds, columnDef.getTypeName());
+        if (dtd != null){
+            columnDef.setDataTypeDef(dtd);
+        }
+        else {
+            throw new RuntimeException("Missing DATA_TYPE definition for data type " + columnDef.getTypeName());
+        }
+        
+        return columnDef;
+        
+    }
 
-    public Map<String, DataTypeDef> getDataTypes (){
+    /**
+     * Get the data types of the database, keyed by type name (case
+     * insensitive).  The types are taken from the registry shared in the
+     * JVM for the database product and version, or from the cache file in
+     * typeCacheDir, and only read with DatabaseMetaData.getTypeInfo() if
+     * neither has them.
+     * 
+     * @return map of type name to DataTypeDef
+     */
+    public synchronized Map<String, DataTypeDef> getDataTypes (){
         
         if (this.dataTypes != null){
             return this.dataTypes;
         }
-           
+        
+        String key = getTypeRegistryKey();
+        DataTypeRegistry registry = null;
+        
+        if (key != null){
+            registry = DataTypeRegistry.getShared(key);
+            if (registry == null && typeCacheDir != null){
+                registry = DataTypeRegistry.load(DataTypeRegistry.getCacheFile(typeCacheDir, key));
+                if (registry != null){
+                    logger.debug("Data types for {} loaded from cache", key);
+                    DataTypeRegistry.putShared(key, registry);
+                }
+            }
+        }
+        
+        if (registry == null){
+            registry = readDataTypes();
+        }
+        else {
+            typesFromCache = true;
+        }
+        
+        this.typeRegistry = registry;
+        this.dataTypes = registry.byName;
+        
+        return this.dataTypes;
+    }
+    
+    /**
+     * Read the data types from DatabaseMetaData.getTypeInfo(), and store
+     * them for other DataSourceDMR objects and later runs.
+     * 
+     * @return registry of the data types in getTypeInfo() order
+     */
+    DataTypeRegistry readDataTypes (){
+        
         //this is kind of ugly.  Some databases (postgres) return the VALUES of
         //metadata in lowercase, while others (hsqldb) return the VALUES of
         //metadata in uppercase.  This is why the key values are stored as
         //case insensitive - so it will work with default types for 
-        Map<String, DataTypeDef> types = new CaseInsensitiveMap();
+        DataTypeRegistry registry = new DataTypeRegistry();
 
-        try {
-            Connection conn = dataSource.getConnection();
-            DatabaseMetaData dmd = conn.getMetaData();
-            ResultSet rs = dmd.getTypeInfo();
+        try (Connection conn = dataSource.getConnection();
+                ResultSet rs = conn.getMetaData().getTypeInfo()) {
 
             if (!rs.isBeforeFirst()) {
                 throw new RuntimeException("No results for DatabaseMetaData.getTypeInfo()");
@@ -401,7 +826,7 @@ class GenericDMR implements DataSourceDMR {
                     dtd.createWithSize = true;
                 }
                 
-                types.put(dtd.type_name, dtd);
+                registry.add(dtd);
 
             }
 
@@ -409,18 +834,80 @@ class GenericDMR implements DataSourceDMR {
             throw Throwables.propagate(e);
         }
 
-        this.dataTypes = types;
+        String key = getTypeRegistryKey();
+        if (key != null){
+            DataTypeRegistry.putShared(key, registry);
+            if (typeCacheDir != null){
+                try {
+                    registry.save(DataTypeRegistry.getCacheFile(typeCacheDir, key));
+                } catch (IOException e) {
+                    logger.warn("Error saving data type cache", e);
+                }
+            }
+        }
         
-        Collection<String> debugValues = types.keySet();
+        Collection<String> debugValues = registry.byName.keySet();
         for (String debugValue : debugValues) {
             logger.debug("DB has type value {}", debugValue);
 
         }
         
-        return types;
+        return registry;
 
     }
     
+    /**
+     * @return key of the shared data type registry, or null if the database
+     * product is not known and the types should not be shared.
+     */
+    String getTypeRegistryKey (){
+        
+        if (databaseProduct == null){
+            return null;
+        }
+        
+        return databaseProduct + " " + databaseVersion;
+    }
+    
+    /**
+     * Read the data types from the database again if they came from a cache,
+     * which may be missing types created since (e.g. domains), or types of
+     * another database of the same product and version.
+     * 
+     * @return True if the types were read again.
+     */
+    synchronized boolean refreshDataTypes (){
+        
+        if (!typesFromCache){
+            return false;
+        }
+        
+        logger.info("Data type not found in cache. Reading data types from the database");
+        typesFromCache = false;
+        typeRegistry = readDataTypes();
+        dataTypes = typeRegistry.byName;
+        
+        return true;
+    }
+    
+    /**
+     * Look up a data type by name, reading the types from the database
+     * again if the cached types do not have it.
+     * 
+     * @param dtds data types, keyed by type name
+     * @param typeName
+     * @return DataTypeDef or null if there is no such type
+     */
+    DataTypeDef findDataType (Map<String, DataTypeDef> dtds, String typeName){
+        
+        DataTypeDef dtd = dtds.get(typeName);
+        if (dtd == null && refreshDataTypes()){
+            dtd = getDataTypes().get(typeName);
+        }
+        
+        return dtd;
+    }
+    
    @Override
     public void setSchema(String unverifiedSchema) {
 
@@ -431,214 +918,730 @@ class GenericDMR implements DataSourceDMR {
             return;
         }
         
-        try (Connection conn = dataSource.getConnection()){
-
-            DatabaseMetaData dmd = conn.getMetaData();
-            ResultSet rs = dmd.getSchemas();
-            while (rs.next()) {
-                if (rs.getString("TABLE_SCHEM").trim().equalsIgnoreCase(unverifiedSchema)) {
-                    //store value with whatever case sensitivity it is returned as
-                    verifiedSchema = rs.getString("TABLE_SCHEM").trim();
+        try {
+            for (String schema : findSchemas(unverifiedSchema)){
+                //store value with whatever case sensitivity it is returned as
+                verifiedSchema = schema;
+            }
+        } catch (SQLException e) {
+            logger.error("error verifying schema", e);
+        }
+    }
+    
+    /**
+     * Find schemas matching name, ignoring case.  The name is looked up as
+     * given, in upper case and in lower case with pattern constrained
+     * metadata calls, which covers how databases store unquoted names.
+     * Only if none of those match are all schemas read.
+     * 
+     * @param name
+     * @return matching schema names, as stored in the database.
+     * @throws SQLException 
+     */
+    List<String> findSchemas (String name) throws SQLException {
+        
+        Set<String> matches = new LinkedHashSet<>();
+        
+        try (Connection conn = dataSource.getConnection()){
+
+            DatabaseMetaData dmd = conn.getMetaData();
+            for (String variant : getNameVariants(name)){
+                readMatches(dmd.getSchemas(null, variant), "TABLE_SCHEM", name, matches);
+            }
+            if (matches.isEmpty()){
+                readMatches(dmd.getSchemas(), "TABLE_SCHEM", name, matches);
+            }
+        }
+        
+        return new ArrayList<>(matches);
+    }
+    
+    /**
+     * Find tables in the verified schema (or in any schema, if it is not
+     * set) matching name, ignoring case.  Looked up the same way as
+     * findSchemas.
+     * 
+     * @param name
+     * @return matching tables, as schema.name for each table found.
+     * @throws SQLException 
+     */
+    List<String> findTables (String name) throws SQLException {
+        
+        Set<String> matches = new LinkedHashSet<>();
+        String[] types = new String[]{"TABLE"};
+        
+        try (Connection conn = dataSource.getConnection()){
+
+            DatabaseMetaData dmd = conn.getMetaData();
+            for (String variant : getNameVariants(name)){
+                readTableMatches(dmd.getTables(null, verifiedSchema, variant, types), name, matches);
+            }
+            if (matches.isEmpty()){
+                readTableMatches(dmd.getTables(null, verifiedSchema, null, types), name, matches);
+            }
+        }
+        
+        return new ArrayList<>(matches);
+    }
+    
+    Set<String> getNameVariants (String name){
+        
+        Set<String> variants = new LinkedHashSet<>();
+        variants.add(name);
+        if (idMetaData != null){
+            variants.add(idMetaData.getStoredName(name));
+        }
+        variants.add(name.toUpperCase());
+        variants.add(name.toLowerCase());
+        
+        return variants;
+    }
+    
+    void readMatches (ResultSet rs, String column, String name, Set<String> matches) throws SQLException {
+        
+        while (rs.next()) {
+            String value = rs.getString(column).trim();
+            if (value.equalsIgnoreCase(name)) {
+                matches.add(value);
+            }
+        }
+        rs.close();
+    }
+    
+    void readTableMatches (ResultSet rs, String name, Set<String> matches) throws SQLException {
+        
+        while (rs.next()) {
+            String value = rs.getString("TABLE_NAME").trim();
+            if (value.equalsIgnoreCase(name)) {
+                matches.add(rs.getString("TABLE_SCHEM") + "." + value);
+            }
+        }
+        rs.close();
+    }
+    
+    @Override
+    public String getSchema() {
+
+        if (verifiedSchema == null
+                && unverifiedSchema != null) {
+            setSchema(unverifiedSchema);
+        }
+
+        return verifiedSchema;
+    }
+    
+    @Override
+    public void setAuditConfigTableName (String unverifiedTable){
+        
+        this.unverifiedAuditConfigTable = unverifiedTable;
+        this.verifiedAuditConfigTable = null;
+        String candidate = null;
+        boolean multiMatch = false;
+        
+        if(unverifiedAuditConfigTable == null){
+            return;
+        }
+        
+        if (null == verifiedSchema){
+            logger.error("attempting to verify auditConfigTable with unverified schema");
+        }
+        
+        try {
+            for (String table : findTables(unverifiedTable)){
+                //store value with whatever case sensitivity it is returned as
+                if (candidate == null){
+                    candidate = table.substring(table.indexOf('.') + 1);
+                }
+                else{
+                    multiMatch = true;
+                }
+            }
+        } catch (SQLException e) {
+            logger.error("error verifying auditConfigTable", e);
+        }
+        
+        /** Fails to set verified value if more than one match.
+         * This can occur if schema is not set and there are multiple
+         * tables in different schemas matching the table name.
+         */
+        if (!multiMatch){
+            this.verifiedAuditConfigTable = candidate;
+        }
+        
+    }
+    
+    @Override
+    public String getAuditConfigTableName(){
+         if (verifiedAuditConfigTable == null
+                && unverifiedAuditConfigTable != null) {
+            setAuditConfigTableName(unverifiedAuditConfigTable);
+        }
+
+        return verifiedAuditConfigTable;
+    }
+
+    @Override
+    public void readDBChangeList(List<DBChangeUnit> units) {
+        
+        ChangePlan plan = ChangePlan.of(units);
+        
+        if (plan == null){
+            logger.error("Invalid DBChangeUnitList submitted.  Not processing");
+            return;
+        }
+        
+        readChangePlan(plan);
+    }
+    
+    @Override
+    public void readChangePlan(ChangePlan plan) {
+        
+        //triggers already in the state planned are left alone.  Only the
+        //tables with trigger operations in this batch are looked up.
+        Set<String> triggerTables = new HashSet<>();
+        for (ChangePlan.Operation op : plan) {
+            if (op.getChangeType() == DBChangeType.createTriggers
+                    || op.getChangeType() == DBChangeType.dropTriggers){
+                triggerTables.add(op.getTableName());
+            }
+        }
+        Map<String, String> installedTriggers = triggerTables.isEmpty()
+                ? null : getTriggerFingerprints(triggerTables);
+        
+        //each operation is a <begin-stuff-end> group.  Submit into queue.
+        for (ChangePlan.Operation op : plan) {
+            List<DBChangeUnit> workList = op.toUnitList();
+            if (installedTriggers != null
+                    && isTriggerUnchanged(workList, op.getChangeType(), installedTriggers)){
+                logger.debug("audit trigger unchanged for table {}", op.getTableName());
+                continue;
+            }
+            bufferOperation(workList);
+        }
+
+    }
+    
+    /**
+     * Add an operation to the change buffer.  If a spill directory is set,
+     * operations past spillThreshold are rendered to SQL and written to a
+     * SpillFile instead, and so is every operation after them, to keep
+     * them in order.  The heap then holds no more than spillThreshold
+     * operations however many are read.
+     * 
+     * @param op operation from begin to end
+     */
+    void bufferOperation(List<DBChangeUnit> op){
+        
+        if (spillDir != null && (spill != null || operations.size() >= spillThreshold)){
+            if (spill == null){
+                try {
+                    spill = SpillFile.create(spillDir);
+                    logger.info("Spilling pending changes to {}", spill.file);
+                } catch (IOException e) {
+                    logger.error("Cannot create spill file in {}. Pending changes kept in memory", spillDir, e);
+                    spillDir = null;
+                    operations.add(op);
+                    return;
+                }
+            }
+            
+            DBChangeUnit header = op.get(1);
+            String query = getSQL(op);
+            if (query == null){
+                logger.error("Error generating update SQL for changeList: {}", DBChangeUnit.ListToString(op));
+            }
+            try {
+                spill.append(header.getChangeType().name(), header.getTableName(),
+                        header.getAuditTableName(), query, joinForeignTables(op));
+            } catch (IOException e) {
+                throw Throwables.propagate(e);
+            }
+            return;
+        }
+        
+        operations.add(op);
+    }
+    
+    void closeSpill(){
+        
+        if (spill != null){
+            spill.close();
+            spill = null;
+        }
+    }
+
+    /**
+     * Get a fingerprint of the audit trigger installed on each of the
+     * tables, in the form returned by getTriggerFingerprint.  Not available
+     * for a generic DataSource.
+     * 
+     * @param tableNames tables to look up
+     * @return Map of table name to trigger fingerprint for the tables that
+     * have an audit trigger, or null if installed triggers can not be read.
+     */
+    Map<String, String> getTriggerFingerprints(Collection<String> tableNames){
+        
+        return null;
+    }
+    
+    /**
+     * Fingerprint an audit trigger from the parts the database keeps of it.
+     * 
+     * @param functionName name of the trigger function, without arguments
+     * @param triggerType trigger events and timing, encoded as pg_trigger.tgtype
+     * @param enabled trigger enabled state, as pg_trigger.tgenabled
+     * @param body source of the trigger function
+     * @return hex hash of the trigger.
+     */
+    static String getTriggerFingerprint(String functionName, int triggerType, String enabled, String body){
+        
+        StringBuilder builder = new StringBuilder();
+        builder.append(functionName).append('|').append(triggerType).append('|')
+                .append(enabled).append('|').append(body);
+        
+        return Hashing.md5().hashString(builder.toString(), Charsets.UTF_8).toString();
+    }
+    
+    /**
+     * Fingerprint the audit trigger that a createTriggers operation would
+     * install, for comparing with getTriggerFingerprints.
+     * 
+     * @param op createTriggers operation
+     * @return hex hash of the trigger, or null if no SQL can be generated.
+     */
+    String getExpectedTriggerFingerprint(List<DBChangeUnit> op){
+        
+        String query = getSQL(op);
+        if (query == null){
+            return null;
+        }
+        
+        String triggerName = op.get(1).getTableName() + "_audit";
+        String triggerReference = TRIGGER_BODY_TAG;
+        int start = query.indexOf(triggerReference);
+        int end = start < 0 ? -1 : query.indexOf(triggerReference, start + triggerReference.length());
+        if (end < 0){
+            return null;
+        }
+        String body = query.substring(start + triggerReference.length(), end);
+        
+        //FOR EACH ROW, AFTER the events fired on
+        int triggerType = 1;
+        for (DBChangeUnit unit : op){
+            if (!unit.getFiresTrigger()){
+                continue;
+            }
+            switch (unit.getChangeType()){
+                case fireOnInsert:
+                    triggerType |= 4;
+                    break;
+                case fireOnDelete:
+                    triggerType |= 8;
+                    break;
+                case fireOnUpdate:
+                    triggerType |= 16;
+                    break;
+                default:
+                    break;
+            }
+        }
+        
+        return getTriggerFingerprint("process_" + triggerName, triggerType, "O", body);
+    }
+    
+    /**
+     * Check whether a trigger operation would leave the database as it is.
+     * A createTriggers operation is unchanged if the installed trigger has the
+     * same fingerprint.  A dropTriggers operation is unchanged if there is
+     * no trigger to drop.
+     * 
+     * @param op operation from begin to end
+     * @param opType change type of the operation
+     * @param installedTriggers fingerprints of the installed triggers
+     * @return True if the operation can be skipped.
+     */
+    boolean isTriggerUnchanged(List<DBChangeUnit> op, DBChangeType opType,
+            Map<String, String> installedTriggers){
+        
+        String tableName = op.get(1).getTableName();
+        
+        switch (opType){
+            case createTriggers:
+                String expected = getExpectedTriggerFingerprint(op);
+                return expected != null && expected.equals(installedTriggers.get(tableName));
+            case dropTriggers:
+                return !installedTriggers.containsKey(tableName);
+            default:
+                return false;
+        }
+    }
+
+    @Override
+    public boolean renderChanges(ChangeSink sink) {
+        
+        List<DBChangeUnit> op;
+        
+        while (!operations.isEmpty()) {
+            op = operations.poll();
+            DBChangeUnit header = op.get(1);
+            String query = getSQL(op);
+            
+            if (query == null){
+                logger.error("Error generating update SQL for changeList: {}", DBChangeUnit.ListToString(op));
+                return false;
+            }
+            sink.addStatement(header.getChangeType(), header.getTableName(),
+                    header.getAuditTableName(), query);
+        }
+        
+        if (spill != null){
+            try {
+                for (String[] record : spill){
+                    if (record[3] == null){
+                        return false;
+                    }
+                    sink.addStatement(DBChangeType.valueOf(record[0]), record[1], record[2], record[3]);
+                }
+            } finally {
+                closeSpill();
+            }
+        }
+        
+        return true;
+    }
+    
+    @Override
+    public void executeStatements(List<String> tableNames, List<String> auditTableNames, List<String> statements) {
+        
+        //grouped by audit table like executeChanges, see PlanFile.getAppliedTables
+        List<String> batch = new ArrayList<>();
+        String batchTable = null;
+        ApplyScheduler scheduler = getScheduler();
+        
+        try {
+            for (int i = 0; i < statements.size(); i++){
+                String table = getBatchTable(tableNames.get(i), auditTableNames.get(i));
+                if (!table.equals(batchTable)){
+                    if (batchTable != null){
+                        scheduler.submit(batchTable, batch, Collections.<String>emptySet());
+                    }
+                    batch = new ArrayList<>();
+                    batchTable = table;
+                }
+                batch.add(statements.get(i));
+            }
+            if (batchTable != null){
+                scheduler.submit(batchTable, batch, Collections.<String>emptySet());
+            }
+        } finally {
+            failedUpdates += scheduler.await();
+        }
+    }
+    
+    /**
+     * Get the scheduler for executing changes.  It is made on first use and
+     * kept, with its threads and connections, until close(), so the
+     * executeChanges calls of a run share them, and tables deferred for
+     * their locks wait for the end of the run.  A single thread executes
+     * the changes on the held execution session.
+     * 
+     * @return ApplyScheduler that runs up to maxThreads tables at a time.
+     */
+    ApplyScheduler getScheduler(){
+        
+        if (scheduler == null){
+            if (maxThreads > 1){
+                scheduler = new ApplyScheduler(dataSource, maxThreads, idMetaData, journal, lockRetry);
+            }
+            else {
+                scheduler = new ApplyScheduler(getSession(), idMetaData, journal, lockRetry);
+            }
+        }
+        return scheduler;
+    }
+    
+    /**
+     * @return the held execution session, which keeps one connection and
+     * sends the statements as JDBC batches where it can.
+     */
+    ExecutionSession getSession(){
+        
+        if (session == null){
+            session = new ExecutionSession(dataSource);
+            session.lockRetry = lockRetry;
+        }
+        return session;
+    }
+    
+    /**
+     * @return the table that the statements of an operation are grouped by,
+     * which is its audit table if it has one.
+     */
+    static String getBatchTable(String tableName, String auditTableName){
+        
+        if (auditTableName == null || auditTableName.isEmpty()){
+            return tableName;
+        }
+        return auditTableName;
+    }
+
+    /**
+     * Execute the buffered operations through the ApplyScheduler.  The
+     * statements of one table are sent together, in order.  With more than
+     * one thread, different tables run concurrently, each table after any
+     * earlier table it references.  An operation that cannot be rendered
+     * to SQL is counted as failed, and the rest are still executed.
+     */
+    @Override
+    public void executeChanges() {
+
+        List<DBChangeUnit> op;
+        String query;
+        //the statements of one table are executed together
+        List<String> batch = new ArrayList<>();
+        Set<String> references = new LinkedHashSet<>();
+        String batchTable = null;
+        ApplyScheduler scheduler = getScheduler();
+
+        try {
+            while (!operations.isEmpty()) {
+                op = operations.poll();
+
+                //operations were validated when their ChangePlan was made
+                switch (op.get(1).changeType) {
+                    case createTable:
+                    case alterTable:
+                    case createTriggers:
+                    case dropTriggers:
+                        query = getSQL(op);
+                        break;
+                    default:
+                        //should not get here if the list is valid, unless a new changetype
+                        //was added that this DMR does not know about.  If which case - fail.
+                        logger.error("unimplemented DBChangeUnit {}", op.get(1).getChangeType().toString());
+                        failedUpdates++;
+                        continue;
+                }
+
+                if (query == null){
+                    logger.error("Error generating update SQL for changeList: {}", DBChangeUnit.ListToString(op));
+                    failedUpdates++;
+                    continue;
+                }
+
+                String table = getBatchTable(op.get(1).getTableName(), op.get(1).getAuditTableName());
+                if (!table.equals(batchTable)){
+                    scheduler.submit(batchTable, batch, references);
+                    batch = new ArrayList<>();
+                    references = new LinkedHashSet<>();
+                    batchTable = table;
+                }
+                batch.add(query);
+                for (DBChangeUnit unit : op){
+                    if (!unit.foreignTable.isEmpty()){
+                        references.add(unit.foreignTable);
+                    }
+                }
+            }
+
+            //spilled operations were rendered when they were spilled
+            if (spill != null){
+                try {
+                    for (String[] record : spill){
+                        if (record[3] == null){
+                            //logged when it was spilled
+                            failedUpdates++;
+                            continue;
+                        }
+                        String table = getBatchTable(record[1], record[2]);
+                        if (!table.equals(batchTable)){
+                            scheduler.submit(batchTable, batch, references);
+                            batch = new ArrayList<>();
+                            references = new LinkedHashSet<>();
+                            batchTable = table;
+                        }
+                        batch.add(record[3]);
+                        if (record[4] != null){
+                            references.addAll(Arrays.asList(record[4].split(",")));
+                        }
+                    }
+                } finally {
+                    closeSpill();
+                }
+            }
+
+            scheduler.submit(batchTable, batch, references);
+        } finally {
+            failedUpdates += scheduler.await();
+        }
+    }
+    
+    /**
+     * @return the foreign tables referenced by an operation, comma separated,
+     * or null if there are none.
+     */
+    static String joinForeignTables(List<DBChangeUnit> op){
+        
+        StringBuilder builder = new StringBuilder();
+        for (DBChangeUnit unit : op){
+            if (!unit.foreignTable.isEmpty()){
+                if (builder.length() > 0){
+                    builder.append(",");
                 }
+                builder.append(unit.foreignTable);
             }
-            rs.close();
-        } catch (SQLException e) {
-            logger.error("error verifying schema", e);
         }
+        return builder.length() > 0 ? builder.toString() : null;
     }
     
     @Override
-    public String getSchema() {
-
-        if (verifiedSchema == null
-                && unverifiedSchema != null) {
-            setSchema(unverifiedSchema);
+    public void close() {
+        
+        try {
+            if (scheduler != null){
+                failedUpdates += scheduler.finish();
+            }
+        } finally {
+            scheduler = null;
+            if (session != null){
+                session.close();
+                session = null;
+            }
         }
+    }
 
-        return verifiedSchema;
+    /**
+     * @return the verified schema followed by a dot, or an empty string
+     * if there is no verified schema.
+     */
+    String getSchemaPrefix(){
+        
+        if (verifiedSchema != null){
+            return quote(verifiedSchema) + ".";
+        }
+        else {
+            return "";
+        }
     }
     
-    @Override
-    public void setAuditConfigTableName (String unverifiedTable){
-        
-        this.unverifiedAuditConfigTable = unverifiedTable;
-        this.verifiedAuditConfigTable = null;
-        String candidate = null;
-        boolean multiMatch = false;
+    /**
+     * Quote a table, column or schema name for SQL, if it needs it.  A name
+     * holding ShapeCache tokens is marked instead, and quoted by getSQL once
+     * the names the tokens stand for are filled in.
+     * 
+     * @param name
+     * @return the name, quoted or marked as needed.
+     */
+    String quote(String name){
         
-        if(unverifiedAuditConfigTable == null){
-            return;
+        if (idMetaData == null){
+            return name;
         }
-        
-        if (null == verifiedSchema){
-            logger.error("attempting to verify auditConfigTable with unverified schema");
+        if (ShapeCache.hasToken(name)){
+            return ShapeCache.QUOTE_START + name + ShapeCache.QUOTE_END;
         }
+        return idMetaData.quote(name);
+    }
+    
+    /**
+     * Get the SQL for an operation.  The SQL is rendered once per shape of
+     * operation, with table names and schema as tokens, and kept in a
+     * ShapeCache.  Operations for other tables of the same shape reuse it.
+     * 
+     * @param op operation from begin to end
+     * @return SQL for the operation, or null if it can not be generated.
+     */
+    String getSQL(List<DBChangeUnit> op){
         
-        try (Connection conn = dataSource.getConnection()){
-
-            DatabaseMetaData dmd = conn.getMetaData();
-            ResultSet rs = dmd.getTables(null, null == verifiedSchema ? null : verifiedSchema, null, null);
-            while (rs.next()) {
-                if (rs.getString("TABLE_NAME").trim().equalsIgnoreCase(unverifiedTable)) {
-                    //store value with whatever case sensitivity it is returned as
-                    if (candidate == null){
-                    candidate = rs.getString("TABLE_NAME").trim();
-                    }
-                    else{
-                        multiMatch = true;
-                    }
-                }
-            }
-            rs.close();
-        } catch (SQLException e) {
-            logger.error("error verifying auditConfigTable", e);
+        DBChangeType opType = op.get(1).getChangeType();
+        String baseName = null;
+        String auditName;
+        
+        if (opType == DBChangeType.createTriggers || opType == DBChangeType.dropTriggers){
+            baseName = op.get(1).getTableName();
+            auditName = op.get(1).getAuditTableName();
+        }
+        else {
+            auditName = op.get(1).getTableName();
         }
         
-        /** Fails to set verified value if more than one match.
-         * This can occur if schema is not set and there are multiple
-         * tables in different schemas matching the table name.
-         */
-        if (!multiMatch){
-            this.verifiedAuditConfigTable = candidate;
+        List<DBChangeUnit> tokenized = ShapeCache.tokenize(op, baseName, auditName);
+        String key = ShapeCache.getKey(tokenized);
+        ShapeCache cache = getSQLCache();
+        String template = (String) cache.get(key);
+        
+        if (template == null){
+            template = getSQL(tokenized, ShapeCache.SCHEMA_TOKEN);
+            if (template == null){
+                return null;
+            }
+            cache.put(key, template);
         }
         
+        return ShapeCache.quoteMarked(
+                ShapeCache.detokenize(template, baseName, auditName, getSchemaPrefix()), idMetaData);
     }
     
-    @Override
-    public String getAuditConfigTableName(){
-         if (verifiedAuditConfigTable == null
-                && unverifiedAuditConfigTable != null) {
-            setAuditConfigTableName(unverifiedAuditConfigTable);
+    String getSQL(List<DBChangeUnit> op, String schema){
+        
+        switch (op.get(1).getChangeType()) {
+            case createTable:
+                return getCreateTableSQL(op, schema);
+            case alterTable:
+                return getAlterTableSQL(op, schema);
+            case createTriggers:
+                return getCreateTriggerSQL(op, schema);
+            case dropTriggers:
+                return getDropTriggerSQL(op, schema);
+            default:
+                logger.error("unimplemented DBChangeUnit {}", op.get(1).getChangeType().toString());
+                return null;
         }
-
-        return verifiedAuditConfigTable;
     }
-
-    @Override
-    public void readDBChangeList(List<DBChangeUnit> units) {
-        
-        //The change list should be valid, and any code in this method
-        //which is checking errors should not be required.  It is here
-        //for early development sake, but the list really should be validated
-        //before it is submitted here.
-        
-        List<DBChangeUnit> workList = null;
-        Boolean beginTag = false;
-        DBChangeType workListType = DBChangeType.notSet;
+    
+    /**
+     * Get the cache for rendered SQL.  It is shared with other DataSourceDMR
+     * objects of the same class, database product and version, identifier
+     * case and quoting rules, and session user SQL.
+     * 
+     * @return ShapeCache for SQL templates.
+     */
+    synchronized ShapeCache getSQLCache(){
         
-        if (!DBChangeUnit.validateUnitList(units)){
-            logger.error("Invalid DBChangeUnitList submitted.  Not processing");
-            return;
+        String config = getClass().getName() + "|" + getSessionUserSQL();
+        if (idMetaData != null){
+            config += "|" + idMetaData.getStoresLowerCaseIds() + "|" + idMetaData.getStoresUpperCaseIds()
+                    + "|" + idMetaData.getStoresMixedCaseIds() + "|" + idMetaData.getQuoteString();
         }
+        String registryKey = getTypeRegistryKey();
         
-        //pull apart each <begin-stuff-end> and submit into queue.
-        for ( DBChangeUnit unit : units) {
-            switch (unit.getChangeType()){
-                case begin:
-                    //start 'work unit list'
-                    beginTag = true;
-                    workList = new ArrayList<>();
-                    workList.add(unit);
-                    break;
-                case end:
-                    beginTag = false;
-                    workList.add(unit);
-                    //add to work queue
-                    operations.add(workList);
-                    break;
-                case createTable:
-                case alterTable:
-                case createTriggers:
-                case dropTriggers:
-                    workListType = unit.getChangeType();
-                    workList.add(unit);
-                    break;
-                case addColumn:                    
-                case alterColumnName:
-                case alterColumnSize:
-                case alterColumnType:                    
-                case addTriggerColumn:
-                case fireOnInsert:
-                case fireOnUpdate:
-                case fireOnDelete:
-                case addTriggerAction:
-                case addTriggerTimeStamp:
-                case addTriggerUser:
-                case addTriggerSessionUser:
-                    workList.add(unit);
-                    break;
-                case notSet:
-                default:
-                    //should not get here if the list is valid, unless a new changetype
-                    //was added that this DMR does not know about.  If which case - fail.
-                    logger.error ("unimplemented DBChangeUnit {}", unit.getChangeType().toString());
-                    return;
-                    
-            }
-            
-        }
-
-    }
-
-    @Override
-    public void executeChanges() {
-
-        List<DBChangeUnit> op;
-        String query;
-
-        while (!operations.isEmpty()) {
-            op = operations.poll();
-
-            //validate it one more time, totally not necessary :)
-            if (!DBChangeUnit.validateUnitList(op)) {
-                logger.error("Invalid DBChangeUnitList submitted.  Not processing");
-            }
-            
-            switch (op.get(1).changeType) {
-                case createTable:
-                    query = getCreateTableSQL(op);
-                    break;
-                case alterTable:
-                    query = getAlterTableSQL(op);
-                    break;
-                case createTriggers:
-                    query = getCreateTriggerSQL(op);
-                    break;
-                case dropTriggers:
-                    query = getDropTriggerSQL(op);
-                    break;
-                default:
-                    //should not get here if the list is valid, unless a new changetype
-                    //was added that this DMR does not know about.  If which case - fail.
-                    logger.error("unimplemented DBChangeUnit {}", op.get(1).getChangeType().toString());
-                    return;
-            }
-            
-            if (query == null){
-                logger.error("Error generating update SQL for changeList: {}", DBChangeUnit.ListToString(op));
-                return;
-            }
-            else {
-                executeUpdate(query);
+        if (registryKey == null){
+            if (sqlCache == null || !config.equals(sqlCacheConfig)){
+                sqlCache = new ShapeCache();
+                sqlCacheConfig = config;
             }
-            
+            return sqlCache;
         }
+        
+        return ShapeCache.getShared("sql|" + registryKey + "|" + config);
     }
-
+    
     String getCreateTableSQL(List<DBChangeUnit> op) {
         
+        return getCreateTableSQL(op, getSchemaPrefix());
+    }
+    
+    /**
+     * @param op operation from begin to end
+     * @param schema prefix for object names, as from getSchemaPrefix
+     * @return SQL for the operation, or null if it can not be generated.
+     */
+    String getCreateTableSQL(List<DBChangeUnit> op, String schema) {
+        
         StringBuilder builder = new StringBuilder();
         StringBuilder constraints = new StringBuilder();
         DataTypeDef dataTypeDef = null;
         boolean firstCol = true;
-        String schema;
-        
-        if (verifiedSchema != null){
-            schema = verifiedSchema + ".";
-        }
-        else {
-            schema = "";
-        }
 
         for (DBChangeUnit unit : op) {
             switch (unit.changeType) {
@@ -651,7 +1654,7 @@ class GenericDMR implements DataSourceDMR {
                     //execute SQL here...
                     break;
                 case createTable:
-                    builder.append("CREATE TABLE ").append(schema).append(unit.tableName).append(" (").append(System.lineSeparator());
+                    builder.append("CREATE TABLE ").append(schema).append(quote(unit.tableName)).append(" (").append(System.lineSeparator());
                     break;
                 case addColumn:
                     if (!firstCol){
@@ -664,10 +1667,10 @@ class GenericDMR implements DataSourceDMR {
                     dataTypeDef = getDataType(unit.typeName);
                     
                     if (unit.identity){
-                        builder.append(unit.columnName).append(" ").append("serial PRIMARY KEY").append(System.lineSeparator());
+                        builder.append(quote(unit.columnName)).append(" ").append("serial PRIMARY KEY").append(System.lineSeparator());
                     }
                     else {
-                        builder.append(unit.columnName).append(" ").append(unit.typeName);
+                        builder.append(quote(unit.columnName)).append(" ").append(unit.typeName);
 //                        if (dataTypeDef.create_params != null &&  unit.size > 0){
                           if (dataTypeDef.createWithSize &&  unit.size > 0){
                             builder.append(" (").append(unit.size);
@@ -678,7 +1681,7 @@ class GenericDMR implements DataSourceDMR {
                             builder.append(") ");
                         }
                         if (!unit.foreignTable.isEmpty()){
-                            builder.append("REFERENCES ").append(unit.foreignTable).append(" (").append(unit.columnName).append(")");
+                            builder.append("REFERENCES ").append(quote(unit.foreignTable)).append(" (").append(quote(unit.columnName)).append(")");
                             //constraints.append("CONSTRAINT ").append(unit.columnName).append(" REFERENCES ").append(unit.foreignTable);
                         }
                         builder.append(System.lineSeparator());
@@ -698,18 +1701,20 @@ class GenericDMR implements DataSourceDMR {
 
     String getAlterTableSQL(List<DBChangeUnit> op) {
         
+        return getAlterTableSQL(op, getSchemaPrefix());
+    }
+    
+    /**
+     * @param op operation from begin to end
+     * @param schema prefix for object names, as from getSchemaPrefix
+     * @return SQL for the operation, or null if it can not be generated.
+     */
+    String getAlterTableSQL(List<DBChangeUnit> op, String schema) {
+        
         StringBuilder builder = new StringBuilder();
         StringBuilder constraints = new StringBuilder();
         DataTypeDef dataTypeDef = null;
         boolean firstCol = true;
-        String schema;
-        
-        if (verifiedSchema != null){
-            schema = verifiedSchema + ".";
-        }
-        else {
-            schema = "";
-        }
 
         for (DBChangeUnit unit : op) {
             switch (unit.changeType) {
@@ -720,7 +1725,7 @@ class GenericDMR implements DataSourceDMR {
                     builder.append(constraints);
                     break;
                 case alterTable:
-                    builder.append("ALTER TABLE ").append(schema).append(unit.tableName).append(System.lineSeparator());
+                    builder.append("ALTER TABLE ").append(schema).append(quote(unit.tableName)).append(System.lineSeparator());
                     break;
                 case addColumn:
                     if (!firstCol){
@@ -734,10 +1739,10 @@ class GenericDMR implements DataSourceDMR {
                     dataTypeDef = getDataType(unit.typeName);
                     
                     if (unit.identity){
-                        builder.append(unit.columnName).append(" ").append("serial PRIMARY KEY").append(System.lineSeparator());
+                        builder.append(quote(unit.columnName)).append(" ").append("serial PRIMARY KEY").append(System.lineSeparator());
                     }
                     else {
-                        builder.append(unit.columnName).append(" ").append(unit.typeName);
+                        builder.append(quote(unit.columnName)).append(" ").append(unit.typeName);
 //                        if (dataTypeDef.create_params != null &&  unit.size > 0){
                           if (dataTypeDef.createWithSize &&  unit.size > 0){
                             builder.append(" (").append(unit.size);
@@ -748,7 +1753,7 @@ class GenericDMR implements DataSourceDMR {
                             builder.append(") ");
                         }
                         if (!unit.foreignTable.isEmpty()){
-                            builder.append("REFERENCES ").append(unit.foreignTable).append(" (").append(unit.columnName).append(")");
+                            builder.append("REFERENCES ").append(quote(unit.foreignTable)).append(" (").append(quote(unit.columnName)).append(")");
                             //constraints.append("CONSTRAINT ").append(unit.columnName).append(" REFERENCES ").append(unit.foreignTable);
                         }
                         builder.append(System.lineSeparator());
@@ -762,7 +1767,7 @@ class GenericDMR implements DataSourceDMR {
                     else {
                         firstCol = false;
                     }
-                    builder.append("ALTER COLUMN ").append(unit.columnName).append(" TYPE ").append(unit.typeName);
+                    builder.append("ALTER COLUMN ").append(quote(unit.columnName)).append(" TYPE ").append(unit.typeName);
                     if (unit.size > 0) {
                         builder.append(" (").append(unit.size);
 
@@ -780,7 +1785,7 @@ class GenericDMR implements DataSourceDMR {
                     else {
                         firstCol = false;
                     }
-                    builder.append("RENAME COLUMN ").append(unit.columnName).append(" TO ").append(unit.newColumnName);
+                    builder.append("RENAME COLUMN ").append(quote(unit.columnName)).append(" TO ").append(quote(unit.newColumnName));
                     builder.append(System.lineSeparator());
                     
                     break;
@@ -798,6 +1803,16 @@ class GenericDMR implements DataSourceDMR {
 
     String getCreateTriggerSQL(List<DBChangeUnit> op) {
         
+        return getCreateTriggerSQL(op, getSchemaPrefix());
+    }
+    
+    /**
+     * @param op operation from begin to end
+     * @param schema prefix for object names, as from getSchemaPrefix
+     * @return SQL for the operation, or null if it can not be generated.
+     */
+    String getCreateTriggerSQL(List<DBChangeUnit> op, String schema) {
+        
         StringBuilder builder = new StringBuilder();
         StringBuilder insertDetail = new StringBuilder();
         StringBuilder deleteDetail = new StringBuilder();
@@ -818,14 +1833,6 @@ class GenericDMR implements DataSourceDMR {
         boolean onUpdate = true;
         List<String> columns = new ArrayList<>();
         List<String> whenColumns = new ArrayList<>();
-        String schema;
-        
-        if (verifiedSchema != null){
-            schema = verifiedSchema + ".";
-        }
-        else {
-            schema = "";
-        }
 
         for (DBChangeUnit unit : op) {
             switch (unit.changeType) {
@@ -853,7 +1860,7 @@ class GenericDMR implements DataSourceDMR {
                              
                             }
                             firstCol = false;
-                            updateConditional.append("OLD.").append(col).append(" IS DISTINCT FROM NEW.").append(col).append(System.lineSeparator());
+                            updateConditional.append("OLD.").append(quote(col)).append(" IS DISTINCT FROM NEW.").append(quote(col)).append(System.lineSeparator());
                         }
                         updateConditional.append("            )) THEN").append(System.lineSeparator());                       
                     }
@@ -864,19 +1871,22 @@ class GenericDMR implements DataSourceDMR {
                     
                     //////////////////////                     
                     //generate the detail insert column list for the trigger(s)
-                    insertDetail.append(String.format("        INSERT INTO %s%s (%s, %s, %s", schema, auditTableName, actionColumn, userColumn, timeStampColumn));
-                    updateDetail.append(String.format("        INSERT INTO %s%s (%s, %s, %s", schema, auditTableName, actionColumn, userColumn, timeStampColumn));
-                    deleteDetail.append(String.format("        INSERT INTO %s%s (%s, %s, %s", schema, auditTableName, actionColumn, userColumn, timeStampColumn));
+                    insertDetail.append(String.format("        INSERT INTO %s%s (%s, %s, %s", schema, quote(auditTableName),
+                            quote(actionColumn), quote(userColumn), quote(timeStampColumn)));
+                    updateDetail.append(String.format("        INSERT INTO %s%s (%s, %s, %s", schema, quote(auditTableName),
+                            quote(actionColumn), quote(userColumn), quote(timeStampColumn)));
+                    deleteDetail.append(String.format("        INSERT INTO %s%s (%s, %s, %s", schema, quote(auditTableName),
+                            quote(actionColumn), quote(userColumn), quote(timeStampColumn)));
     
                     if (sessionUserColumn != null){
-                        insertDetail.append(", ").append(sessionUserColumn);
-                        updateDetail.append(", ").append(sessionUserColumn);
-                        deleteDetail.append(", ").append(sessionUserColumn);
+                        insertDetail.append(", ").append(quote(sessionUserColumn));
+                        updateDetail.append(", ").append(quote(sessionUserColumn));
+                        deleteDetail.append(", ").append(quote(sessionUserColumn));
                     }
                     for (String col : columns){
-                        insertDetail.append(", ").append(col);
-                        updateDetail.append(", ").append(col);
-                        deleteDetail.append(", ").append(col);
+                        insertDetail.append(", ").append(quote(col));
+                        updateDetail.append(", ").append(quote(col));
+                        deleteDetail.append(", ").append(quote(col));
                     }
                     insertDetail.append(")").append(System.lineSeparator());
                     updateDetail.append(")").append(System.lineSeparator());
@@ -893,9 +1903,9 @@ class GenericDMR implements DataSourceDMR {
                         deleteDetail.append(", ").append(this.getSessionUserSQL());
                     }
                     for (String col : columns){
-                        insertDetail.append(", NEW.").append(col);
-                        updateDetail.append(", NEW.").append(col);
-                        deleteDetail.append(", OLD.").append(col);
+                        insertDetail.append(", NEW.").append(quote(col));
+                        updateDetail.append(", NEW.").append(quote(col));
+                        deleteDetail.append(", OLD.").append(quote(col));
                     }
                     insertDetail.append(";").append(System.lineSeparator());
                     updateDetail.append(";").append(System.lineSeparator());
@@ -921,8 +1931,8 @@ class GenericDMR implements DataSourceDMR {
                     
                     ///////////////////////                    
                     //create the trigger
-                    builder.append("DROP TRIGGER IF EXISTS ").append(triggerName).append(" ON ").append(schema).append(tableName).append(";").append(System.lineSeparator());
-                    builder.append("CREATE TRIGGER ").append(triggerName).append(System.lineSeparator());
+                    builder.append("DROP TRIGGER IF EXISTS ").append(quote(triggerName)).append(" ON ").append(schema).append(quote(tableName)).append(";").append(System.lineSeparator());
+                    builder.append("CREATE TRIGGER ").append(quote(triggerName)).append(System.lineSeparator());
                     builder.append("AFTER ");
                     if (onInsert){
                         builder.append("INSERT ");
@@ -945,15 +1955,15 @@ class GenericDMR implements DataSourceDMR {
                             builder.append("DELETE ");
                         }
                     }
-                    builder.append("ON ").append(schema).append(tableName).append(System.lineSeparator());
+                    builder.append("ON ").append(schema).append(quote(tableName)).append(System.lineSeparator());
                     builder.append("FOR EACH ROW EXECUTE PROCEDURE ").append(schema).append(functionName).append(";").append(System.lineSeparator());
                     //run the sql...
                     break;
                 case createTriggers:
                     tableName = unit.getTableName();
                     triggerName = unit.getTableName() + "_audit";
-                    functionName = "process_" + triggerName + "()";
-                    triggerReference = "$" + triggerName + "$";
+                    functionName = quote("process_" + triggerName) + "()";
+                    triggerReference = TRIGGER_BODY_TAG;
                     auditTableName = unit.getAuditTableName();
                     break;
                 case fireOnDelete:
@@ -997,16 +2007,18 @@ class GenericDMR implements DataSourceDMR {
 
     String getDropTriggerSQL(List<DBChangeUnit> op) {
         
+        return getDropTriggerSQL(op, getSchemaPrefix());
+    }
+    
+    /**
+     * @param op operation from begin to end
+     * @param schema prefix for object names, as from getSchemaPrefix
+     * @return SQL for the operation, or null if it can not be generated.
+     */
+    String getDropTriggerSQL(List<DBChangeUnit> op, String schema) {
+        
         StringBuilder builder = new StringBuilder();
         String triggerName;
-        String schema;
-        
-        if (verifiedSchema != null){
-            schema = verifiedSchema + ".";
-        }
-        else {
-            schema = "";
-        }
 
         for (DBChangeUnit unit : op) {
             switch (unit.changeType) {
@@ -1018,7 +2030,7 @@ class GenericDMR implements DataSourceDMR {
                     break;
                 case dropTriggers:
                     triggerName = unit.tableName + "_audit";
-                    builder.append("DROP TRIGGER IF EXISTS ").append(triggerName).append(" ON ").append(schema).append(unit.tableName).append(";").append(System.lineSeparator());
+                    builder.append("DROP TRIGGER IF EXISTS ").append(quote(triggerName)).append(" ON ").append(schema).append(quote(unit.tableName)).append(";").append(System.lineSeparator());
                     break;
                 default:
                     //should not get here if the list is valid, unless a new changetype
@@ -1051,15 +2063,16 @@ class GenericDMR implements DataSourceDMR {
 //            if (null != schema) {
 //                conn.setSchema(schema);
 //            }
-            Statement stmt = conn.createStatement();
-            stmt.executeUpdate(query);
-            stmt.close();
+            try (Statement stmt = conn.createStatement()) {
+                stmt.executeUpdate(query);
+            }
 
             //just in case this code is called with a pooled dataSource
 //            conn.setSchema(defaultSchema);
             
             
         } catch (SQLException ex) {
+            failedUpdates++;
             logger.error("Update failed...", ex);
         }
     }
@@ -1073,6 +2086,7 @@ class GenericDMR implements DataSourceDMR {
     @Override
     public void purgeDBChanges() {
         operations.clear();
+        closeSpill();
     }
 
     @Override
@@ -1094,29 +2108,26 @@ class GenericDMR implements DataSourceDMR {
     @Override
     public DataTypeDef getDataType (String typeName){
         
-        Map<String, DataTypeDef> dtds = this.getDataTypes();
-        
-        if (dtds.containsKey(typeName)){
-            return dtds.get(typeName);
-        }
-        else {
-            return null;
-        }
+        return findDataType(this.getDataTypes(), typeName);
                   
     }
     
     @Override
-    public DataTypeDef getDataType (int dataType){
+    public synchronized DataTypeDef getDataType (int dataType){
         
         Map<String, DataTypeDef> dtds = this.getDataTypes();
         
-        for (DataTypeDef dtd : dtds.values()) {
-            if (dtd.data_type == dataType){
-                return dtd;
-            }
+        //dataTypes may have been set without a registry
+        if (typeRegistry == null || typeRegistry.byName != dtds){
+            typeRegistry = new DataTypeRegistry(dtds);
         }
         
-        return null;
+        DataTypeDef dtd = typeRegistry.get(dataType);
+        if (dtd == null && refreshDataTypes()){
+            dtd = typeRegistry.get(dataType);
+        }
+        
+        return dtd;
     }
 
     @Override
@@ -1131,5 +2142,68 @@ class GenericDMR implements DataSourceDMR {
         
         return sessionUserSQL;
     }
+
+    @Override
+    public IdentifierMetaData getIdentifierMetaData() {
+        
+        return idMetaData;
+    }
+
+    @Override
+    public int getFailedUpdateCount() {
+        
+        return failedUpdates;
+    }
+
+    @Override
+    public void setTypeCacheDir(File dir) {
+        this.typeCacheDir = dir;
+    }
+
+    @Override
+    public void setSpillDir(File dir) {
+        this.spillDir = dir;
+    }
+
+    @Override
+    public void setJournal(ApplyJournal journal) {
+        
+        close(); //the scheduler takes the journal when it is made again
+        this.journal = journal;
+    }
+
+    @Override
+    public void setLockTimeout(int lockTimeout, int statementTimeout, long retryBudget) {
+        
+        close(); //the held session takes the timeouts when it reopens
+        lockRetry = lockTimeout > 0 || statementTimeout > 0
+                ? getLockRetryPolicy(lockTimeout, statementTimeout, retryBudget) : null;
+    }
+    
+    /**
+     * Get the lock retry policy for the timeouts.  A generic DataSource has
+     * no lock timeout, only the JDBC query timeout, in whole seconds, for
+     * the statement timeout.
+     * 
+     * @param lockTimeout ms a statement may wait for a lock, 0 for no limit
+     * @param statementTimeout ms a statement may run, 0 for no limit
+     * @param retryBudget ms the run may spend waiting to retry tables
+     * @return LockRetryPolicy
+     */
+    LockRetryPolicy getLockRetryPolicy(int lockTimeout, int statementTimeout, long retryBudget){
+        
+        LockRetryPolicy policy = new LockRetryPolicy(retryBudget);
+        if (statementTimeout > 0){
+            policy.queryTimeout = (statementTimeout + 999) / 1000;
+        }
+        return policy;
+    }
+
+    @Override
+    public void setMaxThreads(int threads) {
+        
+        close(); //the scheduler takes the threads when it is made again
+        this.maxThreads = threads;
+    }
     
 }
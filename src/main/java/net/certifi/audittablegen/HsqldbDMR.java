@@ -20,9 +20,13 @@ package net.certifi.audittablegen;
 
 import ch.qos.logback.classic.Level;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import javax.sql.DataSource;
 import org.apache.commons.dbcp.BasicDataSource;
@@ -153,6 +157,78 @@ public class HsqldbDMR extends GenericDMR {
 
     }
 
+    /**
+     * Load the columns for all of the tables in the list with one query on
+     * INFORMATION_SCHEMA.SYSTEM_COLUMNS, joined to SYSTEM_TABLES so only base
+     * tables are read.  SYSTEM_COLUMNS has the same columns as the
+     * DatabaseMetaData.getColumns result set, so rows are mapped with
+     * getColumnDef as usual, but the query skips the metadata layer and
+     * the per-call setup of the driver.
+     * 
+     * @param tables TableDef objects to populate
+     * @throws SQLException 
+     */
+    @Override
+    void loadColumnsBulk(List<TableDef> tables) throws SQLException {
+        
+        if (tables.isEmpty()){
+            return;
+        }
+        
+        //getDataTypes will initialize the map if it isn't already loaded
+        Map<String, DataTypeDef> dtds = getDataTypes();
+        
+        Map<String, TableDef> tableMap = new HashMap<>();
+        for (TableDef tableDef : tables){
+            tableMap.put(tableDef.getName(), tableDef);
+        }
+        
+        String pattern = getTableNamePattern(tables);
+        
+        StringBuilder builder = new StringBuilder();
+        builder.append("SELECT c.* FROM INFORMATION_SCHEMA.SYSTEM_COLUMNS c").append(System.lineSeparator());
+        builder.append("JOIN INFORMATION_SCHEMA.SYSTEM_TABLES t").append(System.lineSeparator());
+        builder.append("ON t.TABLE_SCHEM = c.TABLE_SCHEM AND t.TABLE_NAME = c.TABLE_NAME").append(System.lineSeparator());
+        builder.append("WHERE t.TABLE_TYPE = 'TABLE'").append(System.lineSeparator());
+        if (verifiedSchema != null){
+            builder.append("AND c.TABLE_SCHEM = ?").append(System.lineSeparator());
+        }
+        if (pattern != null){
+            builder.append("AND c.TABLE_NAME LIKE ?").append(System.lineSeparator());
+        }
+        builder.append("ORDER BY c.TABLE_NAME, c.ORDINAL_POSITION");
+        
+        try (Connection conn = dataSource.getConnection()){
+            
+            PreparedStatement stmt = conn.prepareStatement(builder.toString());
+            int i = 1;
+            if (verifiedSchema != null){
+                stmt.setString(i++, verifiedSchema);
+            }
+            if (pattern != null){
+                stmt.setString(i, pattern);
+            }
+            ResultSet rs = stmt.executeQuery();
+            SourceMetaLayout layout = SourceMetaLayout.of(rs.getMetaData());
+            String currentName = null;
+            TableDef current = null;
+            
+            while (rs.next()){
+                String tableName = rs.getString("TABLE_NAME");
+                if (!tableName.equals(currentName)){
+                    currentName = tableName;
+                    current = tableMap.get(tableName);
+                }
+                if (current != null){
+                    current.addColumn(getColumnDef(rs, layout, dtds));
+                }
+            }
+            
+            rs.close();
+            stmt.close();
+        }
+    }
+
     public void printDataSourceStats() {
         try {
             if (dataSource.isWrapperFor(BasicDataSource.class)) {
@@ -0,0 +1,97 @@
+/*    Copyright 2014 Certifi Inc.
+ *
+ *    This file is part of AuditTableGen.
+ *
+ *        AuditTableGen is free software: you can redistribute it and/or modify
+ *        it under the terms of the GNU General Public License as published by
+ *        the Free Software Foundation, either version 3 of the License, or
+ *        (at your option) any later version.
+ *
+ *        AuditTableGen is distributed in the hope that it will be useful,
+ *        but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *        GNU General Public License for more details.
+ *
+ *        You should have received a copy of the GNU General Public License
+ *        along with AuditTableGen.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.certifi.audittablegen;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import java.util.Locale;
+
+/**
+ * A table or column name, with a key for looking it up without regard to
+ * case.  The key is the name folded to the case the database stores unquoted
+ * identifiers in (see IdentifierMetaData), so for names read from the
+ * database it is usually the name itself.  Keys are interned, so two
+ * identifiers are compared by reference and hashed from a stored value
+ * without touching the characters again.
+ */
+final class Identifier {
+    
+    private static final Interner<String> keys = Interners.newWeakInterner();
+    
+    private final String name;
+    private final String key;
+    private final int hash;
+    
+    private Identifier(String name, String key){
+        this.name = name;
+        this.key = key;
+        this.hash = key.hashCode();
+    }
+    
+    /**
+     * 
+     * @param name the name as given
+     * @param upperCase true to fold the key to upper case, false for lower
+     * @return Identifier for the name.
+     */
+    static Identifier of(String name, boolean upperCase){
+        
+        //toUpperCase/toLowerCase return the same string when there is
+        //nothing to fold
+        String folded = upperCase ? name.toUpperCase(Locale.ROOT) : name.toLowerCase(Locale.ROOT);
+        return new Identifier(name, keys.intern(folded));
+    }
+    
+    /**
+     * @return the name as given
+     */
+    String getName(){
+        return name;
+    }
+    
+    /**
+     * @return the name folded to the stored case
+     */
+    String getKey(){
+        return key;
+    }
+    
+    @Override
+    public boolean equals(Object obj){
+        
+        if (this == obj){
+            return true;
+        }
+        if (!(obj instanceof Identifier)){
+            return false;
+        }
+        //keys are interned
+        return key == ((Identifier) obj).key;
+    }
+    
+    @Override
+    public int hashCode(){
+        return hash;
+    }
+    
+    @Override
+    public String toString(){
+        return name;
+    }
+}
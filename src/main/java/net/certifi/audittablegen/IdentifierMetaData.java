@@ -18,6 +18,11 @@
 
 package net.certifi.audittablegen;
 
+import com.google.common.collect.MapMaker;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+
 /**
  *
  * @author Glenn Sacks
@@ -27,6 +32,13 @@ public class IdentifierMetaData {
     private Boolean storesLowerCaseIds = true; //default
     private Boolean storesMixedCaseIds = false;
     private Boolean storesUpperCaseIds = false;
+    private String quoteString = "\""; //null if names can not be quoted
+    
+    //identifiers by name, kept while in use so lookups of the same name
+    //share one instance
+    private final ConcurrentMap<String, Identifier> identifiers = new MapMaker().weakValues().makeMap();
+    
+    private static final Pattern plainName = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*");
     
     public Boolean getStoresLowerCaseIds() {
         return storesLowerCaseIds;
@@ -38,6 +50,7 @@ public class IdentifierMetaData {
             this.storesUpperCaseIds = false;
             this.storesMixedCaseIds = false;
         }
+        identifiers.clear();
     }
 
     public Boolean getStoresMixedCaseIds() {
@@ -50,6 +63,7 @@ public class IdentifierMetaData {
             this.storesLowerCaseIds = false;
             this.storesUpperCaseIds = false;
         }
+        identifiers.clear();
     }
 
     public Boolean getStoresUpperCaseIds() {
@@ -62,7 +76,95 @@ public class IdentifierMetaData {
             this.storesLowerCaseIds = false;
             this.storesMixedCaseIds = false;
         }
+        identifiers.clear();
+    }
+
+    public String getQuoteString() {
+        return quoteString;
+    }
+
+    /**
+     * @param quoteString string quoting identifiers, as from
+     * DatabaseMetaData.getIdentifierQuoteString.  Null or a space if the
+     * database does not support quoting.
+     */
+    void setQuoteString(String quoteString) {
+        this.quoteString = quoteString == null || quoteString.trim().isEmpty() ? null : quoteString;
+    }
+    
+    /**
+     * Get the identifier for a table or column name.  Its key is folded to
+     * upper case if the database stores unquoted identifiers in upper case,
+     * and to lower case otherwise.
+     * 
+     * @param name
+     * @return Identifier for the name.  The same instance is returned for
+     * the same name while it is in use.
+     */
+    Identifier getIdentifier (String name){
+        
+        Identifier identifier = identifiers.get(name);
+        if (identifier == null){
+            identifier = Identifier.of(name, storesUpperCaseIds);
+            Identifier existing = identifiers.putIfAbsent(name, identifier);
+            if (existing != null){
+                identifier = existing;
+            }
+        }
+        return identifier;
     }
+    
+    /**
+     * A name needs quotes if it is not a plain identifier, or if the
+     * database would fold it to another case when unquoted.
+     * 
+     * @param name table, column or schema name
+     * @return True if the name has to be quoted to be found as it is.
+     */
+    boolean needsQuotes (String name){
+        
+        if (!plainName.matcher(name).matches()){
+            return true;
+        }
+        if (storesUpperCaseIds){
+            return !name.equals(name.toUpperCase(Locale.ROOT));
+        }
+        if (storesLowerCaseIds){
+            return !name.equals(name.toLowerCase(Locale.ROOT));
+        }
+        return false;
+    }
+    
+    /**
+     * @param name table, column or schema name
+     * @return the name quoted if it needs quotes and the database supports
+     * them, otherwise the name as it is.
+     */
+    String quote (String name){
+        
+        if (quoteString == null || !needsQuotes(name)){
+            return name;
+        }
+        return quoteString + name.replace(quoteString, quoteString + quoteString) + quoteString;
+    }
+    
+    /**
+     * Get the name in the case the database stores unquoted identifiers in.
+     * Looking this up in the metadata first usually saves a lookup of the
+     * other cases.
+     * 
+     * @param name
+     * @return name in the stored case, or as given if the database stores
+     * identifiers in mixed case.
+     */
+    String getStoredName (String name){
+        
+        if (storesMixedCaseIds){
+            return name;
+        }
+        return getIdentifier(name).getKey();
+    }
+    
     /**
      * This method does not do anything anymore.
      * It returns the same string passed into the parameter.
@@ -0,0 +1,127 @@
+/*    Copyright 2014 Certifi Inc.
+ *
+ *    This file is part of AuditTableGen.
+ *
+ *        AuditTableGen is free software: you can redistribute it and/or modify
+ *        it under the terms of the GNU General Public License as published by
+ *        the Free Software Foundation, either version 3 of the License, or
+ *        (at your option) any later version.
+ *
+ *        AuditTableGen is distributed in the hope that it will be useful,
+ *        but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *        GNU General Public License for more details.
+ *
+ *        You should have received a copy of the GNU General Public License
+ *        along with AuditTableGen.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.certifi.audittablegen;
+
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * How changes are applied without queuing behind long transactions on busy
+ * tables.  Each session sets a timeout on the locks, and optionally on
+ * the statements, it waits for.  A table whose statements fail only
+ * because of such a timeout is retried after a jittered, growing delay,
+ * until maxAttempts or the retry budget of the run is used up.  It is then
+ * deferred to the end of the run and tried once more.
+ * 
+ * The statements that set the timeouts depend on the database, see
+ * GenericDMR.getLockRetryPolicy.
+ */
+class LockRetryPolicy {
+    
+    //lock_not_available, query_canceled, deadlock_detected
+    static final Set<String> lockStates = new HashSet<>(Arrays.asList("55P03", "57014", "40P01"));
+    
+    List<String> sessionSQL = new ArrayList<>(); //run when a session is opened
+    int queryTimeout = 0; //seconds, for drivers without timeout statements. 0 for none
+    int maxAttempts = 5; //attempts of a table before it is deferred
+    long baseDelay = 500; //ms before the first retry
+    long maxDelay = 30000; //ms, limit on the delay before one retry
+    final AtomicLong budget; //ms of retry delay left for the run
+    final Random random = new Random();
+    
+    /**
+     * 
+     * @param budget total ms the run may spend waiting to retry tables
+     */
+    LockRetryPolicy(long budget){
+        
+        this.budget = new AtomicLong(budget);
+    }
+    
+    /**
+     * @param e
+     * @return true if e, or its cause, is a lock or statement timeout.
+     */
+    static boolean isLockTimeout(Throwable e){
+        
+        for (; e != null; e = e.getCause()){
+            if (e instanceof SQLTimeoutException){
+                return true;
+            }
+            if (e instanceof SQLException && lockStates.contains(((SQLException) e).getSQLState())){
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * @param results results of the statements for a table
+     * @return true if statements failed, and all of them only because of a
+     * lock or statement timeout.
+     */
+    static boolean isLockTimeout(List<ExecutionSession.Result> results){
+        
+        boolean failed = false;
+        for (ExecutionSession.Result result : results){
+            if (result.isFailed()){
+                if (!isLockTimeout(result.error)){
+                    return false;
+                }
+                failed = true;
+            }
+        }
+        return failed;
+    }
+    
+    /**
+     * Wait before retrying a table.
+     * 
+     * @param attempt number of attempts of the table so far
+     * @return false, without waiting, if the table should not be retried
+     * again.
+     */
+    boolean backoff(int attempt){
+        
+        if (attempt >= maxAttempts){
+            return false;
+        }
+        
+        long delay = Math.min(maxDelay, baseDelay << Math.min(attempt - 1, 20));
+        delay = delay / 2 + (long) (random.nextDouble() * (delay / 2));
+        if (budget.addAndGet(-delay) < 0){
+            return false;
+        }
+        
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        return true;
+    }
+}
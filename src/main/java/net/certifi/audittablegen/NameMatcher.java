@@ -0,0 +1,268 @@
+/*    Copyright 2014 Certifi Inc.
+ *
+ *    This file is part of AuditTableGen.
+ *
+ *        AuditTableGen is free software: you can redistribute it and/or modify
+ *        it under the terms of the GNU General Public License as published by
+ *        the Free Software Foundation, either version 3 of the License, or
+ *        (at your option) any later version.
+ *
+ *        AuditTableGen is distributed in the hope that it will be useful,
+ *        but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *        GNU General Public License for more details.
+ *
+ *        You should have received a copy of the GNU General Public License
+ *        along with AuditTableGen.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.certifi.audittablegen;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A set of name patterns compiled once, which tells whether a name matches
+ * any of them.  Matching is not case sensitive and is against the whole name.
+ * <p>
+ * A pattern may be:
+ * <ul>
+ * <li>empty or "*", which matches every name</li>
+ * <li>a plain name, matched exactly</li>
+ * <li>a glob using '*' for any characters and '?' for one character</li>
+ * <li>a regular expression, when it starts with "re:"</li>
+ * </ul>
+ * Apart from '*' and '?', every character of a name or glob is literal, so
+ * names holding characters like '.' or '$' match only themselves.
+ * Plain names and globs with only a trailing '*' are kept in a prefix trie,
+ * so they are decided in one walk of the name.  All other patterns are
+ * joined into a single regular expression.
+ */
+public class NameMatcher {
+    private static final Logger logger = LoggerFactory.getLogger(NameMatcher.class);
+    
+    static final String REGEX_PREFIX = "re:";
+    
+    boolean matchAll;
+    TrieNode root = new TrieNode();
+    List<String> expressions = new ArrayList<>();
+    Pattern combined;
+    
+    NameMatcher(){
+    }
+    
+    /**
+     * Get a matcher for a single pattern.
+     * 
+     * @param pattern
+     * @return NameMatcher for the pattern.
+     */
+    static NameMatcher of(String pattern){
+        
+        NameMatcher matcher = new NameMatcher();
+        matcher.add(pattern);
+        return matcher;
+    }
+    
+    /**
+     * Check that a pattern is valid, before it is used.
+     * 
+     * @param pattern
+     * @throws IllegalArgumentException if the pattern is not valid.
+     */
+    static void validate(String pattern){
+        
+        if (pattern != null && isRegex(pattern)){
+            getExpression(pattern);
+        }
+    }
+    
+    /**
+     * Add a pattern to the set.
+     * 
+     * @param pattern 
+     * @throws IllegalArgumentException if the pattern is a regular
+     * expression which is empty or does not compile.
+     */
+    void add(String pattern){
+        
+        if (pattern == null || pattern.isEmpty() || pattern.equals("*")){
+            matchAll = true;
+            return;
+        }
+        
+        if (isRegex(pattern)){
+            expressions.add(getExpression(pattern));
+        }
+        else {
+            int wildcard = firstWildcard(pattern);
+            if (wildcard < 0){
+                root.insert(pattern).exact = true;
+            }
+            else if (wildcard == pattern.length() - 1 && pattern.charAt(wildcard) == '*'){
+                root.insert(pattern.substring(0, wildcard)).prefix = true;
+            }
+            else {
+                expressions.add(globToRegex(pattern));
+            }
+        }
+        
+        combined = null;
+    }
+    
+    /**
+     * @param name
+     * @return True if the name matches any pattern in the set.
+     */
+    boolean matches(String name){
+        
+        if (matchAll){
+            return true;
+        }
+        if (name == null){
+            return false;
+        }
+        
+        TrieNode node = root;
+        for (int i = 0; node != null; i++){
+            if (node.prefix){
+                return true;
+            }
+            if (i == name.length()){
+                if (node.exact){
+                    return true;
+                }
+                break;
+            }
+            node = node.children.get(Character.toLowerCase(name.charAt(i)));
+        }
+        
+        Pattern pattern = getCombined();
+        return pattern != null && pattern.matcher(name).matches();
+    }
+    
+    /**
+     * @return True if no pattern has been added.
+     */
+    boolean isEmpty(){
+        
+        return !matchAll && root.children.isEmpty() && !root.exact && !root.prefix
+                && expressions.isEmpty();
+    }
+    
+    /**
+     * @return True if the pattern only holds plain name characters, so it
+     * matches a single name.
+     */
+    static boolean isExact(String pattern){
+        
+        return pattern != null && !pattern.isEmpty()
+                && !isRegex(pattern) && firstWildcard(pattern) < 0;
+    }
+    
+    static boolean isRegex(String pattern){
+        
+        return pattern.startsWith(REGEX_PREFIX);
+    }
+    
+    /**
+     * @param pattern a regular expression pattern, with its prefix
+     * @return the regular expression.
+     * @throws IllegalArgumentException if the expression is empty or does
+     * not compile.
+     */
+    static String getExpression(String pattern){
+        
+        String expression = pattern.substring(REGEX_PREFIX.length());
+        if (expression.isEmpty()){
+            throw new IllegalArgumentException("Empty regular expression in pattern: " + pattern);
+        }
+        try {
+            Pattern.compile(expression);
+        } catch (PatternSyntaxException e){
+            throw new IllegalArgumentException("Invalid regular expression in pattern: " + pattern, e);
+        }
+        return expression;
+    }
+    
+    static int firstWildcard(String pattern){
+        
+        for (int i = 0; i < pattern.length(); i++){
+            char c = pattern.charAt(i);
+            if (c == '*' || c == '?'){
+                return i;
+            }
+        }
+        return -1;
+    }
+    
+    static String globToRegex(String glob){
+        
+        StringBuilder builder = new StringBuilder();
+        StringBuilder literal = new StringBuilder();
+        
+        for (int i = 0; i < glob.length(); i++){
+            char c = glob.charAt(i);
+            if (c == '*' || c == '?'){
+                if (literal.length() > 0){
+                    builder.append(Pattern.quote(literal.toString()));
+                    literal.setLength(0);
+                }
+                builder.append(c == '*' ? ".*" : ".");
+            }
+            else {
+                literal.append(c);
+            }
+        }
+        if (literal.length() > 0){
+            builder.append(Pattern.quote(literal.toString()));
+        }
+        
+        return builder.toString();
+    }
+    
+    synchronized Pattern getCombined(){
+        
+        if (combined == null && !expressions.isEmpty()){
+            StringBuilder builder = new StringBuilder();
+            for (String expression : expressions){
+                if (builder.length() > 0){
+                    builder.append('|');
+                }
+                builder.append("(?:").append(expression).append(')');
+            }
+            combined = Pattern.compile(builder.toString(),
+                    Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
+        }
+        
+        return combined;
+    }
+    
+    static class TrieNode {
+        
+        Map<Character, TrieNode> children = new HashMap<>();
+        boolean exact;  //a plain name ends here
+        boolean prefix; //a glob prefix ends here
+        
+        TrieNode insert(String key){
+            
+            TrieNode node = this;
+            for (int i = 0; i < key.length(); i++){
+                Character c = Character.toLowerCase(key.charAt(i));
+                TrieNode child = node.children.get(c);
+                if (child == null){
+                    child = new TrieNode();
+                    node.children.put(c, child);
+                }
+                node = child;
+            }
+            return node;
+        }
+    }
+}
@@ -0,0 +1,355 @@
+/*    Copyright 2014 Certifi Inc.
+ *
+ *    This file is part of AuditTableGen.
+ *
+ *        AuditTableGen is free software: you can redistribute it and/or modify
+ *        it under the terms of the GNU General Public License as published by
+ *        the Free Software Foundation, either version 3 of the License, or
+ *        (at your option) any later version.
+ *
+ *        AuditTableGen is distributed in the hope that it will be useful,
+ *        but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *        GNU General Public License for more details.
+ *
+ *        You should have received a copy of the GNU General Public License
+ *        along with AuditTableGen.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.certifi.audittablegen;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Throwables;
+import com.google.common.hash.Hashing;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * A change plan rendered to SQL and saved to file, so it can be made in
+ * one run and applied in a later one without reading the schema again.
+ * The fingerprint of every table the plan touches is saved with it, as
+ * returned by DataSourceDMR.getTableFingerprints().  The plan is only
+ * applied if those tables are still the same.
+ *
+ * The file is plain text, one tab separated record per line:
+ * <pre>
+ * schema  &lt;schema name, or empty&gt;
+ * table   &lt;name&gt; &lt;fingerprint, or empty if the table did not exist&gt;
+ * sql     &lt;change type&gt; &lt;table name&gt; &lt;audit table name&gt; &lt;escaped SQL&gt;
+ * </pre>
+ * In the SQL, backslash, tab, carriage return and new line are escaped
+ * as \\, \t, \r and \n.
+ * 
+ * Version 1 plans have no audit table name in the sql records, and are
+ * still read.
+ * 
+ * A plan being made can hold its statements in a SpillFile instead of the
+ * heap, see spillTo.
+ */
+public class PlanFile implements ChangeSink {
+    
+    static final String header = "#AuditTableGen change plan 2";
+    static final String headerVersion1 = "#AuditTableGen change plan 1";
+    
+    String schema = "";
+    Set<String> tableNames = new LinkedHashSet<>();
+    Map<String, String> fingerprints = new LinkedHashMap<>();
+    List<String> changeTypes = new ArrayList<>();
+    List<String> statementTables = new ArrayList<>();
+    List<String> statementAuditTables = new ArrayList<>();
+    List<String> statements = new ArrayList<>();
+    SpillFile spill; //statements, if they are spilled
+    String hash; //of the file the plan was loaded from
+    
+    PlanFile(){
+    }
+    
+    PlanFile(String schema){
+        this.schema = schema == null ? "" : schema;
+    }
+    
+    /**
+     * Add the SQL for an operation.  The tables named are recorded so their
+     * fingerprints can be saved with the plan.
+     * 
+     * @param changeType change type of the operation
+     * @param tableName table the operation changes
+     * @param auditTableName audit table of the operation, or empty
+     * @param sql 
+     */
+    @Override
+    public void addStatement(DBChangeType changeType, String tableName, String auditTableName, String sql){
+        
+        if (spill != null){
+            try {
+                spill.append(changeType.name(), tableName, auditTableName, sql);
+            } catch (IOException e) {
+                throw Throwables.propagate(e);
+            }
+        }
+        else {
+            changeTypes.add(changeType.name());
+            statementTables.add(tableName);
+            statementAuditTables.add(auditTableName == null ? "" : auditTableName);
+            statements.add(sql);
+        }
+        tableNames.add(tableName);
+        if (auditTableName != null && !auditTableName.isEmpty()){
+            tableNames.add(auditTableName);
+        }
+    }
+    
+    /**
+     * Hold the statements added from now on in a SpillFile in dir instead
+     * of in memory.  The file is deleted by close().
+     * 
+     * @param dir
+     * @throws IOException if the spill file can not be created.
+     */
+    void spillTo(File dir) throws IOException {
+        
+        spill = SpillFile.create(dir);
+    }
+    
+    /**
+     * @return the number of statements in the plan.
+     */
+    int getStatementCount(){
+        
+        return statements.size() + (spill == null ? 0 : spill.size());
+    }
+    
+    /**
+     * Delete the spill file, if there is one.
+     */
+    void close(){
+        
+        if (spill != null){
+            spill.close();
+            spill = null;
+        }
+    }
+    
+    /**
+     * Record the fingerprints of the tables named by the statements.
+     * 
+     * @param current fingerprints of all tables in the schema
+     */
+    void setFingerprints(Map<String, String> current){
+        
+        Map<String, String> lookup = CaseInsensitiveMaps.newMap(current);
+        fingerprints.clear();
+        for (String tableName : tableNames){
+            String fingerprint = lookup.get(tableName);
+            fingerprints.put(tableName, fingerprint == null ? "" : fingerprint);
+        }
+    }
+    
+    /**
+     * Compare current fingerprints to the ones saved with the plan.
+     * 
+     * @param current fingerprints of all tables in the schema
+     * @return names of the tables that changed, were added or were
+     * dropped since the plan was made.
+     */
+    List<String> getDrift(Map<String, String> current){
+        
+        Map<String, String> lookup = CaseInsensitiveMaps.newMap(current);
+        List<String> drift = new ArrayList<>();
+        
+        for (Map.Entry<String, String> entry : fingerprints.entrySet()){
+            String fingerprint = lookup.get(entry.getKey());
+            if (!entry.getValue().equals(fingerprint == null ? "" : fingerprint)){
+                drift.add(entry.getKey());
+            }
+        }
+        
+        return drift;
+    }
+    
+    /**
+     * Get the tables of the statement groups that a journal records as
+     * applied.  Statements are grouped by audit table as DataSourceDMR.
+     * executeStatements groups them, and a group is applied if the
+     * journal holds the hash of its statements.
+     * 
+     * @param journal
+     * @return names of the tables and audit tables of the applied groups.
+     */
+    Set<String> getAppliedTables(ApplyJournal journal){
+        
+        Set<String> applied = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+        int start = 0;
+        
+        for (int i = 1; i <= statements.size(); i++){
+            if (i < statements.size() && getBatchTable(i).equals(getBatchTable(start))){
+                continue;
+            }
+            if (journal.isCompleted(ApplyJournal.hash(statements.subList(start, i)))){
+                for (int j = start; j < i; j++){
+                    applied.add(statementTables.get(j));
+                    if (!statementAuditTables.get(j).isEmpty()){
+                        applied.add(statementAuditTables.get(j));
+                    }
+                }
+            }
+            start = i;
+        }
+        
+        return applied;
+    }
+    
+    /**
+     * @param i index of a statement
+     * @return the table the statement is grouped by when it is applied.
+     */
+    String getBatchTable(int i){
+        
+        return GenericDMR.getBatchTable(statementTables.get(i), statementAuditTables.get(i));
+    }
+    
+    /**
+     * Load a plan from file.
+     * 
+     * @param file
+     * @return The plan.
+     * @throws IOException if the file can not be read or is not a plan.
+     */
+    static PlanFile load(File file) throws IOException {
+        
+        PlanFile plan = new PlanFile();
+        
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), Charsets.UTF_8)){
+            
+            String line = reader.readLine();
+            boolean version1 = headerVersion1.equals(line);
+            if (!header.equals(line) && !version1){
+                throw new IOException("Not a change plan: " + file);
+            }
+            
+            while ((line = reader.readLine()) != null){
+                String[] fields = line.split("\t", -1);
+                switch (fields[0]) {
+                    case "schema":
+                        plan.schema = fields[1];
+                        break;
+                    case "table":
+                        plan.tableNames.add(fields[1]);
+                        plan.fingerprints.put(fields[1], fields[2]);
+                        break;
+                    case "sql":
+                        plan.changeTypes.add(fields[1]);
+                        plan.statementTables.add(fields[2]);
+                        plan.statementAuditTables.add(version1 ? "" : fields[3]);
+                        plan.statements.add(unescape(fields[version1 ? 3 : 4]));
+                        break;
+                    default:
+                        break;
+                }
+            }
+        } catch (RuntimeException e) {
+            throw new IOException("Invalid change plan: " + file, e);
+        }
+        
+        plan.hash = com.google.common.io.Files.hash(file, Hashing.sha1()).toString();
+        
+        return plan;
+    }
+    
+    /**
+     * Write the plan to file, through a temporary file like SchemaSnapshot.
+     * 
+     * @param file
+     * @throws IOException 
+     */
+    void save(File file) throws IOException {
+        
+        File dir = file.getAbsoluteFile().getParentFile();
+        File temp = File.createTempFile(file.getName(), ".tmp", dir);
+        
+        try (BufferedWriter writer = Files.newBufferedWriter(temp.toPath(), Charsets.UTF_8)){
+            writer.write(header);
+            writer.newLine();
+            writer.write("schema\t" + schema);
+            writer.newLine();
+            for (Map.Entry<String, String> entry : fingerprints.entrySet()){
+                writer.write("table\t" + entry.getKey() + "\t" + entry.getValue());
+                writer.newLine();
+            }
+            for (int i = 0; i < statements.size(); i++){
+                writer.write("sql\t" + changeTypes.get(i) + "\t" + statementTables.get(i)
+                        + "\t" + statementAuditTables.get(i) + "\t" + escape(statements.get(i)));
+                writer.newLine();
+            }
+            if (spill != null){
+                for (String[] record : spill){
+                    writer.write("sql\t" + record[0] + "\t" + record[1] + "\t"
+                            + (record[2] == null ? "" : record[2]) + "\t" + escape(record[3]));
+                    writer.newLine();
+                }
+            }
+        }
+        
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+    
+    static String escape(String value){
+        
+        StringBuilder builder = new StringBuilder(value.length() + 16);
+        for (int i = 0; i < value.length(); i++){
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\':
+                    builder.append("\\\\");
+                    break;
+                case '\t':
+                    builder.append("\\t");
+                    break;
+                case '\r':
+                    builder.append("\\r");
+                    break;
+                case '\n':
+                    builder.append("\\n");
+                    break;
+                default:
+                    builder.append(c);
+                    break;
+            }
+        }
+        return builder.toString();
+    }
+    
+    static String unescape(String value){
+        
+        StringBuilder builder = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++){
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < value.length()){
+                i++;
+                switch (value.charAt(i)) {
+                    case 't':
+                        builder.append('\t');
+                        break;
+                    case 'r':
+                        builder.append('\r');
+                        break;
+                    case 'n':
+                        builder.append('\n');
+                        break;
+                    default:
+                        builder.append(value.charAt(i));
+                        break;
+                }
+            }
+            else {
+                builder.append(c);
+            }
+        }
+        return builder.toString();
+    }
+}
@@ -21,11 +21,13 @@ package net.certifi.audittablegen;
 import com.google.common.base.Throwables;
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import javax.sql.DataSource;
-import org.apache.commons.collections.map.CaseInsensitiveMap;
 import org.apache.commons.dbcp.BasicDataSource;
 import org.postgresql.ds.PGPoolingDataSource;
 import org.slf4j.LoggerFactory;
@@ -101,72 +103,497 @@ public class PostgresqlDMR extends GenericDMR {
     }
     
     /**
-     * Get List of ColumnDef objects for all tables
-     * in the targeted database/schema.  Postgres specific code replaces 
-     * 'serial' date type with integer, because the column in the audit table
-     * must be of type integer and not serial.  Since this data is interpreted
-     * by ChangeSourceFactory, which should be database independent, the
-     * translation needs to be in the DMR.
+     * Get the names of all tables in the targeted schema from pg_class.
+     * 
+     * @return List of table names, or null if they cannot be read.
+     */
+    @Override
+    public List<String> getTableNames (){
+        
+        StringBuilder builder = new StringBuilder();
+        builder.append("SELECT c.relname AS table_name").append(System.lineSeparator());
+        builder.append("FROM pg_catalog.pg_class c").append(System.lineSeparator());
+        builder.append("JOIN pg_catalog.pg_namespace n ON n.oid = c.relnamespace").append(System.lineSeparator());
+        builder.append("WHERE c.relkind = 'r'").append(System.lineSeparator());
+        builder.append(getSchemaCondition()).append(System.lineSeparator());
+        builder.append("ORDER BY c.relname");
+        
+        List<String> tableNames = new ArrayList<>();
+        
+        try (Connection conn = dataSource.getConnection()){
+            
+            PreparedStatement stmt = conn.prepareStatement(builder.toString());
+            if (verifiedSchema != null){
+                stmt.setString(1, verifiedSchema);
+            }
+            ResultSet rs = stmt.executeQuery();
+            
+            while (rs.next()){
+                tableNames.add(rs.getString("table_name"));
+            }
+            
+            rs.close();
+            stmt.close();
+            
+        } catch (SQLException e){
+            logger.error("SQL error retrieving table list: ", e);
+            return null;
+        }
+        
+        return tableNames;
+    }
+    
+    /**
+     * Load the columns for all of the tables in the list with one query
+     * against pg_catalog, instead of the generic DatabaseMetaData.getColumns
+     * query of the driver.  The query takes the table names as an array, so
+     * a window of tables reads only its own rows.  The same query reports
+     * whether each table has an audit trigger.
+     * 
+     * @param tables TableDef objects to populate
+     * @throws SQLException 
+     */
+    @Override
+    void loadColumnsBulk (List<TableDef> tables) throws SQLException {
+        
+        if (tables.isEmpty()){
+            return;
+        }
+        
+        //getDataTypes will initialize the map if it isn't already loaded
+        Map<String, DataTypeDef> dtds = getDataTypes();
+        
+        Map<String, TableDef> tableMap = new HashMap<>();
+        for (TableDef tableDef : tables){
+            tableMap.put(tableDef.getName(), tableDef);
+        }
+        
+        try (Connection conn = dataSource.getConnection()){
+            
+            PreparedStatement stmt = conn.prepareStatement(getColumnsSQL(false));
+            int i = 1;
+            if (verifiedSchema != null){
+                stmt.setString(i++, verifiedSchema);
+            }
+            stmt.setArray(i, conn.createArrayOf("text", tableMap.keySet().toArray()));
+            ResultSet rs = stmt.executeQuery();
+            SourceMetaLayout layout = SourceMetaLayout.of(rs.getMetaData());
+            String currentName = null;
+            TableDef current = null;
+            
+            while (rs.next()){
+                String tableName = rs.getString("table_name");
+                if (!tableName.equals(currentName)){
+                    currentName = tableName;
+                    current = tableMap.get(tableName);
+                    if (current != null){
+                        current.setAuditTrigger(rs.getBoolean("audit_trigger"));
+                    }
+                }
+                if (current != null){
+                    current.addColumn(getColumnDef(rs, layout, dtds));
+                }
+            }
+            
+            rs.close();
+            stmt.close();
+        }
+    }
+    
+    /**
+     * Get List of ColumnDef objects for one table, read from pg_catalog.
+     * Uses the same query as loadColumnsBulk, so column sizes match
+     * whichever way a table was read.
      * 
      * @param tableName
-     * @return ArrayList of ColumnDef objects or an empty list if none are found.
+     * @return ArrayList of ColumnDef objects
      */
     @Override
-    public List getColumns (String tableName){
+    public List<ColumnDef> getColumns (String tableName){
         
         //getDataTypes will initialize the map if it isn't already loaded
         Map<String, DataTypeDef> dtds = getDataTypes();
         
-        List columns = new ArrayList<>();
+        List<ColumnDef> columns = new ArrayList<>();
         
-        try {
-            Connection conn = dataSource.getConnection();
-            DatabaseMetaData dmd = conn.getMetaData();
-            ResultSet rs = dmd.getColumns(null, verifiedSchema, tableName, null);
+        try (Connection conn = dataSource.getConnection()){
             
-            //load all of the metadata in the result set into a map for each column
+            PreparedStatement stmt = conn.prepareStatement(getColumnsSQL(true));
+            int i = 1;
+            if (verifiedSchema != null){
+                stmt.setString(i++, verifiedSchema);
+            }
+            stmt.setString(i, tableName);
+            ResultSet rs = stmt.executeQuery();
+            SourceMetaLayout layout = SourceMetaLayout.of(rs.getMetaData());
             
-            ResultSetMetaData rsmd = rs.getMetaData();
-            int metaDataColumnCount = rsmd.getColumnCount();
             if (! rs.isBeforeFirst()) {
-                throw new RuntimeException("No results for DatabaseMetaData.getColumns(" + verifiedSchema + "." + tableName + ")");
+                throw new RuntimeException("No columns found in pg_catalog for " + verifiedSchema + "." + tableName);
             }
             while (rs.next()){
-                ColumnDef columnDef = new ColumnDef();
-                Map columnMetaData = new CaseInsensitiveMap();
-                for (int i = 1; i <= metaDataColumnCount; i++){
-                    columnMetaData.put(rsmd.getColumnName(i), rs.getString(i));
-                }
-                columnDef.setName(rs.getString("COLUMN_NAME"));
-                
-                String type_name = rs.getString("TYPE_NAME");
-                if ( type_name.equalsIgnoreCase("serial")){
-                    columnDef.setTypeName("int4");
-                }
-                else {
-                    columnDef.setTypeName(type_name);
-                }
-                columnDef.setSqlType(rs.getInt("DATA_TYPE"));
-                columnDef.setSize(rs.getInt("COLUMN_SIZE"));
-                columnDef.setDecimalSize(rs.getInt("DECIMAL_DIGITS"));
-                columnDef.setSourceMeta(columnMetaData);
-                
-                if (dtds.containsKey(columnDef.getTypeName())){
-                    columnDef.setDataTypeDef(dtds.get(columnDef.getTypeName()));
-                }
-                else {
-                    throw new RuntimeException("Missing DATA_TYPE definition for data type " + columnDef.getTypeName());
-                }                
-                columns.add(columnDef);
+                columns.add(getColumnDef(rs, layout, dtds));
             }
             
+            rs.close();
+            stmt.close();
         }
         catch (SQLException e) {
             throw Throwables.propagate(e);
         }
         
         return columns;
+    }
+    
+    String getColumnsSQL(boolean singleTable){
+        
+        StringBuilder builder = new StringBuilder();
+        builder.append("SELECT c.relname AS table_name, a.attname AS column_name,").append(System.lineSeparator());
+        builder.append("    t.typname AS type_name, a.atttypmod AS type_mod, a.attnum AS ordinal_position,").append(System.lineSeparator());
+        builder.append("    EXISTS (SELECT 1 FROM pg_catalog.pg_trigger tg").append(System.lineSeparator());
+        builder.append("        WHERE tg.tgrelid = c.oid AND tg.tgname = c.relname || '_audit') AS audit_trigger").append(System.lineSeparator());
+        builder.append("FROM pg_catalog.pg_class c").append(System.lineSeparator());
+        builder.append("JOIN pg_catalog.pg_namespace n ON n.oid = c.relnamespace").append(System.lineSeparator());
+        builder.append("JOIN pg_catalog.pg_attribute a ON a.attrelid = c.oid AND a.attnum > 0 AND NOT a.attisdropped").append(System.lineSeparator());
+        builder.append("JOIN pg_catalog.pg_type t ON t.oid = a.atttypid").append(System.lineSeparator());
+        builder.append("WHERE c.relkind = 'r'").append(System.lineSeparator());
+        builder.append(getSchemaCondition()).append(System.lineSeparator());
+        if (singleTable){
+            builder.append("AND c.relname = ?").append(System.lineSeparator());
+        }
+        else {
+            builder.append("AND c.relname = ANY(?)").append(System.lineSeparator());
+        }
+        builder.append("ORDER BY c.relname, a.attnum");
+        
+        return builder.toString();
+    }
+    
+    /**
+     * @return condition limiting pg_namespace n to the targeted schema.  It
+     * takes the schema name as a parameter if a schema is set.
+     */
+    String getSchemaCondition(){
+        
+        if (verifiedSchema != null){
+            return "AND n.nspname = ?";
+        }
+        else {
+            return "AND pg_catalog.pg_table_is_visible(c.oid)";
+        }
+    }
+    
+    /**
+     * Get a fingerprint of the installed audit trigger on each of the
+     * tables, from pg_trigger and the source of its function in pg_proc.
+     * The table names are passed as an array, so a batch reads only the
+     * function sources of its own tables.
+     * 
+     * @param tableNames tables to look up
+     * @return Map of table name to trigger fingerprint, or null if the
+     * triggers cannot be read.
+     */
+    @Override
+    Map<String, String> getTriggerFingerprints(Collection<String> tableNames){
+        
+        StringBuilder builder = new StringBuilder();
+        builder.append("SELECT c.relname, p.proname, t.tgtype, t.tgenabled, p.prosrc").append(System.lineSeparator());
+        builder.append("FROM pg_catalog.pg_trigger t").append(System.lineSeparator());
+        builder.append("JOIN pg_catalog.pg_class c ON c.oid = t.tgrelid").append(System.lineSeparator());
+        builder.append("JOIN pg_catalog.pg_namespace n ON n.oid = c.relnamespace").append(System.lineSeparator());
+        builder.append("JOIN pg_catalog.pg_proc p ON p.oid = t.tgfoid").append(System.lineSeparator());
+        builder.append("WHERE c.relkind = 'r'").append(System.lineSeparator());
+        builder.append("AND t.tgname = c.relname || '_audit'").append(System.lineSeparator());
+        builder.append("AND c.relname = ANY(?)").append(System.lineSeparator());
+        builder.append(getSchemaCondition());
+        
+        Map<String, String> fingerprints = new HashMap<>();
+        
+        try (Connection conn = dataSource.getConnection()){
+            
+            PreparedStatement stmt = conn.prepareStatement(builder.toString());
+            stmt.setArray(1, conn.createArrayOf("text", tableNames.toArray()));
+            if (verifiedSchema != null){
+                stmt.setString(2, verifiedSchema);
+            }
+            ResultSet rs = stmt.executeQuery();
+            
+            while (rs.next()){
+                fingerprints.put(rs.getString("relname"),
+                        getTriggerFingerprint(rs.getString("proname"), rs.getInt("tgtype"),
+                                rs.getString("tgenabled"), rs.getString("prosrc")));
+            }
+            
+            rs.close();
+            stmt.close();
+            
+        } catch (SQLException e){
+            logger.error("SQL error retrieving audit triggers: ", e);
+            return null;
+        }
+        
+        return fingerprints;
+    }
+    
+    /**
+     * Find schemas matching name, ignoring case, with a single lookup
+     * against pg_namespace.
+     * 
+     * @param name
+     * @return matching schema names, as stored in the database.
+     * @throws SQLException 
+     */
+    @Override
+    List<String> findSchemas (String name) throws SQLException {
+        
+        String query = "SELECT n.nspname FROM pg_catalog.pg_namespace n WHERE lower(n.nspname) = lower(?)";
+        List<String> schemas = new ArrayList<>();
+        
+        try (Connection conn = dataSource.getConnection()){
+            
+            PreparedStatement stmt = conn.prepareStatement(query);
+            stmt.setString(1, name);
+            ResultSet rs = stmt.executeQuery();
+            
+            while (rs.next()){
+                schemas.add(rs.getString("nspname"));
+            }
+            
+            rs.close();
+            stmt.close();
+        }
+        
+        return schemas;
+    }
+    
+    /**
+     * Find tables in the targeted schema matching name, ignoring case, with
+     * a single lookup against pg_class.
+     * 
+     * @param name
+     * @return matching tables, as schema.name for each table found.
+     * @throws SQLException 
+     */
+    @Override
+    List<String> findTables (String name) throws SQLException {
+        
+        StringBuilder builder = new StringBuilder();
+        builder.append("SELECT n.nspname, c.relname").append(System.lineSeparator());
+        builder.append("FROM pg_catalog.pg_class c").append(System.lineSeparator());
+        builder.append("JOIN pg_catalog.pg_namespace n ON n.oid = c.relnamespace").append(System.lineSeparator());
+        builder.append("WHERE c.relkind = 'r'").append(System.lineSeparator());
+        builder.append(getSchemaCondition()).append(System.lineSeparator());
+        builder.append("AND lower(c.relname) = lower(?)");
+        
+        List<String> tables = new ArrayList<>();
+        
+        try (Connection conn = dataSource.getConnection()){
+            
+            PreparedStatement stmt = conn.prepareStatement(builder.toString());
+            int index = 1;
+            if (verifiedSchema != null){
+                stmt.setString(index++, verifiedSchema);
+            }
+            stmt.setString(index, name);
+            ResultSet rs = stmt.executeQuery();
+            
+            while (rs.next()){
+                tables.add(rs.getString("nspname") + "." + rs.getString("relname"));
+            }
+            
+            rs.close();
+            stmt.close();
+        }
+        
+        return tables;
+    }
+    
+    /**
+     * Build a ColumnDef from the current row of the pg_catalog columns query.
+     * Sizes are decoded from the type modifier the way the JDBC driver does,
+     * except that unlimited lengths are 0, so the audit column is created
+     * without a size.  Serial columns are int4 in pg_attribute already.
+     * 
+     * @param rs result set positioned on a column row
+     * @param layout source meta data layout of rs
+     * @param dtds data types, keyed by type name
+     * @return ColumnDef for the current row
+     * @throws SQLException 
+     */
+    @Override
+    ColumnDef getColumnDef (ResultSet rs, SourceMetaLayout layout,
+            Map<String, DataTypeDef> dtds) throws SQLException {
+        
+        ColumnDef columnDef = new ColumnDef();
+        String typeName = rs.getString("type_name");
+        int typeMod = rs.getInt("type_mod");
+        
+        columnDef.setName(rs.getString("column_name"));
+        columnDef.setTypeName(typeName);
+        columnDef.setSize(getColumnSize(typeName, typeMod));
+        columnDef.setDecimalSize(getDecimalDigits(typeName, typeMod));
+        
+        columnDef.setSourceMeta(layout, layout.read(rs));
+
+        DataTypeDef dtd = findDataType(dtds, typeName);
+        if (dtd != null){
+            columnDef.setDataTypeDef(dtd);
+            columnDef.setSqlType(dtd.data_type);
+        }
+        else {
+            throw new RuntimeException("Missing DATA_TYPE definition for data type " + typeName);
+        }
+        
+        return columnDef;
         
     }
     
+    /**
+     * Decode the column size from a pg_attribute type modifier.
+     * 
+     * @param typeName pg_type.typname
+     * @param typeMod pg_attribute.atttypmod, -1 if not set
+     * @return length or precision of the column, or 0 if it is not limited
+     */
+    static int getColumnSize(String typeName, int typeMod){
+        
+        //fractional second digits for time types
+        int secondSize = typeMod == -1 ? 7 : (typeMod > 0 ? typeMod + 1 : 0);
+        
+        switch (typeName) {
+            case "int2":
+                return 5;
+            case "int4":
+            case "oid":
+                return 10;
+            case "int8":
+                return 19;
+            case "float4":
+                return 8;
+            case "float8":
+                return 17;
+            case "bool":
+            case "char":
+                return 1;
+            case "numeric":
+                return typeMod == -1 ? 0 : ((typeMod - 4) >> 16) & 0xffff;
+            case "bpchar":
+            case "varchar":
+                return typeMod == -1 ? 0 : typeMod - 4;
+            case "bit":
+                return typeMod;
+            case "varbit":
+                return typeMod == -1 ? 0 : typeMod;
+            case "date":
+                return 13;
+            case "time":
+                return 8 + secondSize;
+            case "timetz":
+                return 8 + secondSize + 6;
+            case "timestamp":
+                return 19 + secondSize;
+            case "timestamptz":
+                return 19 + secondSize + 6;
+            case "interval":
+                return 49;
+            default:
+                return 0;
+        }
+    }
+    
+    /**
+     * Decode the decimal digits from a pg_attribute type modifier.
+     * 
+     * @param typeName pg_type.typname
+     * @param typeMod pg_attribute.atttypmod, -1 if not set
+     * @return scale of numeric columns, fractional second digits of time
+     * columns, otherwise 0
+     */
+    static int getDecimalDigits(String typeName, int typeMod){
+        
+        switch (typeName) {
+            case "float4":
+                return 8;
+            case "float8":
+                return 17;
+            case "numeric":
+                return typeMod == -1 ? 0 : (typeMod - 4) & 0xffff;
+            case "time":
+            case "timetz":
+            case "timestamp":
+            case "timestamptz":
+                return typeMod == -1 ? 6 : typeMod;
+            default:
+                return 0;
+        }
+    }
+    
+    /**
+     * Get a fingerprint for each table in the targeted schema straight from
+     * pg_catalog.  The hash covers column names, type oids and type modifiers
+     * in column order, plus the names and types of the user triggers on the
+     * table, and is computed on the server so only one short row per table
+     * comes back.
+     * 
+     * @return Map of table name to fingerprint in table order, or null if
+     * the fingerprints cannot be read.
+     */
+    @Override
+    public Map<String, String> getTableFingerprints (){
+        
+        StringBuilder builder = new StringBuilder();
+        builder.append("SELECT c.relname AS table_name,").append(System.lineSeparator());
+        builder.append("    md5(string_agg(a.attname || ' ' || a.atttypid || ' ' || a.atttypmod, ',' ORDER BY a.attnum)").append(System.lineSeparator());
+        builder.append("        || ' ' || COALESCE((SELECT string_agg(tg.tgname || ' ' || tg.tgtype, ',' ORDER BY tg.tgname)").append(System.lineSeparator());
+        builder.append("            FROM pg_catalog.pg_trigger tg").append(System.lineSeparator());
+        builder.append("            WHERE tg.tgrelid = c.oid AND NOT tg.tgisinternal), '')) AS fingerprint").append(System.lineSeparator());
+        builder.append("FROM pg_catalog.pg_class c").append(System.lineSeparator());
+        builder.append("JOIN pg_catalog.pg_namespace n ON n.oid = c.relnamespace").append(System.lineSeparator());
+        builder.append("JOIN pg_catalog.pg_attribute a ON a.attrelid = c.oid AND a.attnum > 0 AND NOT a.attisdropped").append(System.lineSeparator());
+        builder.append("WHERE c.relkind = 'r'").append(System.lineSeparator());
+        builder.append(getSchemaCondition()).append(System.lineSeparator());
+        builder.append("GROUP BY c.oid, c.relname").append(System.lineSeparator());
+        builder.append("ORDER BY c.relname");
+        
+        Map<String, String> fingerprints = new LinkedHashMap<>();
+        
+        try (Connection conn = dataSource.getConnection()){
+            
+            PreparedStatement stmt = conn.prepareStatement(builder.toString());
+            if (verifiedSchema != null){
+                stmt.setString(1, verifiedSchema);
+            }
+            ResultSet rs = stmt.executeQuery();
+            
+            while (rs.next()){
+                fingerprints.put(rs.getString("table_name"), rs.getString("fingerprint"));
+            }
+            
+            rs.close();
+            stmt.close();
+            
+        } catch (SQLException e){
+            logger.error("SQL error retrieving table fingerprints: ", e);
+            return null;
+        }
+        
+        return fingerprints;
+    }
+    
+    /**
+     * Timeouts are set on the session with lock_timeout (PostgreSQL 9.3 and
+     * later) and statement_timeout, in ms.
+     */
+    @Override
+    LockRetryPolicy getLockRetryPolicy(int lockTimeout, int statementTimeout, long retryBudget){
+        
+        LockRetryPolicy policy = new LockRetryPolicy(retryBudget);
+        if (lockTimeout > 0){
+            policy.sessionSQL.add("SET lock_timeout = " + lockTimeout);
+        }
+        if (statementTimeout > 0){
+            policy.sessionSQL.add("SET statement_timeout = " + statementTimeout);
+        }
+        return policy;
+    }
+    
 }
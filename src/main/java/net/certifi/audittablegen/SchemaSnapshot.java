@@ -0,0 +1,200 @@
+/*    Copyright 2014 Certifi Inc.
+ *
+ *    This file is part of AuditTableGen.
+ *
+ *        AuditTableGen is free software: you can redistribute it and/or modify
+ *        it under the terms of the GNU General Public License as published by
+ *        the Free Software Foundation, either version 3 of the License, or
+ *        (at your option) any later version.
+ *
+ *        AuditTableGen is distributed in the hope that it will be useful,
+ *        but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *        GNU General Public License for more details.
+ *
+ *        You should have received a copy of the GNU General Public License
+ *        along with AuditTableGen.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.certifi.audittablegen;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Local copy of the table shapes from a previous run, with a fingerprint
+ * for each table as returned by DataSourceDMR.getTableFingerprints().
+ * Tables whose fingerprint has not changed can be taken from the snapshot
+ * instead of being read from the database again.
+ *
+ * The file is plain text, one tab separated record per line:
+ * <pre>
+ * config  &lt;hash of the audit configuration&gt;
+ * table   &lt;name&gt; &lt;fingerprint&gt;
+ * column  &lt;name&gt; &lt;type name&gt; &lt;sql type&gt; &lt;size&gt; &lt;decimal size&gt;
+ * </pre>
+ * column records belong to the table record before them.
+ */
+public class SchemaSnapshot {
+
+    private static final Logger logger = LoggerFactory.getLogger(SchemaSnapshot.class);
+    static final String header = "#AuditTableGen schema snapshot 1";
+
+    String configHash = "";
+    Map<String, String> fingerprints = new LinkedHashMap<>();
+    Map<String, TableDef> tables = new HashMap<>();
+
+    /**
+     * Load a snapshot from file.
+     *
+     * @param file
+     * @return The snapshot, or an empty snapshot if the file does not exist
+     * or cannot be read.
+     */
+    static SchemaSnapshot load(File file){
+
+        SchemaSnapshot snapshot = new SchemaSnapshot();
+
+        if (!file.exists()){
+            return snapshot;
+        }
+
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), Charsets.UTF_8)){
+
+            String line = reader.readLine();
+            if (!header.equals(line)){
+                logger.warn("Ignoring schema snapshot {} with unknown format", file);
+                return snapshot;
+            }
+
+            TableDef tableDef = null;
+            while ((line = reader.readLine()) != null){
+                String[] fields = line.split("\t", -1);
+                switch (fields[0]) {
+                    case "config":
+                        snapshot.configHash = fields[1];
+                        break;
+                    case "table":
+                        tableDef = new TableDef();
+                        tableDef.setName(fields[1]);
+                        snapshot.putTable(tableDef, fields[2]);
+                        break;
+                    case "column":
+                        ColumnDef columnDef = new ColumnDef();
+                        columnDef.setName(fields[1]);
+                        columnDef.setTypeName(fields[2]);
+                        columnDef.setSqlType(Integer.parseInt(fields[3]));
+                        columnDef.setSize(Integer.parseInt(fields[4]));
+                        columnDef.setDecimalSize(Integer.parseInt(fields[5]));
+                        tableDef.addColumn(columnDef);
+                        break;
+                    default:
+                        break;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Ignoring unreadable schema snapshot {}", file, e);
+            return new SchemaSnapshot();
+        }
+
+        return snapshot;
+    }
+
+    /**
+     * Write the snapshot to file.  The file is written to a temporary file
+     * first and then moved into place, so an interrupted run does not leave
+     * a partial snapshot behind.
+     *
+     * @param file
+     * @throws IOException
+     */
+    void save(File file) throws IOException {
+
+        File dir = file.getAbsoluteFile().getParentFile();
+        File temp = File.createTempFile(file.getName(), ".tmp", dir);
+
+        try (BufferedWriter writer = Files.newBufferedWriter(temp.toPath(), Charsets.UTF_8)){
+            writer.write(header);
+            writer.newLine();
+            writer.write("config\t" + configHash);
+            writer.newLine();
+            for (Map.Entry<String, String> entry : fingerprints.entrySet()){
+                TableDef tableDef = tables.get(entry.getKey());
+                writer.write("table\t" + entry.getKey() + "\t" + entry.getValue());
+                writer.newLine();
+                for (ColumnDef columnDef : tableDef.getColumns()){
+                    writer.write("column\t" + columnDef.getName() + "\t" + columnDef.getTypeName()
+                            + "\t" + columnDef.getSqlType() + "\t" + columnDef.getSize()
+                            + "\t" + columnDef.getDecimalSize());
+                    writer.newLine();
+                }
+            }
+        }
+
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    void putTable(TableDef tableDef, String fingerprint){
+        fingerprints.put(tableDef.getName(), fingerprint);
+        tables.put(tableDef.getName(), tableDef);
+    }
+
+    TableDef getTable(String tableName){
+        return tables.get(tableName);
+    }
+
+    /**
+     * Compare current fingerprints to the ones in the snapshot.
+     *
+     * @param current fingerprints keyed by table name
+     * @return names of tables in current which are not in the snapshot
+     * or whose fingerprint is different, in the order of current.
+     */
+    List<String> getChangedTables(Map<String, String> current){
+
+        List<String> changed = new ArrayList<>();
+
+        for (Map.Entry<String, String> entry : current.entrySet()){
+            if (!entry.getValue().equals(fingerprints.get(entry.getKey()))){
+                changed.add(entry.getKey());
+            }
+        }
+
+        return changed;
+    }
+
+    /**
+     * Hash the audit configuration.  Plans from a previous run can only be
+     * trusted if the configuration is the same.
+     *
+     * @param attributes configuration attributes, in any order
+     * @param maxUserNameLength
+     * @return hex string hash
+     */
+    static String getConfigHash(List<ConfigAttribute> attributes, int maxUserNameLength){
+
+        List<String> lines = new ArrayList<>();
+        for (ConfigAttribute attrib : attributes){
+            lines.add(attrib.getAttribute() + "\t" + attrib.getTableName()
+                    + "\t" + attrib.getColumnName() + "\t" + attrib.getValue());
+        }
+        Collections.sort(lines);
+
+        StringBuilder builder = new StringBuilder();
+        builder.append(maxUserNameLength);
+        for (String line : lines){
+            builder.append("\n").append(line);
+        }
+
+        return Hashing.md5().hashString(builder, Charsets.UTF_8).toString();
+    }
+}
@@ -0,0 +1,169 @@
+/*    Copyright 2014 Certifi Inc.
+ *
+ *    This file is part of AuditTableGen.
+ *
+ *        AuditTableGen is free software: you can redistribute it and/or modify
+ *        it under the terms of the GNU General Public License as published by
+ *        the Free Software Foundation, either version 3 of the License, or
+ *        (at your option) any later version.
+ *
+ *        AuditTableGen is distributed in the hope that it will be useful,
+ *        but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *        GNU General Public License for more details.
+ *
+ *        You should have received a copy of the GNU General Public License
+ *        along with AuditTableGen.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.certifi.audittablegen;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Throwables;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A SQL script the changes are written to instead of being executed, so
+ * they can be reviewed and applied with other tools.  Statements are
+ * written through a buffer to a FileChannel as they are rendered, so the
+ * script is never held in memory, however large.
+ * 
+ * Each statement follows a comment naming its change type and table, and
+ * ends with a semicolon.  The script is written to a temporary file which
+ * replaces the file on close(), like PlanFile, so that an incomplete script
+ * is never left behind under the name asked for.
+ */
+class ScriptFile implements ChangeSink, Closeable {
+    
+    private static final Logger logger = LoggerFactory.getLogger(ScriptFile.class);
+    
+    static final int bufferSize = 64 * 1024;
+    static final String lineSeparator = System.lineSeparator();
+    
+    final File file;
+    final File temp;
+    FileChannel channel;
+    final ByteBuffer buffer = ByteBuffer.allocateDirect(bufferSize);
+    int statementCount = 0;
+    
+    ScriptFile(File file, File temp){
+        this.file = file;
+        this.temp = temp;
+    }
+    
+    /**
+     * Start a script.
+     * 
+     * @param file
+     * @param schema schema the script is for, or null
+     * @return The script.
+     * @throws IOException if the file can not be created.
+     */
+    static ScriptFile create(File file, String schema) throws IOException {
+        
+        File dir = file.getAbsoluteFile().getParentFile();
+        ScriptFile script = new ScriptFile(file, File.createTempFile(file.getName(), ".tmp", dir));
+        script.channel = new FileOutputStream(script.temp).getChannel();
+        
+        script.write("-- AuditTableGen script" + lineSeparator);
+        if (schema != null && !schema.isEmpty()){
+            script.write("-- schema " + schema + lineSeparator);
+        }
+        script.write(lineSeparator);
+        
+        return script;
+    }
+    
+    @Override
+    public void addStatement(DBChangeType changeType, String tableName, String auditTableName, String sql) {
+        
+        StringBuilder builder = new StringBuilder(sql.length() + 64);
+        builder.append("-- ").append(changeType.name()).append(" ").append(tableName).append(lineSeparator);
+        builder.append(sql.trim());
+        if (!sql.trim().endsWith(";")){
+            builder.append(";");
+        }
+        builder.append(lineSeparator).append(lineSeparator);
+        
+        try {
+            write(builder.toString());
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+        statementCount++;
+    }
+    
+    void write(String text) throws IOException {
+        
+        byte[] bytes = text.getBytes(Charsets.UTF_8);
+        if (bytes.length > buffer.remaining()){
+            flush();
+        }
+        if (bytes.length > buffer.capacity()){
+            ByteBuffer large = ByteBuffer.wrap(bytes);
+            while (large.hasRemaining()){
+                channel.write(large);
+            }
+        }
+        else {
+            buffer.put(bytes);
+        }
+    }
+    
+    void flush() throws IOException {
+        
+        buffer.flip();
+        while (buffer.hasRemaining()){
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+    
+    /**
+     * @return the number of statements written.
+     */
+    int getStatementCount(){
+        
+        return statementCount;
+    }
+    
+    /**
+     * Finish the script, replacing the file with it.
+     * 
+     * @throws IOException 
+     */
+    @Override
+    public void close() throws IOException {
+        
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+    
+    /**
+     * Drop an incomplete script.  The file is left as it was.
+     */
+    void discard(){
+        
+        try {
+            channel.close();
+        } catch (IOException e) {
+            logger.warn("Error closing script {}", temp, e);
+        }
+        if (!temp.delete()){
+            logger.warn("Cannot delete incomplete script {}", temp);
+        }
+    }
+}
@@ -0,0 +1,272 @@
+/*    Copyright 2014 Certifi Inc.
+ *
+ *    This file is part of AuditTableGen.
+ *
+ *        AuditTableGen is free software: you can redistribute it and/or modify
+ *        it under the terms of the GNU General Public License as published by
+ *        the Free Software Foundation, either version 3 of the License, or
+ *        (at your option) any later version.
+ *
+ *        AuditTableGen is distributed in the hope that it will be useful,
+ *        but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *        GNU General Public License for more details.
+ *
+ *        You should have received a copy of the GNU General Public License
+ *        along with AuditTableGen.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.certifi.audittablegen;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Plans and SQL for a table, kept by the shape of the table so that tables
+ * with the same columns and settings, in the same or other schemas, are only
+ * planned and rendered once.
+ * <p>
+ * Names are swapped for tokens before a plan or SQL is stored, and swapped
+ * back for the names of the table that uses it.  A name is tokenized if it
+ * starts with the base table name or the audit table name, which covers
+ * derived names like the audit id column.
+ * <p>
+ * Caches are shared by everything in the JVM using the same configuration,
+ * like DataTypeRegistry.  Each holds up to MAX_ENTRIES shapes, dropping the
+ * least recently used.  Up to MAX_SHARED configurations are kept, dropping
+ * the cache of the least recently used one, so at most
+ * MAX_SHARED * MAX_ENTRIES shapes are held.
+ */
+public class ShapeCache {
+    
+    static final String BASE_TOKEN = "\u0001B\u0001";
+    static final String AUDIT_TOKEN = "\u0001A\u0001";
+    static final String SCHEMA_TOKEN = "\u0001S\u0001";
+    static final String QUOTE_START = "\u0001Q\u0001";
+    static final String QUOTE_END = "\u0001E\u0001";
+    static final int MAX_ENTRIES = 4096;
+    static final int MAX_SHARED = 16;
+    static final Map<String, ShapeCache> shared = new LruMap<>(MAX_SHARED);
+    
+    Map<String, Object> entries = new LruMap<>(MAX_ENTRIES);
+    
+    /**
+     * Map in access order which drops the least recently used entry when it
+     * holds more than maxEntries.
+     */
+    static class LruMap<V> extends LinkedHashMap<String, V> {
+        
+        private static final long serialVersionUID = 1L;
+        final int maxEntries;
+        
+        LruMap(int maxEntries){
+            super(16, 0.75f, true);
+            this.maxEntries = maxEntries;
+        }
+        
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, V> eldest){
+            return size() > maxEntries;
+        }
+    }
+    
+    ShapeCache(){
+    }
+    
+    /**
+     * Get the cache for a configuration, adding it if there is none yet.
+     * 
+     * @param configKey everything apart from the table shape that the
+     * cached values depend on
+     * @return ShapeCache for the configuration.
+     */
+    static synchronized ShapeCache getShared(String configKey){
+        
+        ShapeCache cache = shared.get(configKey);
+        if (cache == null){
+            cache = new ShapeCache();
+            shared.put(configKey, cache);
+        }
+        return cache;
+    }
+    
+    synchronized Object get(String key){
+        return entries.get(key);
+    }
+    
+    synchronized void put(String key, Object value){
+        entries.put(key, value);
+    }
+    
+    synchronized int size(){
+        return entries.size();
+    }
+    
+    /**
+     * @param value a name
+     * @param baseName base table name, or null
+     * @param auditName audit table name, or null
+     * @return the name with a leading base or audit table name replaced by
+     * its token.
+     */
+    static String tokenize(String value, String baseName, String auditName){
+        
+        //the audit table name is checked first, as it may start with the base name
+        if (auditName != null && !auditName.isEmpty() && value.startsWith(auditName)){
+            return AUDIT_TOKEN + value.substring(auditName.length());
+        }
+        if (baseName != null && !baseName.isEmpty() && value.startsWith(baseName)){
+            return BASE_TOKEN + value.substring(baseName.length());
+        }
+        return value;
+    }
+    
+    /**
+     * @param value a name
+     * @param baseName base table name, or null
+     * @param auditName audit table name, or null
+     * @return True if the name starts with the base or audit table name in
+     * a different case.  Such names can not be tokenized safely.
+     */
+    static boolean isAmbiguous(String value, String baseName, String auditName){
+        
+        return isAmbiguous(value, baseName) || isAmbiguous(value, auditName);
+    }
+    
+    static boolean isAmbiguous(String value, String name){
+        
+        return name != null && !name.isEmpty()
+                && value.regionMatches(true, 0, name, 0, name.length())
+                && !value.startsWith(name);
+    }
+    
+    /**
+     * @param template SQL or name holding tokens
+     * @param baseName base table name, or null
+     * @param auditName audit table name, or null
+     * @param schema schema prefix for SCHEMA_TOKEN, or null
+     * @return the template with the tokens replaced.
+     */
+    static String detokenize(String template, String baseName, String auditName, String schema){
+        
+        String result = template;
+        if (auditName != null){
+            result = result.replace(AUDIT_TOKEN, auditName);
+        }
+        if (baseName != null){
+            result = result.replace(BASE_TOKEN, baseName);
+        }
+        if (schema != null){
+            result = result.replace(SCHEMA_TOKEN, schema);
+        }
+        return result;
+    }
+    
+    /**
+     * @param value a name
+     * @return True if the name holds a base or audit table token.
+     */
+    static boolean hasToken(String value){
+        
+        return value.contains(BASE_TOKEN) || value.contains(AUDIT_TOKEN);
+    }
+    
+    /**
+     * Quote the names marked with QUOTE_START and QUOTE_END in detokenized
+     * SQL.  Whether a name holding a token needs quotes depends on the name
+     * the token stands for, so SQL is stored with such names marked.
+     * 
+     * @param sql detokenized SQL
+     * @param idMetaData quoting rules
+     * @return the SQL with each marked name quoted as it needs.
+     */
+    static String quoteMarked(String sql, IdentifierMetaData idMetaData){
+        
+        int start = sql.indexOf(QUOTE_START);
+        if (start < 0){
+            return sql;
+        }
+        
+        StringBuilder builder = new StringBuilder(sql.length() + 16);
+        int from = 0;
+        while (start >= 0){
+            int end = sql.indexOf(QUOTE_END, start);
+            builder.append(sql, from, start);
+            builder.append(idMetaData.quote(sql.substring(start + QUOTE_START.length(), end)));
+            from = end + QUOTE_END.length();
+            start = sql.indexOf(QUOTE_START, from);
+        }
+        builder.append(sql, from, sql.length());
+        
+        return builder.toString();
+    }
+    
+    /**
+     * Copy change units, tokenizing the names in them.
+     * 
+     * @param units
+     * @param baseName base table name, or null
+     * @param auditName audit table name, or null
+     * @return tokenized copies of the units.
+     */
+    static List<DBChangeUnit> tokenize(List<DBChangeUnit> units, String baseName, String auditName){
+        
+        List<DBChangeUnit> result = new ArrayList<>(units.size());
+        for (DBChangeUnit unit : units){
+            DBChangeUnit copy = new DBChangeUnit(unit);
+            copy.tableName = tokenize(unit.tableName, baseName, auditName);
+            copy.auditTableName = tokenize(unit.auditTableName, baseName, auditName);
+            copy.columnName = tokenize(unit.columnName, baseName, auditName);
+            copy.newColumnName = tokenize(unit.newColumnName, baseName, auditName);
+            result.add(copy);
+        }
+        return result;
+    }
+    
+    /**
+     * Copy tokenized change units for a table.
+     * 
+     * @param units
+     * @param baseName base table name, or null
+     * @param auditName audit table name, or null
+     * @return copies of the units with the names of the table.
+     */
+    static List<DBChangeUnit> detokenize(List<DBChangeUnit> units, String baseName, String auditName){
+        
+        List<DBChangeUnit> result = new ArrayList<>(units.size());
+        for (DBChangeUnit unit : units){
+            DBChangeUnit copy = new DBChangeUnit(unit);
+            copy.tableName = detokenize(unit.tableName, baseName, auditName, null);
+            copy.auditTableName = detokenize(unit.auditTableName, baseName, auditName, null);
+            copy.columnName = detokenize(unit.columnName, baseName, auditName, null);
+            copy.newColumnName = detokenize(unit.newColumnName, baseName, auditName, null);
+            result.add(copy);
+        }
+        return result;
+    }
+    
+    /**
+     * @param units
+     * @return a key holding every field of the units.
+     */
+    static String getKey(List<DBChangeUnit> units){
+        
+        StringBuilder builder = new StringBuilder();
+        for (DBChangeUnit unit : units){
+            builder.append(unit.changeType.ordinal()).append('|')
+                    .append(unit.tableName).append('|')
+                    .append(unit.auditTableName).append('|')
+                    .append(unit.columnName).append('|')
+                    .append(unit.newColumnName).append('|')
+                    .append(unit.foreignTable).append('|')
+                    .append(unit.firesTrigger).append('|')
+                    .append(unit.typeName).append('|')
+                    .append(unit.size).append('|')
+                    .append(unit.decimalSize).append('|')
+                    .append(unit.identity).append('\n');
+        }
+        return builder.toString();
+    }
+}
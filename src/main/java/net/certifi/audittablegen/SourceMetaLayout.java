@@ -0,0 +1,100 @@
+/*    Copyright 2014 Certifi Inc.
+ *
+ *    This file is part of AuditTableGen.
+ *
+ *        AuditTableGen is free software: you can redistribute it and/or modify
+ *        it under the terms of the GNU General Public License as published by
+ *        the Free Software Foundation, either version 3 of the License, or
+ *        (at your option) any later version.
+ *
+ *        AuditTableGen is distributed in the hope that it will be useful,
+ *        but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *        GNU General Public License for more details.
+ *
+ *        You should have received a copy of the GNU General Public License
+ *        along with AuditTableGen.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.certifi.audittablegen;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Column names of a metadata result set, shared by every ColumnDef read
+ * from that result set.  Each ColumnDef only keeps an array of values in
+ * this order, and the map view of the source metadata is built when
+ * it is asked for.  Repeated values (schema name, table name, YES/NO
+ * flags...) are stored once per layout.
+ *
+ * A layout is meant to be filled by one reader thread.
+ */
+public class SourceMetaLayout {
+    
+    String[] names;
+    Map<String, String> sharedValues = new HashMap<>();
+    
+    SourceMetaLayout(String[] names){
+        this.names = names;
+    }
+    
+    static SourceMetaLayout of(ResultSetMetaData rsmd) throws SQLException {
+        
+        String[] names = new String[rsmd.getColumnCount()];
+        for (int i = 0; i < names.length; i++){
+            names[i] = rsmd.getColumnName(i + 1);
+        }
+        
+        return new SourceMetaLayout(names);
+    }
+    
+    /**
+     * Read the values of the current row of rs.
+     * 
+     * @param rs result set with this layout, positioned on a row
+     * @return values in layout order
+     * @throws SQLException 
+     */
+    String[] read(ResultSet rs) throws SQLException {
+        
+        String[] values = new String[names.length];
+        for (int i = 0; i < names.length; i++){
+            values[i] = share(rs.getString(i + 1));
+        }
+        
+        return values;
+    }
+    
+    String share(String value){
+        
+        if (value == null){
+            return null;
+        }
+        
+        String shared = sharedValues.get(value);
+        if (shared == null){
+            sharedValues.put(value, value);
+            shared = value;
+        }
+        
+        return shared;
+    }
+    
+    /**
+     * @param values values in layout order
+     * @return case insensitive map of column name to value
+     */
+    Map<String, String> toMap(String[] values){
+        
+        Map<String, String> map = CaseInsensitiveMaps.newMap();
+        for (int i = 0; i < names.length; i++){
+            map.put(names[i], values[i]);
+        }
+        
+        return map;
+    }
+}
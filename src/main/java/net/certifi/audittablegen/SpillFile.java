@@ -0,0 +1,210 @@
+/*    Copyright 2014 Certifi Inc.
+ *
+ *    This file is part of AuditTableGen.
+ *
+ *        AuditTableGen is free software: you can redistribute it and/or modify
+ *        it under the terms of the GNU General Public License as published by
+ *        the Free Software Foundation, either version 3 of the License, or
+ *        (at your option) any later version.
+ *
+ *        AuditTableGen is distributed in the hope that it will be useful,
+ *        but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *        GNU General Public License for more details.
+ *
+ *        You should have received a copy of the GNU General Public License
+ *        along with AuditTableGen.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.certifi.audittablegen;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Throwables;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A temporary file of records, each a few strings, for holding more changes
+ * than fit in the heap.  Records are written and read back through memory
+ * mapped segments of the file, so only the segment in use is paged in and
+ * none of it is on the heap.
+ * 
+ * Each record is its length in bytes, the number of fields, then each field
+ * as its length in bytes and UTF-8 bytes.  A null field has length -1.
+ */
+class SpillFile implements Closeable, Iterable<String[]> {
+    
+    private static final Logger logger = LoggerFactory.getLogger(SpillFile.class);
+    static final int defaultSegmentSize = 16 * 1024 * 1024;
+    
+    int segmentSize = defaultSegmentSize; //bytes mapped at a time
+    final File file;
+    final RandomAccessFile raf;
+    final FileChannel channel;
+    MappedByteBuffer writeBuffer;
+    long writeBase; //file position of writeBuffer
+    long length;    //bytes written
+    int count;      //records written
+    
+    private SpillFile(File file) throws IOException {
+        
+        this.file = file;
+        this.raf = new RandomAccessFile(file, "rw");
+        this.channel = raf.getChannel();
+    }
+    
+    /**
+     * Create an empty spill file.
+     * 
+     * @param dir directory for the file, or null for the default temporary
+     * directory.
+     * @return SpillFile
+     * @throws IOException 
+     */
+    static SpillFile create(File dir) throws IOException {
+        
+        if (dir != null){
+            dir.mkdirs();
+        }
+        File file = File.createTempFile("audittablegen", ".spill", dir);
+        file.deleteOnExit();
+        return new SpillFile(file);
+    }
+    
+    /**
+     * Append a record.
+     * 
+     * @param fields
+     * @throws IOException 
+     */
+    void append(String... fields) throws IOException {
+        
+        byte[][] bytes = new byte[fields.length][];
+        int recordLength = 8;
+        for (int i = 0; i < fields.length; i++){
+            recordLength += 4;
+            if (fields[i] != null){
+                bytes[i] = fields[i].getBytes(Charsets.UTF_8);
+                recordLength += bytes[i].length;
+            }
+        }
+        
+        if (writeBuffer == null || writeBuffer.remaining() < recordLength){
+            writeBase = length;
+            writeBuffer = channel.map(FileChannel.MapMode.READ_WRITE, writeBase,
+                    Math.max(segmentSize, recordLength));
+        }
+        
+        writeBuffer.putInt(recordLength);
+        writeBuffer.putInt(fields.length);
+        for (byte[] field : bytes){
+            if (field == null){
+                writeBuffer.putInt(-1);
+            }
+            else {
+                writeBuffer.putInt(field.length);
+                writeBuffer.put(field);
+            }
+        }
+        
+        length += recordLength;
+        count++;
+    }
+    
+    /**
+     * @return the number of records written.
+     */
+    int size(){
+        return count;
+    }
+    
+    /**
+     * Read the records back in the order written.
+     * 
+     * @return Iterator over the fields of each record.
+     */
+    @Override
+    public Iterator<String[]> iterator(){
+        
+        return new Iterator<String[]>() {
+            
+            MappedByteBuffer readBuffer;
+            long position; //file position of the next record
+            
+            @Override
+            public boolean hasNext() {
+                return position < length;
+            }
+            
+            @Override
+            public String[] next() {
+                
+                if (!hasNext()){
+                    throw new NoSuchElementException();
+                }
+                
+                try {
+                    if (readBuffer == null || readBuffer.remaining() < 4
+                            || readBuffer.remaining() < readBuffer.getInt(readBuffer.position())){
+                        //map from this record on
+                        readBuffer = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                                Math.min(length - position, Math.max(segmentSize,
+                                        readRecordLength(position))));
+                    }
+                } catch (IOException e) {
+                    throw Throwables.propagate(e);
+                }
+                
+                int recordLength = readBuffer.getInt();
+                String[] fields = new String[readBuffer.getInt()];
+                for (int i = 0; i < fields.length; i++){
+                    int fieldLength = readBuffer.getInt();
+                    if (fieldLength >= 0){
+                        byte[] field = new byte[fieldLength];
+                        readBuffer.get(field);
+                        fields[i] = new String(field, Charsets.UTF_8);
+                    }
+                }
+                position += recordLength;
+                
+                return fields;
+            }
+            
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+    
+    int readRecordLength(long position) throws IOException {
+        
+        return channel.map(FileChannel.MapMode.READ_ONLY, position, 4).getInt();
+    }
+    
+    /**
+     * Close and delete the file.
+     */
+    @Override
+    public void close(){
+        
+        writeBuffer = null;
+        try {
+            channel.close();
+            raf.close();
+        } catch (IOException e) {
+            logger.warn("Error closing spill file {}", file, e);
+        }
+        if (!file.delete()){
+            file.deleteOnExit();
+        }
+    }
+}
@@ -41,6 +41,11 @@ public class TableConfig {
      */
     Map<String, String> excludedColumns;
     Map<String, String> includedColumns;
+    
+    //the include and exclude patterns which apply to the table's columns,
+    //set when the settings are resolved for planning
+    NameMatcher columnExcludes = new NameMatcher();
+    NameMatcher columnIncludes = new NameMatcher();
 
     TableConfig(String tableName){
        excludedColumns = new CaseInsensitiveMap();
@@ -75,6 +80,27 @@ public class TableConfig {
         return new CaseInsensitiveMap(includedColumns);
     }
     
+    /**
+     * Copy the trigger settings of another table.
+     * 
+     * @param other 
+     */
+    void setTriggers(TableConfig other){
+        hasInsertTrigger = other.hasInsertTrigger;
+        hasUpdateTrigger = other.hasUpdateTrigger;
+        hasDeleteTrigger = other.hasDeleteTrigger;
+    }
+    
+    /**
+     * An include overrides an exclude.
+     * 
+     * @param columnName
+     * @return True if the column is excluded from firing the triggers.
+     */
+    boolean isColumnExcluded(String columnName){
+        return columnExcludes.matches(columnName) && !columnIncludes.matches(columnName);
+    }
+    
     Boolean getHasDeleteTrigger() {
         return hasDeleteTrigger;
     }
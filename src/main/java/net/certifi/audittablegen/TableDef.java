@@ -29,6 +29,7 @@ public class TableDef {
     
     String name;
     List<ColumnDef> columns;
+    Boolean auditTrigger; //null if not known
     
     TableDef (){
         columns = new ArrayList<>();
@@ -63,5 +64,17 @@ public class TableDef {
     public void setColumns(List<ColumnDef> columns) {
         this.columns = columns;
     }
+
+    /**
+     * @return True if the table has an audit trigger, False if it does not,
+     * or null if the DataSourceDMR did not check.
+     */
+    public Boolean getAuditTrigger() {
+        return auditTrigger;
+    }
+
+    public void setAuditTrigger(Boolean auditTrigger) {
+        this.auditTrigger = auditTrigger;
+    }
     
 }
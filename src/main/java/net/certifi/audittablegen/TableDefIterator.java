@@ -0,0 +1,114 @@
+/*    Copyright 2014 Certifi Inc.
+ *
+ *    This file is part of AuditTableGen.
+ *
+ *        AuditTableGen is free software: you can redistribute it and/or modify
+ *        it under the terms of the GNU General Public License as published by
+ *        the Free Software Foundation, either version 3 of the License, or
+ *        (at your option) any later version.
+ *
+ *        AuditTableGen is distributed in the hope that it will be useful,
+ *        but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *        GNU General Public License for more details.
+ *
+ *        You should have received a copy of the GNU General Public License
+ *        along with AuditTableGen.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.certifi.audittablegen;
+
+import java.util.*;
+
+/**
+ * Iterates over the TableDef objects for a list of table names, reading
+ * the columns from the DataSourceDMR a window of tables at a time.  Only
+ * the current window is held in memory, so memory use depends on the
+ * window size rather than on the size of the schema.
+ *
+ * Tables are returned in the order of the names.  Tables not accepted by
+ * the filter are returned without columns.  Tables whose columns cannot
+ * be read are left out.
+ */
+public class TableDefIterator implements Iterator<TableDef> {
+    
+    DataSourceDMR dmr;
+    TableFilter filter;
+    Iterator<String> names;
+    int windowSize;
+    Iterator<TableDef> window = Collections.<TableDef>emptyIterator();
+    
+    /**
+     * @param dmr source of the column definitions
+     * @param tableNames table names, in the order the tables are wanted
+     * @param filter tables which need columns, or null for all
+     * @param windowSize number of tables to read at a time
+     */
+    TableDefIterator(DataSourceDMR dmr, List<String> tableNames, TableFilter filter, int windowSize){
+        
+        this.dmr = dmr;
+        this.filter = filter;
+        this.names = tableNames.iterator();
+        this.windowSize = Math.max(1, windowSize);
+    }
+    
+    @Override
+    public boolean hasNext() {
+        
+        while (!window.hasNext() && names.hasNext()){
+            window = nextWindow();
+        }
+        
+        return window.hasNext();
+    }
+    
+    @Override
+    public TableDef next() {
+        
+        if (!hasNext()){
+            throw new NoSuchElementException();
+        }
+        
+        return window.next();
+    }
+    
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+    
+    Iterator<TableDef> nextWindow(){
+        
+        List<String> windowNames = new ArrayList<>(windowSize);
+        List<String> accepted = new ArrayList<>(windowSize);
+        while (windowNames.size() < windowSize && names.hasNext()){
+            String tableName = names.next();
+            windowNames.add(tableName);
+            if (filter == null || filter.accept(tableName)){
+                accepted.add(tableName);
+            }
+        }
+        
+        Map<String, TableDef> read = new HashMap<>();
+        if (!accepted.isEmpty()){
+            for (TableDef td : dmr.getTables(accepted)){
+                read.put(td.getName(), td);
+            }
+        }
+        
+        List<TableDef> tables = new ArrayList<>(windowNames.size());
+        Set<String> acceptedNames = new HashSet<>(accepted);
+        for (String tableName : windowNames){
+            if (!acceptedNames.contains(tableName)){
+                TableDef td = new TableDef();
+                td.setName(tableName);
+                tables.add(td);
+            }
+            else if (read.containsKey(tableName)){
+                tables.add(read.get(tableName));
+            }
+        }
+        
+        return tables.iterator();
+    }
+}
@@ -0,0 +1,34 @@
+/*    Copyright 2014 Certifi Inc.
+ *
+ *    This file is part of AuditTableGen.
+ *
+ *        AuditTableGen is free software: you can redistribute it and/or modify
+ *        it under the terms of the GNU General Public License as published by
+ *        the Free Software Foundation, either version 3 of the License, or
+ *        (at your option) any later version.
+ *
+ *        AuditTableGen is distributed in the hope that it will be useful,
+ *        but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *        GNU General Public License for more details.
+ *
+ *        You should have received a copy of the GNU General Public License
+ *        along with AuditTableGen.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.certifi.audittablegen;
+
+/**
+ * Decides which tables need their column definitions read from the
+ * DataSource.  Tables that are not accepted are still listed, but without
+ * columns.
+ */
+public interface TableFilter {
+    
+    /**
+     * @param tableName name of the table as returned by the DataSource
+     * @return True if the columns of the table are needed.
+     */
+    boolean accept(String tableName);
+    
+}
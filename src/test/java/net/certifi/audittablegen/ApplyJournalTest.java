@@ -0,0 +1,105 @@
+/*    Copyright 2014 Certifi Inc.
+ *
+ *    This file is part of AuditTableGen.
+ *
+ *        AuditTableGen is free software: you can redistribute it and/or modify
+ *        it under the terms of the GNU General Public License as published by
+ *        the Free Software Foundation, either version 3 of the License, or
+ *        (at your option) any later version.
+ *
+ *        AuditTableGen is distributed in the hope that it will be useful,
+ *        but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *        GNU General Public License for more details.
+ *
+ *        You should have received a copy of the GNU General Public License
+ *        along with AuditTableGen.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.certifi.audittablegen;
+
+import com.google.common.base.Charsets;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+public class ApplyJournalTest {
+    
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    
+    public ApplyJournalTest() {
+    }
+    
+    /**
+     * Test of open and complete methods, of class ApplyJournal.  Completed
+     * groups are read back when the journal is opened again, and a line
+     * cut short by a crash is ignored.
+     */
+    @Test
+    public void testComplete() throws Exception {
+        System.out.println("complete");
+        File file = new File(folder.getRoot(), "journal");
+        String first = ApplyJournal.hash(Arrays.asList("create table a", "create trigger a"));
+        String second = ApplyJournal.hash(Arrays.asList("create table b"));
+        assertFalse(first.equals(ApplyJournal.hash(Arrays.asList("create table acreate trigger a"))));
+        
+        ApplyJournal instance = ApplyJournal.open(file, "plan 1");
+        assertFalse(instance.isCompleted(first));
+        instance.complete(first);
+        assertTrue(instance.isCompleted(first));
+        instance.close();
+        
+        try (FileOutputStream out = new FileOutputStream(file, true)){
+            out.write(second.substring(0, 10).getBytes(Charsets.UTF_8));
+        }
+        
+        instance = ApplyJournal.open(file, "plan 1");
+        assertEquals(1, instance.size());
+        assertTrue(instance.isCompleted(first));
+        assertFalse(instance.isCompleted(second));
+        instance.complete(second);
+        instance.close();
+        
+        instance = ApplyJournal.open(file, "plan 1");
+        assertEquals(2, instance.size());
+        assertTrue(instance.isCompleted(second));
+        
+        instance.delete();
+        assertFalse(file.exists());
+    }
+    
+    /**
+     * Test of open method, of class ApplyJournal, with a file that is not
+     * a journal.
+     */
+    @Test(expected = IOException.class)
+    public void testOpenInvalid() throws Exception {
+        System.out.println("openInvalid");
+        File file = folder.newFile("other");
+        try (FileOutputStream out = new FileOutputStream(file)){
+            out.write("not a journal\n".getBytes(Charsets.UTF_8));
+        }
+        
+        ApplyJournal.open(file, "plan 1");
+    }
+    
+    /**
+     * Test of open method, of class ApplyJournal, with a journal for
+     * something else.
+     */
+    @Test(expected = IOException.class)
+    public void testOpenOther() throws Exception {
+        System.out.println("openOther");
+        File file = new File(folder.getRoot(), "journal");
+        ApplyJournal instance = ApplyJournal.open(file, "plan 1");
+        instance.complete(ApplyJournal.hash(Arrays.asList("create table a")));
+        instance.close();
+        
+        ApplyJournal.open(file, "plan 2");
+    }
+}
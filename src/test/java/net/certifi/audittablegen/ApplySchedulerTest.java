@@ -0,0 +1,148 @@
+/*    Copyright 2014 Certifi Inc.
+ *
+ *    This file is part of AuditTableGen.
+ *
+ *        AuditTableGen is free software: you can redistribute it and/or modify
+ *        it under the terms of the GNU General Public License as published by
+ *        the Free Software Foundation, either version 3 of the License, or
+ *        (at your option) any later version.
+ *
+ *        AuditTableGen is distributed in the hope that it will be useful,
+ *        but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *        GNU General Public License for more details.
+ *
+ *        You should have received a copy of the GNU General Public License
+ *        along with AuditTableGen.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.certifi.audittablegen;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import javax.sql.DataSource;
+import org.junit.*;
+import org.mockito.InOrder;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class ApplySchedulerTest {
+    
+    public ApplySchedulerTest() {
+    }
+    
+    /**
+     * Test of submit method, of class ApplyScheduler.  A table referencing
+     * another, and a second batch for the same table, run after the batches
+     * submitted before them; failed statements are counted.
+     */
+    @Test
+    public void testSubmit() throws SQLException {
+        System.out.println("submit");
+        DataSource ds = HsqldbDMR.getRunTimeDataSource();
+        IdentifierMetaData idMetaData = new IdentifierMetaData();
+        idMetaData.setStoresUpperCaseIds(true);
+        ApplyScheduler instance = new ApplyScheduler(ds, 3, idMetaData, null, null);
+        
+        instance.submit("sched_a", Arrays.asList(
+                "CREATE TABLE SCHED_A (id integer PRIMARY KEY)"),
+                Collections.<String>emptySet());
+        instance.submit("SCHED_B", Arrays.asList(
+                "CREATE TABLE SCHED_B (id integer)",
+                "CREATE TABLE SCHED_B (id integer)",
+                "INSERT INTO SCHED_A (id) VALUES (1)"),
+                Arrays.asList("sched_a"));
+        instance.submit("SCHED_A", Arrays.asList(
+                "INSERT INTO SCHED_A (id) VALUES (2)"),
+                Collections.<String>emptySet());
+        instance.submit("SCHED_C", Arrays.asList(
+                "CREATE TABLE SCHED_C (id integer)"),
+                Collections.<String>emptySet());
+        
+        assertEquals(1, instance.finish());
+        
+        try (Connection conn = ds.getConnection();
+                ResultSet rs = conn.createStatement().executeQuery("SELECT COUNT(*) FROM SCHED_A")) {
+            assertTrue(rs.next());
+            assertEquals(2, rs.getInt(1));
+        }
+        
+        ExecutionSession session = new ExecutionSession(ds);
+        session.execute(Arrays.asList("DROP TABLE SCHED_B", "DROP TABLE SCHED_A", "DROP TABLE SCHED_C"));
+        session.close();
+    }
+    
+    /**
+     * Test of submit method, of class ApplyScheduler, with tables that can
+     * not get their locks.  The table is retried, then deferred to finish()
+     * along with the later statements for it, while other tables go on.
+     */
+    @Test
+    public void testSubmit_LockTimeout() throws SQLException {
+        System.out.println("submit_LockTimeout");
+        SQLException timeout = new SQLException("canceling statement due to lock timeout", "55P03");
+        List<ExecutionSession.Result> locked = Arrays.asList(
+                new ExecutionSession.Result("ALTER TABLE A", timeout));
+        ExecutionSession session = mock(ExecutionSession.class);
+        when(session.execute(Arrays.asList("ALTER TABLE A"))).thenReturn(locked);
+        when(session.execute(Arrays.asList("ALTER TABLE B"))).thenReturn(Arrays.asList(
+                new ExecutionSession.Result("ALTER TABLE B", null)));
+        when(session.execute(Arrays.asList("CREATE TRIGGER A"))).thenReturn(Arrays.asList(
+                new ExecutionSession.Result("CREATE TRIGGER A", null)));
+        IdentifierMetaData idMetaData = new IdentifierMetaData();
+        idMetaData.setStoresUpperCaseIds(true);
+        LockRetryPolicy lockRetry = new LockRetryPolicy(1000);
+        lockRetry.baseDelay = 1;
+        lockRetry.maxAttempts = 3;
+        ApplyScheduler instance = new ApplyScheduler(session, idMetaData, null, lockRetry);
+        
+        instance.submit("A", Arrays.asList("ALTER TABLE A"), Collections.<String>emptySet());
+        instance.submit("B", Arrays.asList("ALTER TABLE B"), Collections.<String>emptySet());
+        instance.submit("a", Arrays.asList("CREATE TRIGGER A"), Collections.<String>emptySet());
+        assertEquals(2, instance.deferred.size());
+        verify(session, times(3)).execute(Arrays.asList("ALTER TABLE A"));
+        verify(session, never()).execute(Arrays.asList("CREATE TRIGGER A"));
+        
+        assertEquals(1, instance.finish());
+        InOrder inOrder = inOrder(session);
+        inOrder.verify(session).execute(Arrays.asList("ALTER TABLE B"));
+        inOrder.verify(session, times(3)).execute(Arrays.asList("ALTER TABLE A"));
+        inOrder.verify(session).execute(Arrays.asList("CREATE TRIGGER A"));
+        assertTrue(LockRetryPolicy.isLockTimeout(new SQLException("rolled back", timeout)));
+    }
+    
+    /**
+     * Test of await method, of class ApplyScheduler.  Deferred tables stay
+     * deferred over the batches of a run, and are only retried by finish().
+     */
+    @Test
+    public void testAwait() throws SQLException {
+        System.out.println("await");
+        SQLException timeout = new SQLException("canceling statement due to lock timeout", "55P03");
+        ExecutionSession session = mock(ExecutionSession.class);
+        when(session.execute(Arrays.asList("ALTER TABLE A"))).thenReturn(Arrays.asList(
+                new ExecutionSession.Result("ALTER TABLE A", timeout)));
+        when(session.execute(Arrays.asList("ALTER TABLE B"))).thenReturn(Arrays.asList(
+                new ExecutionSession.Result("ALTER TABLE B", new SQLException("failed"))));
+        IdentifierMetaData idMetaData = new IdentifierMetaData();
+        LockRetryPolicy lockRetry = new LockRetryPolicy(1000);
+        lockRetry.baseDelay = 1;
+        lockRetry.maxAttempts = 1;
+        ApplyScheduler instance = new ApplyScheduler(session, idMetaData, null, lockRetry);
+        
+        instance.submit("A", Arrays.asList("ALTER TABLE A"), Collections.<String>emptySet());
+        assertEquals(0, instance.await());
+        instance.submit("B", Arrays.asList("ALTER TABLE B"), Collections.<String>emptySet());
+        assertEquals(1, instance.await());
+        assertEquals(1, instance.deferred.size());
+        verify(session, times(1)).execute(Arrays.asList("ALTER TABLE A"));
+        
+        assertEquals(1, instance.finish());
+        verify(session, times(2)).execute(Arrays.asList("ALTER TABLE A"));
+        assertTrue(instance.deferred.isEmpty());
+    }
+}
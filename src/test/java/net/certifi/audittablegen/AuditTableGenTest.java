@@ -18,12 +18,18 @@
 
 package net.certifi.audittablegen;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
 import java.sql.Connection;
 import java.sql.DatabaseMetaData;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import javax.sql.DataSource;
 import liquibase.Liquibase;
@@ -217,16 +223,25 @@ public class AuditTableGenTest {
         atg.initialized = true;
         List<ConfigAttribute> attribs = new ArrayList<>();
         List<TableDef> defs = new ArrayList<>();
+        TableDef td = new TableDef();
+        td.name = "Table1";
+        ColumnDef cd = new ColumnDef();
+        cd.name = "Table1Id";
+        cd.typeName = "integer";
+        td.addColumn(cd);
+        defs.add(td);
         
         when(dmr.hasAuditConfigTable()).thenReturn(true);
         when(dmr.getConfigAttributes()).thenReturn(attribs);
         when(dmr.getTables()).thenReturn(defs);
+        when(dmr.getTableNames()).thenReturn(Arrays.asList("Table1"));
+        when(dmr.getTableIterator(anyList(), any(TableFilter.class), anyInt())).thenReturn(defs.iterator());
         
         //this will get it to pass verification of data types
         when(dmr.getDataType(anyInt())).thenReturn(dtd);
 
         Boolean result = atg.updateAuditTables();
-        verify(dmr, times(1)).readDBChangeList(anyList());
+        verify(dmr, times(1)).readChangePlan(any(ChangePlan.class));
         assertEquals(true, result);
                 
     }
@@ -299,4 +314,176 @@ public class AuditTableGenTest {
         //that's it.
 
     }
+    
+    /**
+     * Test of applyPlan method, of class AuditTableGen.
+     * 
+     * The statements are only executed when none of the tables in the
+     * plan have changed since it was made.
+     */
+    @Test
+    public void testApplyPlan() throws Exception {
+        System.out.println("applyPlan");
+        
+        PlanFile plan = new PlanFile("public");
+        plan.addStatement(DBChangeType.createTriggers, "invoice", "invoice_audit", "create trigger x");
+        Map<String, String> current = new HashMap<>();
+        current.put("invoice", "a");
+        current.put("invoice_audit", "b");
+        plan.setFingerprints(current);
+        File file = File.createTempFile("plan", ".txt");
+        file.deleteOnExit();
+        plan.save(file);
+        
+        DataSourceDMR dmr = mock(DataSourceDMR.class);
+        atg.dmr = dmr;
+        atg.initialized = true;
+        atg.applyFile = file;
+        when(dmr.getSchema()).thenReturn("PUBLIC");
+        when(dmr.getTableFingerprints()).thenReturn(current);
+        
+        assertTrue(atg.updateAuditTables());
+        verify(dmr, times(1)).executeStatements(plan.statementTables, plan.statementAuditTables, plan.statements);
+        
+        current.put("invoice", "a2");
+        assertFalse(atg.updateAuditTables());
+        verify(dmr, times(1)).executeStatements(anyList(), anyList(), anyList());
+        verify(dmr, never()).hasAuditConfigTable();
+    }
+    
+    /**
+     * Test of applyPlan method, of class AuditTableGen, resuming from a
+     * journal.  Drift is accepted only on the tables of groups the journal
+     * records as applied, and a journal for another plan is refused.
+     */
+    @Test
+    public void testApplyPlan_Resume() throws Exception {
+        System.out.println("applyPlan_Resume");
+        
+        PlanFile plan = new PlanFile("public");
+        plan.addStatement(DBChangeType.createTriggers, "invoice", "invoice_audit", "create trigger x");
+        plan.addStatement(DBChangeType.createTriggers, "customer", "customer_audit", "create trigger y");
+        Map<String, String> current = new HashMap<>();
+        current.put("invoice", "a");
+        current.put("invoice_audit", "b");
+        current.put("customer", "c");
+        current.put("customer_audit", "d");
+        plan.setFingerprints(current);
+        File file = File.createTempFile("plan", ".txt");
+        file.deleteOnExit();
+        plan.save(file);
+        
+        File journalFile = File.createTempFile("journal", ".txt");
+        journalFile.delete();
+        journalFile.deleteOnExit();
+        ApplyJournal journal = ApplyJournal.open(journalFile, "plan " + PlanFile.load(file).hash);
+        journal.complete(ApplyJournal.hash(Arrays.asList("create trigger x")));
+        journal.close();
+        
+        DataSourceDMR dmr = mock(DataSourceDMR.class);
+        atg.dmr = dmr;
+        atg.initialized = true;
+        atg.applyFile = file;
+        atg.journalFile = journalFile;
+        when(dmr.getSchema()).thenReturn("PUBLIC");
+        when(dmr.getTableFingerprints()).thenReturn(current);
+        
+        //changed by someone else
+        current.put("customer", "c2");
+        current.put("invoice_audit", "b2");
+        assertFalse(atg.updateAuditTables());
+        verify(dmr, never()).executeStatements(anyList(), anyList(), anyList());
+        assertTrue(journalFile.exists());
+        
+        //changed by the earlier run of the plan
+        current.put("customer", "c");
+        assertTrue(atg.updateAuditTables());
+        verify(dmr, times(1)).executeStatements(anyList(), anyList(), anyList());
+        assertFalse(journalFile.exists());
+        
+        //a journal of another plan
+        journal = ApplyJournal.open(journalFile, "plan other");
+        journal.close();
+        assertFalse(atg.updateAuditTables());
+        verify(dmr, times(1)).executeStatements(anyList(), anyList(), anyList());
+        atg.journalFile = null;
+    }
+    
+    /**
+     * Test of applyPlan method, of class AuditTableGen, when applying the
+     * plan stops with an exception.  The journal is kept so the run can be
+     * resumed.
+     */
+    @Test
+    public void testApplyPlan_Exception() throws Exception {
+        System.out.println("applyPlan_Exception");
+        
+        PlanFile plan = new PlanFile("public");
+        plan.addStatement(DBChangeType.createTriggers, "invoice", "invoice_audit", "create trigger x");
+        Map<String, String> current = new HashMap<>();
+        current.put("invoice", "a");
+        current.put("invoice_audit", "b");
+        plan.setFingerprints(current);
+        File file = File.createTempFile("plan", ".txt");
+        file.deleteOnExit();
+        plan.save(file);
+        
+        File journalFile = File.createTempFile("journal", ".txt");
+        journalFile.delete();
+        journalFile.deleteOnExit();
+        
+        DataSourceDMR dmr = mock(DataSourceDMR.class);
+        atg.dmr = dmr;
+        atg.initialized = true;
+        atg.applyFile = file;
+        atg.journalFile = journalFile;
+        when(dmr.getSchema()).thenReturn("PUBLIC");
+        when(dmr.getTableFingerprints()).thenReturn(current);
+        doThrow(new IllegalStateException("connection lost")).when(dmr)
+                .executeStatements(anyList(), anyList(), anyList());
+        
+        try {
+            atg.updateAuditTables();
+            fail("exception not thrown");
+        } catch (IllegalStateException e) {
+            assertEquals("connection lost", e.getMessage());
+        }
+        verify(dmr, times(1)).close();
+        assertTrue(journalFile.exists());
+        atg.journalFile = null;
+    }
+    
+    /**
+     * Test of savePlan method, of class AuditTableGen, with the statements
+     * spilled to file.  The statements are counted before the spill file
+     * is deleted.
+     */
+    @Test
+    public void testSavePlan_Spill() throws Exception {
+        System.out.println("savePlan_Spill");
+        
+        File dir = File.createTempFile("spill", "");
+        dir.delete();
+        dir.mkdir();
+        dir.deleteOnExit();
+        PlanFile plan = new PlanFile("public");
+        plan.spillTo(dir);
+        plan.addStatement(DBChangeType.createTriggers, "invoice", "invoice_audit", "create trigger x");
+        plan.addStatement(DBChangeType.createTriggers, "customer", "customer_audit", "create trigger y");
+        atg.planFile = File.createTempFile("plan", ".txt");
+        atg.planFile.deleteOnExit();
+        
+        PrintStream out = System.out;
+        ByteArrayOutputStream captured = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(captured));
+        try {
+            assertTrue(atg.savePlan(plan, new HashMap<String, String>()));
+        } finally {
+            System.setOut(out);
+            atg.planFile = null;
+        }
+        
+        assertTrue(captured.toString().startsWith("Plan with 2 statements"));
+        assertEquals(0, dir.list().length);
+    }
 }
@@ -0,0 +1,178 @@
+/*    Copyright 2014 Certifi Inc.
+ *
+ *    This file is part of AuditTableGen.
+ *
+ *        AuditTableGen is free software: you can redistribute it and/or modify
+ *        it under the terms of the GNU General Public License as published by
+ *        the Free Software Foundation, either version 3 of the License, or
+ *        (at your option) any later version.
+ *
+ *        AuditTableGen is distributed in the hope that it will be useful,
+ *        but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *        GNU General Public License for more details.
+ *
+ *        You should have received a copy of the GNU General Public License
+ *        along with AuditTableGen.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.certifi.audittablegen;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class ChangePipelineTest {
+    
+    ConfigSource configSource = new ConfigSource();
+    
+    public ChangePipelineTest() {
+    }
+    
+    @Before
+    public void setUp() {
+        for (int i = 0; i < 50; i++){
+            TableDef td = new TableDef();
+            td.name = "Table" + i;
+            ColumnDef cd = new ColumnDef();
+            cd.name = "Data" + i;
+            cd.typeName = "varchar";
+            cd.size = 255;
+            td.addColumn(cd);
+            configSource.addTable(td);
+            if (i % 2 == 0){
+                TableDef audit = new TableDef();
+                audit.name = "zz_Table" + i;
+                audit.addColumn(cd);
+                configSource.addTable(audit);
+            }
+        }
+    }
+    
+    /**
+     * Test of nextBatch method, of class ChangePipeline.
+     * 
+     * With several planning threads and a small queue the changes
+     * still come out in table order.
+     */
+    @Test
+    public void testNextBatch() {
+        System.out.println("nextBatch");
+        ChangeSourceFactory factory = new ChangeSourceFactory(configSource);
+        List<DBChangeUnit> expected = factory.getDBChangeList();
+        
+        factory.setMaxThreads(4);
+        ChangePipeline instance = new ChangePipeline(factory, factory.getTablePairs().iterator(), 2);
+        List<DBChangeUnit> result = new ArrayList<>();
+        instance.start();
+        try {
+            while (instance.hasNext()){
+                List<DBChangeUnit> batch = instance.nextBatch(3);
+                assertNotNull(ChangePlan.of(batch));
+                result.addAll(batch);
+            }
+        } finally {
+            instance.close();
+        }
+        
+        assertEquals(expected.size(), result.size());
+        for (int i = 0; i < expected.size(); i++){
+            assertEquals(expected.get(i).getChangeType(), result.get(i).getChangeType());
+            assertEquals(expected.get(i).getTableName(), result.get(i).getTableName());
+            assertEquals(expected.get(i).getColumnName(), result.get(i).getColumnName());
+        }
+    }
+    
+    /**
+     * Test of nextBatch method, of class ChangePipeline, when reading
+     * the tables fails part way.
+     */
+    @Test
+    public void testNextBatch_ReadError() {
+        System.out.println("nextBatch_ReadError");
+        ChangeSourceFactory factory = new ChangeSourceFactory(configSource);
+        final Iterator<TableDef[]> pairs = factory.getTablePairs().iterator();
+        Iterator<TableDef[]> failing = new Iterator<TableDef[]>() {
+            int count = 0;
+            @Override
+            public boolean hasNext() {
+                return pairs.hasNext();
+            }
+            @Override
+            public TableDef[] next() {
+                if (++count > 2){
+                    throw new IllegalStateException("read failed");
+                }
+                return pairs.next();
+            }
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+        
+        ChangePipeline instance = new ChangePipeline(factory, failing, 10);
+        instance.start();
+        int tables = 0;
+        try {
+            while (instance.hasNext()){
+                instance.nextBatch(1);
+                tables++;
+            }
+            fail("read error not thrown");
+        } catch (IllegalStateException e) {
+            assertEquals("read failed", e.getMessage());
+        } finally {
+            instance.close();
+        }
+        assertEquals(2, tables);
+    }
+    
+    /**
+     * Test of nextBatch method, of class ChangePipeline, when reading
+     * the tables fails with an Error.  The Error is thrown to the caller
+     * instead of leaving it waiting.
+     */
+    @Test(timeout = 10000)
+    public void testNextBatch_ReadErrorThrowable() {
+        System.out.println("nextBatch_ReadErrorThrowable");
+        ChangeSourceFactory factory = new ChangeSourceFactory(configSource);
+        final Iterator<TableDef[]> pairs = factory.getTablePairs().iterator();
+        Iterator<TableDef[]> failing = new Iterator<TableDef[]>() {
+            int count = 0;
+            @Override
+            public boolean hasNext() {
+                return pairs.hasNext();
+            }
+            @Override
+            public TableDef[] next() {
+                if (++count > 1){
+                    throw new OutOfMemoryError("read failed");
+                }
+                return pairs.next();
+            }
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+        
+        ChangePipeline instance = new ChangePipeline(factory, failing, 10);
+        instance.start();
+        int tables = 0;
+        try {
+            while (instance.hasNext()){
+                instance.nextBatch(1);
+                tables++;
+            }
+            fail("read error not thrown");
+        } catch (OutOfMemoryError e) {
+            assertEquals("read failed", e.getMessage());
+        } finally {
+            instance.close();
+        }
+        assertEquals(1, tables);
+    }
+}
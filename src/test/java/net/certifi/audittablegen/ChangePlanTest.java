@@ -0,0 +1,84 @@
+/*    Copyright 2014 Certifi Inc.
+ *
+ *    This file is part of AuditTableGen.
+ *
+ *        AuditTableGen is free software: you can redistribute it and/or modify
+ *        it under the terms of the GNU General Public License as published by
+ *        the Free Software Foundation, either version 3 of the License, or
+ *        (at your option) any later version.
+ *
+ *        AuditTableGen is distributed in the hope that it will be useful,
+ *        but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *        GNU General Public License for more details.
+ *
+ *        You should have received a copy of the GNU General Public License
+ *        along with AuditTableGen.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.certifi.audittablegen;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class ChangePlanTest {
+    
+    public ChangePlanTest() {
+    }
+    
+    List<DBChangeUnit> getUnits(){
+        ConfigSource configSource = new ConfigSource();
+        for (String name : new String[]{"Table1", "Table2"}){
+            TableDef td = new TableDef();
+            td.name = name;
+            ColumnDef cd = new ColumnDef();
+            cd.name = "Data";
+            cd.typeName = "varchar";
+            cd.size = 255;
+            td.addColumn(cd);
+            configSource.addTable(td);
+        }
+        return new ChangeSourceFactory(configSource).getDBChangeList();
+    }
+    
+    /**
+     * Test of of method, of class ChangePlan.
+     */
+    @Test
+    public void testOf() {
+        System.out.println("of");
+        List<DBChangeUnit> units = getUnits();
+        ChangePlan instance = ChangePlan.of(units);
+        
+        //create table and triggers for each table
+        assertEquals(4, instance.size());
+        assertEquals(units.size(), instance.getUnitCount());
+        assertEquals(DBChangeType.createTable, instance.get(0).getChangeType());
+        assertEquals(DBChangeType.createTriggers, instance.get(1).getChangeType());
+        assertEquals("Table2", instance.get(3).getTableName());
+        assertEquals(ShapeCache.getKey(units), ShapeCache.getKey(instance.toUnitList()));
+        
+        //operations read as begin, header, details, end
+        List<DBChangeUnit> op = instance.get(1).toUnitList();
+        assertEquals(DBChangeType.begin, op.get(0).getChangeType());
+        assertSame(instance.get(1).getHeader(), op.get(1));
+        assertEquals(DBChangeType.end, op.get(op.size() - 1).getChangeType());
+        assertTrue(DBChangeUnit.validateUnitList(op));
+    }
+    
+    /**
+     * Test of of method, of class ChangePlan, with a list that is not valid.
+     */
+    @Test
+    public void testOfInvalid() {
+        System.out.println("ofInvalid");
+        List<DBChangeUnit> units = new ArrayList<>();
+        units.add(new DBChangeUnit(DBChangeType.begin));
+        units.add(new DBChangeUnit(DBChangeType.end));
+        
+        assertNull(ChangePlan.of(units));
+        assertEquals(0, ChangePlan.of(new ArrayList<DBChangeUnit>()).size());
+    }
+}
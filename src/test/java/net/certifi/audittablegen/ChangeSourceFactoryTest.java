@@ -19,9 +19,14 @@
 package net.certifi.audittablegen;
 
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
 import org.junit.*;
 import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.*;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
@@ -136,6 +141,8 @@ public class ChangeSourceFactoryTest {
         Boolean expResult = true;
         Boolean result = instance.hasTriggerType(tableName, type);
         assertEquals(expResult, result);
+        assertFalse(instance.hasTriggerType("INVOICE", ConfigAttributeTypes.auditdelete));
+        assertTrue(instance.hasTriggerType("customer", ConfigAttributeTypes.auditdelete));
 
     }
 
@@ -273,6 +280,340 @@ public class ChangeSourceFactoryTest {
         
     }
 
+    /**
+     * Test of getDBChangeList method, of class ChangeSourceFactory, with
+     * tables that are unchanged since the last run.
+     */
+    @Test
+    public void testGetDBChangeList_unchangedTables() {
+        System.out.println("getDBChangeList_unchangedTables");
+        
+        for (String name : new String[]{"Table1", "zz_Table1", "Table2", "zz_Table2", "Table3"}){
+            TableDef td = new TableDef();
+            td.name = name;
+            ColumnDef cd = new ColumnDef();
+            cd.name = "Data";
+            cd.typeName = "varchar";
+            cd.size = 255;
+            td.addColumn(cd);
+            configSource.addTable(td);
+        }
+
+        ChangeSourceFactory instance = new ChangeSourceFactory(configSource);
+        List<String> unchanged = new ArrayList<>();
+        unchanged.add("TABLE1");
+        unchanged.add("ZZ_TABLE1");
+        unchanged.add("Table2"); //audit table changed
+        unchanged.add("Table3"); //no audit table yet
+        instance.setUnchangedTables(unchanged);
+        
+        assertTrue(instance.isUnchanged("Table1"));
+        assertFalse(instance.isUnchanged("Table2"));
+        assertFalse(instance.isUnchanged("Table3"));
+        
+        List<DBChangeUnit> result = instance.getDBChangeList();
+        for (DBChangeUnit unit : result){
+            assertFalse(unit.getTableName().equalsIgnoreCase("Table1"));
+            assertFalse(unit.getTableName().equalsIgnoreCase("zz_Table1"));
+        }
+        assertTrue(result.size() > 0);
+    }
+
+    /**
+     * Test of accept method, of class ChangeSourceFactory.
+     */
+    @Test
+    public void testAccept() {
+        System.out.println("accept");
+        ConfigAttribute attrib = new ConfigAttribute();
+        attrib.setType(ConfigAttributeTypes.exclude);
+        attrib.setTableName("staging");
+        configSource.addAttribute(attrib);
+        ChangeSourceFactory instance = new ChangeSourceFactory(configSource);
+        
+        assertTrue(instance.accept("invoice"));
+        assertTrue(instance.accept("zz_invoice"));
+        assertFalse(instance.accept("staging"));
+        assertFalse(instance.accept("ZZ_STAGING"));
+    }
+
+    /**
+     * Test of getDBChangeList method, of class ChangeSourceFactory, with
+     * tables added after the factory was created, excluded ones
+     * without columns.
+     */
+    @Test
+    public void testGetDBChangeList_addTables() {
+        System.out.println("getDBChangeList_addTables");
+        ConfigAttribute attrib = new ConfigAttribute();
+        attrib.setType(ConfigAttributeTypes.exclude);
+        attrib.setTableName("staging");
+        configSource.addAttribute(attrib);
+        ChangeSourceFactory instance = new ChangeSourceFactory(configSource);
+        
+        List<TableDef> tables = new ArrayList<>();
+        for (String name : new String[]{"invoice", "staging", "zz_staging"}){
+            TableDef td = new TableDef();
+            td.name = name;
+            if (instance.accept(name)){
+                ColumnDef cd = new ColumnDef();
+                cd.name = "Data";
+                cd.typeName = "varchar";
+                cd.size = 255;
+                td.addColumn(cd);
+            }
+            tables.add(td);
+        }
+        instance.addTables(tables);
+        
+        assertEquals(3, configSource.allTables.size());
+        assertTrue(instance.auditTablesMap.containsKey(instance.getIdentifier("zz_staging")));
+        
+        List<DBChangeUnit> result = instance.getDBChangeList("staging");
+        assertEquals(3, result.size());
+        assertEquals(DBChangeType.dropTriggers, result.get(1).getChangeType());
+        
+        //nothing to drop if the table is known to have no audit trigger
+        instance.baseTableMap.get(instance.getIdentifier("staging")).setAuditTrigger(Boolean.FALSE);
+        assertTrue(instance.getDBChangeList("staging").isEmpty());
+        
+        result = instance.getDBChangeList("invoice");
+        assertEquals(DBChangeType.createTable, result.get(1).getChangeType());
+    }
+
+    /**
+     * Test of getPlanningOrder and getDBChangeList(Iterator) methods, of class
+     * ChangeSourceFactory.  Planning from an iterator should give the same
+     * changes as planning from the table lists.
+     */
+    @Test
+    public void testGetDBChangeList_Iterator() {
+        System.out.println("getDBChangeList_Iterator");
+        
+        List<TableDef> tables = new ArrayList<>();
+        for (String name : new String[]{"Table1", "Table2", "zz_Table1", "zz_Orphan"}){
+            TableDef td = new TableDef();
+            td.name = name;
+            ColumnDef cd = new ColumnDef();
+            cd.name = "Data";
+            cd.typeName = "varchar";
+            cd.size = 255;
+            td.addColumn(cd);
+            tables.add(td);
+            configSource.addTable(td);
+        }
+        ChangeSourceFactory instance = new ChangeSourceFactory(configSource);
+        
+        List<String> names = new ArrayList<>();
+        for (TableDef td : tables){
+            names.add(td.name);
+        }
+        List<String> order = instance.getPlanningOrder(names);
+        assertEquals(3, order.size());
+        assertEquals("Table1", order.get(0));
+        assertEquals("zz_Table1", order.get(1));
+        assertEquals("Table2", order.get(2));
+        
+        List<TableDef> ordered = new ArrayList<>();
+        ordered.add(tables.get(0));
+        ordered.add(tables.get(2));
+        ordered.add(tables.get(1));
+        
+        List<DBChangeUnit> expected = instance.getDBChangeList();
+        //plan one table at a time, on two threads
+        instance.batchSize = 1;
+        instance.setMaxThreads(2);
+        List<DBChangeUnit> result = instance.getDBChangeList(ordered.iterator());
+        
+        assertEquals(expected.size(), result.size());
+        for (int i = 0; i < expected.size(); i++){
+            assertEquals(expected.get(i).getChangeType(), result.get(i).getChangeType());
+            assertEquals(expected.get(i).getTableName(), result.get(i).getTableName());
+            assertEquals(expected.get(i).getColumnName(), result.get(i).getColumnName());
+        }
+    }
+
+    /**
+     * Test of getDBChangeList method, of class ChangeSourceFactory, for
+     * tables with the same shape.  The plan is made once and re-targeted,
+     * and should be the same as planning each table.
+     */
+    @Test
+    public void testGetDBChangeList_Shape() {
+        System.out.println("getDBChangeList_Shape");
+        
+        ConfigAttribute attrib = new ConfigAttribute();
+        attrib.setType(ConfigAttributeTypes.tableprefix);
+        attrib.setValue("shape_");
+        configSource.addAttribute(attrib);
+        ChangeSourceFactory instance = new ChangeSourceFactory(configSource);
+        
+        List<TableDef[]> pairs = new ArrayList<>();
+        for (String name : new String[]{"tenant1", "tenant2", "Tenant3"}){
+            TableDef td = new TableDef();
+            td.name = name;
+            ColumnDef cd = new ColumnDef();
+            cd.name = name + "Id";
+            cd.typeName = "integer";
+            td.addColumn(cd);
+            cd = new ColumnDef();
+            cd.name = "Data";
+            cd.typeName = "varchar";
+            cd.size = 20;
+            td.addColumn(cd);
+            TableDef audit = new TableDef();
+            audit.name = "shape_" + name;
+            cd = new ColumnDef();
+            cd.name = name + "Id";
+            cd.typeName = "integer";
+            audit.addColumn(cd);
+            cd = new ColumnDef();
+            cd.name = "Data";
+            cd.typeName = "varchar";
+            cd.size = 10;
+            audit.addColumn(cd);
+            pairs.add(new TableDef[]{td, audit});
+        }
+        
+        ShapeCache cache = instance.getPlanCache();
+        int size = cache.size();
+        for (TableDef[] pair : pairs){
+            List<DBChangeUnit> expected = instance.planTable(pair[0], pair[1]);
+            List<DBChangeUnit> result = instance.getDBChangeList(pair[0], pair[1]);
+            assertEquals(ShapeCache.getKey(expected), ShapeCache.getKey(result));
+        }
+        //one shape for all three
+        assertEquals(size + 1, cache.size());
+        
+        //a table named like the audit columns is planned on its own
+        TableDef td = new TableDef();
+        td.name = "zz";
+        ColumnDef cd = new ColumnDef();
+        cd.name = "Data";
+        cd.typeName = "varchar";
+        td.addColumn(cd);
+        assertNull(new ChangeSourceFactory(new ConfigSource()).getShapeKey(td, null, "zz_zz"));
+    }
+
+    /**
+     * Test of getTablePairs method, of class ChangeSourceFactory, when the
+     * columns of some base tables cannot be read.  Their audit tables must
+     * not be planned as base tables.
+     */
+    @Test
+    public void testGetTablePairs_BaseTableNotRead() {
+        System.out.println("getTablePairs_BaseTableNotRead");
+        
+        DataSourceDMR dmr = mock(DataSourceDMR.class);
+        //tables named broken* cannot be read
+        when(dmr.getTables(any(Collection.class))).thenAnswer(new Answer<List<TableDef>>() {
+            @Override
+            public List<TableDef> answer(InvocationOnMock invocation) {
+                List<TableDef> tables = new ArrayList<>();
+                for (String name : (Collection<String>) invocation.getArguments()[0]){
+                    if (name.startsWith("broken")){
+                        continue;
+                    }
+                    TableDef td = new TableDef();
+                    td.setName(name);
+                    td.addColumn(new ColumnDef());
+                    tables.add(td);
+                }
+                return tables;
+            }
+        });
+        ChangeSourceFactory instance = new ChangeSourceFactory(configSource);
+        List<String> order = Arrays.asList("brokenA", "zz_brokenA", "Table2", "zz_Table2",
+                "Table3", "brokenB", "zz_brokenB");
+        
+        Iterator<TableDef[]> pairs = instance.getTablePairs(new TableDefIterator(dmr, order, instance, 2));
+        
+        assertTrue(pairs.hasNext());
+        TableDef[] pair = pairs.next();
+        assertEquals("Table2", pair[0].getName());
+        assertEquals("zz_Table2", pair[1].getName());
+        assertTrue(pairs.hasNext());
+        pair = pairs.next();
+        assertEquals("Table3", pair[0].getName());
+        assertNull(pair[1]);
+        assertFalse(pairs.hasNext());
+    }
+
+    /**
+     * Test of getPlanCache method, of class ChangeSourceFactory.  Factories
+     * only share plans for the same database product and identifier case,
+     * and only a bounded number of caches is kept.
+     */
+    @Test
+    public void testGetPlanCache() {
+        System.out.println("getPlanCache");
+        
+        ChangeSourceFactory instance = new ChangeSourceFactory(new ConfigSource());
+        instance.setDatabaseProduct("HSQL Database Engine 2.3.0");
+        ChangeSourceFactory other = new ChangeSourceFactory(new ConfigSource());
+        other.setDatabaseProduct("HSQL Database Engine 2.3.0");
+        assertSame(instance.getPlanCache(), other.getPlanCache());
+        
+        other.setDatabaseProduct("PostgreSQL 9.1");
+        assertNotSame(instance.getPlanCache(), other.getPlanCache());
+        
+        ConfigSource upperCase = new ConfigSource();
+        IdentifierMetaData idMetaData = new IdentifierMetaData();
+        idMetaData.setStoresLowerCaseIds(false);
+        idMetaData.setStoresUpperCaseIds(true);
+        upperCase.setIdentifierMetaData(idMetaData);
+        other = new ChangeSourceFactory(upperCase);
+        other.setDatabaseProduct("HSQL Database Engine 2.3.0");
+        assertNotSame(instance.getPlanCache(), other.getPlanCache());
+        
+        //the caches of the least recently used configurations are dropped
+        ShapeCache cache = instance.getPlanCache();
+        for (int i = 0; i < ShapeCache.MAX_SHARED; i++){
+            ShapeCache.getShared("testGetPlanCache|" + i);
+        }
+        assertEquals(ShapeCache.MAX_SHARED, ShapeCache.shared.size());
+        assertNotSame(cache, instance.getPlanCache());
+    }
+
+    /**
+     * Test of getDBChangeList method, of class ChangeSourceFactory, with
+     * more than one thread.  The changes should be the same and in the
+     * same order as when planned on one thread.
+     */
+    @Test
+    public void testGetDBChangeList_Parallel() {
+        System.out.println("getDBChangeList_Parallel");
+        
+        for (int i = 0; i < 100; i++){
+            TableDef td = new TableDef();
+            td.name = "Table" + i;
+            ColumnDef cd = new ColumnDef();
+            cd.name = "Data" + i;
+            cd.typeName = "varchar";
+            cd.size = 255;
+            td.addColumn(cd);
+            configSource.addTable(td);
+            if (i % 2 == 0){
+                TableDef audit = new TableDef();
+                audit.name = "zz_Table" + i;
+                audit.addColumn(cd);
+                configSource.addTable(audit);
+            }
+        }
+        ChangeSourceFactory instance = new ChangeSourceFactory(configSource);
+        
+        List<DBChangeUnit> expected = instance.getDBChangeList();
+        instance.setMaxThreads(4);
+        List<DBChangeUnit> result = instance.getDBChangeList();
+        
+        assertEquals(expected.size(), result.size());
+        for (int i = 0; i < expected.size(); i++){
+            assertEquals(expected.get(i).getChangeType(), result.get(i).getChangeType());
+            assertEquals(expected.get(i).getTableName(), result.get(i).getTableName());
+            assertEquals(expected.get(i).getColumnName(), result.get(i).getColumnName());
+        }
+    }
+
     /**
      * Test of verifyAuditColumnDataTypes method, of class ChangeSourceFactory.
      */
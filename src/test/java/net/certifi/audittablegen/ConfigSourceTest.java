@@ -93,6 +93,92 @@ public class ConfigSourceTest {
         assertEquals(1, instance.dbAttribs.size());
     }
 
+    /**
+     * Test of addAttribute method, of class ConfigSource, with an exclude
+     * whose pattern is not valid.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testAddAttribute_InvalidPattern() {
+        System.out.println("addAttribute_InvalidPattern");
+
+        ConfigAttribute at = new ConfigAttribute();
+        at.setType(ConfigAttributeTypes.exclude);
+        at.setTableName("re:tmp_(");
+        ConfigSource instance = new ConfigSource();
+        
+        instance.addAttribute(at);
+    }
+
+    /**
+     * Test of getTableConfig method, of class ConfigSource.
+     */
+    @Test
+    public void testGetTableConfigIndex() {
+        System.out.println("getTableConfig");
+        ConfigSource instance = new ConfigSource();
+        
+        for (int i = 0; i < 1000; i++){
+            ConfigAttribute at = new ConfigAttribute();
+            at.setType(ConfigAttributeTypes.auditupdate);
+            at.setTableName("table" + i);
+            at.setBooleanValue(Boolean.FALSE);
+            instance.addAttribute(at);
+        }
+        ConfigAttribute at = new ConfigAttribute();
+        at.setType(ConfigAttributeTypes.auditupdate);
+        at.setTableName("TABLE5");
+        at.setBooleanValue(Boolean.TRUE);
+        instance.addAttribute(at);
+        
+        assertEquals(1000, instance.tablesConfig.size());
+        assertFalse(instance.getTableConfig("Table1").getHasUpdateTrigger());
+        assertTrue(instance.getTableConfig("Table1").getHasInsertTrigger());
+        //last attribute wins
+        assertTrue(instance.getTableConfig("table5").getHasUpdateTrigger());
+        assertNull(instance.getTableConfig("table1000"));
+    }
+
+    /**
+     * Test of getPlanningConfig method, of class ConfigSource.
+     */
+    @Test
+    public void testGetPlanningConfig() {
+        System.out.println("getPlanningConfig");
+        ConfigSource instance = new ConfigSource();
+        
+        ConfigAttribute at = new ConfigAttribute();
+        at.setType(ConfigAttributeTypes.exclude);
+        at.setTableName("orders");
+        at.setColumnName("*");
+        instance.addAttribute(at);
+        at = new ConfigAttribute();
+        at.setType(ConfigAttributeTypes.include);
+        at.setTableName("ord*");
+        at.setColumnName("amount");
+        instance.addAttribute(at);
+        at = new ConfigAttribute();
+        at.setType(ConfigAttributeTypes.auditdelete);
+        at.setTableName("orders");
+        at.setBooleanValue(Boolean.FALSE);
+        instance.addAttribute(at);
+        
+        TableConfig tableConfig = instance.getPlanningConfig("ORDERS");
+        assertFalse(tableConfig.getExcludeTable());
+        assertFalse(tableConfig.getHasDeleteTrigger());
+        assertTrue(tableConfig.isColumnExcluded("status"));
+        assertFalse(tableConfig.isColumnExcluded("amount"));
+        //resolved once per table
+        assertSame(tableConfig, instance.getPlanningConfig("orders"));
+        
+        //new attributes are picked up
+        at = new ConfigAttribute();
+        at.setType(ConfigAttributeTypes.exclude);
+        at.setTableName("orders");
+        instance.addAttribute(at);
+        assertTrue(instance.getPlanningConfig("orders").getExcludeTable());
+        assertFalse(instance.getPlanningConfig("customers").getExcludeTable());
+    }
+
     /**
      * Test of addTable method, of class ConfigSource.
      */
@@ -0,0 +1,130 @@
+/*    Copyright 2014 Certifi Inc.
+ *
+ *    This file is part of AuditTableGen.
+ *
+ *        AuditTableGen is free software: you can redistribute it and/or modify
+ *        it under the terms of the GNU General Public License as published by
+ *        the Free Software Foundation, either version 3 of the License, or
+ *        (at your option) any later version.
+ *
+ *        AuditTableGen is distributed in the hope that it will be useful,
+ *        but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *        GNU General Public License for more details.
+ *
+ *        You should have received a copy of the GNU General Public License
+ *        along with AuditTableGen.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.certifi.audittablegen;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.*;
+import javax.sql.DataSource;
+import org.junit.*;
+import static org.junit.Assert.*;
+import org.junit.rules.TemporaryFolder;
+import static org.mockito.Mockito.*;
+
+public class DataTypeRegistryTest {
+    
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    
+    public DataTypeRegistryTest() {
+    }
+    
+    DataTypeDef getDataTypeDef(String name, int dataType){
+        DataTypeDef dtd = new DataTypeDef();
+        dtd.type_name = name;
+        dtd.data_type = dataType;
+        dtd.create_params = name.equals("varchar") ? "length" : null;
+        dtd.createWithSize = name.equals("varchar");
+        return dtd;
+    }
+    
+    /**
+     * Test of get methods, of class DataTypeRegistry.
+     */
+    @Test
+    public void testGet() {
+        System.out.println("get");
+        DataTypeRegistry instance = new DataTypeRegistry();
+        instance.add(getDataTypeDef("int4", Types.INTEGER));
+        instance.add(getDataTypeDef("serial", Types.INTEGER));
+        instance.add(getDataTypeDef("varchar", Types.VARCHAR));
+        
+        assertEquals("varchar", instance.get("VARCHAR").type_name);
+        //first type added wins for the sql type
+        assertEquals("int4", instance.get(Types.INTEGER).type_name);
+        assertNull(instance.get(Types.BLOB));
+    }
+
+    /**
+     * Test of save and load methods, of class DataTypeRegistry.
+     */
+    @Test
+    public void testSaveLoad() throws IOException {
+        System.out.println("saveLoad");
+        DataTypeRegistry instance = new DataTypeRegistry();
+        instance.add(getDataTypeDef("int4", Types.INTEGER));
+        instance.add(getDataTypeDef("varchar", Types.VARCHAR));
+        File file = DataTypeRegistry.getCacheFile(folder.getRoot(), "PostgreSQL 9.1/3");
+        
+        instance.save(file);
+        DataTypeRegistry result = DataTypeRegistry.load(file);
+        
+        assertEquals("PostgreSQL_9.1_3.types", file.getName());
+        assertEquals(2, result.types.size());
+        assertEquals("length", result.get("varchar").create_params);
+        assertTrue(result.get("varchar").createWithSize);
+        assertNull(result.get("int4").create_params);
+        assertEquals(Types.INTEGER, result.get(Types.INTEGER).data_type);
+        assertNull(DataTypeRegistry.load(new File(folder.getRoot(), "missing.types")));
+    }
+
+    /**
+     * Test of sharing data types between GenericDMR objects, in the JVM
+     * and through the cache directory.
+     */
+    @Test
+    public void testShared() throws SQLException {
+        System.out.println("shared");
+        DataSource dataSource = mock(DataSource.class);
+        Connection conn = mock(Connection.class);
+        DatabaseMetaData dmd = mock(DatabaseMetaData.class);
+        ResultSet rsTypes = mock(ResultSet.class);
+        when(dataSource.getConnection()).thenReturn(conn);
+        when(conn.getMetaData()).thenReturn(dmd);
+        when(dmd.getDatabaseProductName()).thenReturn("DataTypeRegistryTest");
+        when(dmd.getDatabaseProductVersion()).thenReturn("1.0");
+        when(dmd.getTypeInfo()).thenReturn(rsTypes);
+        when(rsTypes.isBeforeFirst()).thenReturn(Boolean.TRUE);
+        when(rsTypes.next()).thenReturn(true, true, false);
+        when(rsTypes.getString("TYPE_NAME")).thenReturn("integer","char");
+        when(rsTypes.getInt("DATA_TYPE")).thenReturn(Types.INTEGER, Types.CHAR);
+        
+        GenericDMR first = new GenericDMR(dataSource);
+        first.setTypeCacheDir(folder.getRoot());
+        assertEquals(Types.CHAR, first.getDataType("char").data_type);
+        
+        //same JVM
+        GenericDMR second = new GenericDMR(dataSource);
+        assertEquals("integer", second.getDataType(Types.INTEGER).type_name);
+        
+        //next run
+        DataTypeRegistry.shared.clear();
+        GenericDMR third = new GenericDMR(dataSource);
+        third.setTypeCacheDir(folder.getRoot());
+        assertEquals("integer", third.getDataType(Types.INTEGER).type_name);
+        
+        verify(dmd, times(1)).getTypeInfo();
+        
+        //a type missing from the cache reads the types again, once
+        assertNull(third.getDataType("text"));
+        assertNull(third.getDataType("text"));
+        verify(dmd, times(2)).getTypeInfo();
+        DataTypeRegistry.shared.clear();
+    }
+}
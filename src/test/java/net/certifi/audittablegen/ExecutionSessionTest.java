@@ -0,0 +1,110 @@
+/*    Copyright 2014 Certifi Inc.
+ *
+ *    This file is part of AuditTableGen.
+ *
+ *        AuditTableGen is free software: you can redistribute it and/or modify
+ *        it under the terms of the GNU General Public License as published by
+ *        the Free Software Foundation, either version 3 of the License, or
+ *        (at your option) any later version.
+ *
+ *        AuditTableGen is distributed in the hope that it will be useful,
+ *        but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *        GNU General Public License for more details.
+ *
+ *        You should have received a copy of the GNU General Public License
+ *        along with AuditTableGen.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.certifi.audittablegen;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.List;
+import javax.sql.DataSource;
+import org.junit.*;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class ExecutionSessionTest {
+    
+    public ExecutionSessionTest() {
+    }
+    
+    /**
+     * Test of execute method, of class ExecutionSession.  A failed statement
+     * in a batch is reported, and the statements after it still run, on
+     * the one connection.
+     */
+    @Test
+    public void testExecute() throws SQLException {
+        System.out.println("execute");
+        DataSource ds = spy(HsqldbDMR.getRunTimeDataSource());
+        ExecutionSession instance = new ExecutionSession(ds);
+        
+        List<ExecutionSession.Result> results = instance.execute(Arrays.asList(
+                "CREATE TABLE SESSION_A (id integer)",
+                "CREATE TABLE SESSION_A (id integer)",
+                "CREATE TABLE SESSION_B (id integer)"));
+        
+        assertEquals(3, results.size());
+        assertFalse(results.get(0).isFailed());
+        assertTrue(results.get(1).isFailed());
+        assertFalse(results.get(2).isFailed());
+        assertEquals("CREATE TABLE SESSION_B (id integer)", results.get(2).sql);
+        
+        results = instance.execute(Arrays.asList("DROP TABLE SESSION_A"));
+        assertFalse(results.get(0).isFailed());
+        verify(ds, times(1)).getConnection();
+        
+        instance.close();
+        assertNull(instance.conn);
+        
+        try (Connection conn = ds.getConnection();
+                ResultSet rs = conn.getMetaData().getTables(null, "PUBLIC", "SESSION_%", null)) {
+            assertTrue(rs.next());
+            assertEquals("SESSION_B", rs.getString("TABLE_NAME"));
+            assertFalse(rs.next());
+        }
+        instance.execute(Arrays.asList("DROP TABLE SESSION_B"));
+        instance.close();
+    }
+    
+    /**
+     * Test of execute method, of class ExecutionSession, where DDL is
+     * transactional.  A failed statement rolls back the others.
+     */
+    @Test
+    public void testExecute_Transactional() throws SQLException {
+        System.out.println("execute_Transactional");
+        DataSource ds = mock(DataSource.class);
+        Connection conn = mock(Connection.class);
+        DatabaseMetaData dmd = mock(DatabaseMetaData.class);
+        Statement stmt = mock(Statement.class);
+        when(ds.getConnection()).thenReturn(conn);
+        when(conn.getMetaData()).thenReturn(dmd);
+        when(conn.createStatement()).thenReturn(stmt);
+        when(dmd.supportsDataDefinitionAndDataManipulationTransactions()).thenReturn(true);
+        when(stmt.executeUpdate("bad")).thenThrow(new SQLException("bad"));
+        ExecutionSession instance = new ExecutionSession(ds);
+        
+        List<ExecutionSession.Result> results = instance.execute(Arrays.asList("good", "also good"));
+        assertFalse(results.get(0).isFailed());
+        assertFalse(results.get(1).isFailed());
+        verify(conn).setAutoCommit(false);
+        verify(conn, times(1)).commit();
+        
+        results = instance.execute(Arrays.asList("good", "bad", "after"));
+        assertEquals(3, results.size());
+        assertTrue(results.get(0).isFailed());
+        assertEquals("bad", results.get(1).error.getMessage());
+        assertSame(results.get(1).error, results.get(2).error.getCause());
+        verify(stmt, never()).executeUpdate("after");
+        verify(conn, times(1)).rollback();
+        verify(conn, times(1)).commit();
+    }
+}
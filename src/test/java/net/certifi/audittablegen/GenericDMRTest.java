@@ -18,6 +18,7 @@
 
 package net.certifi.audittablegen;
 
+import java.io.File;
 import java.sql.*;
 import java.util.*;
 import javax.sql.DataSource;
@@ -129,12 +130,15 @@ public class GenericDMRTest {
         
         //test another value (should fail)
         //verified schema (the second var below should be null in this test
-        when(dmd.getTables(null, null, null, null)).thenReturn(rs);
+        when(dmd.getTables(anyString(), anyString(), anyString(), any(String[].class))).thenReturn(rs);
         dmr.unverifiedAuditConfigTable = "not_here";
         dmr.verifiedAuditConfigTable = null;
         dmr.verifiedSchema = null;
         Boolean result2 = dmr.hasAuditConfigTable();
-        verify (dmd, times(1)).getTables(null, null, null, null);
+        //looked up by name first, then all tables as no name matched
+        verify (dmd, times(1)).getTables(null, null, "not_here", new String[]{"TABLE"});
+        verify (dmd, times(1)).getTables(null, null, "NOT_HERE", new String[]{"TABLE"});
+        verify (dmd, times(1)).getTables(null, null, null, new String[]{"TABLE"});
         assertNull(dmr.verifiedAuditConfigTable);
         assertFalse(result2);
     }
@@ -351,20 +355,31 @@ public class GenericDMRTest {
         //when(dataSource.getConnection()).thenReturn(conn);
         //when(conn.getMetaData()).thenReturn(dmd);
         
+        ResultSet empty = mock(ResultSet.class);
         ResultSet rs = mock(ResultSet.class);
+        when (dmd.getSchemas(anyString(), anyString())).thenReturn(empty);
         when (dmd.getSchemas()).thenReturn(rs);
-        when (rs.next()).thenReturn(true, false, true, false);
-        when (rs.getString("TABLE_SCHEM")).thenReturn("wrong_result","public");
+        when (rs.next()).thenReturn(true, false);
+        when (rs.getString("TABLE_SCHEM")).thenReturn("wrong_result");
         
-        //1st pass
+        //1st pass - no name matches, so all schemas are read
         dmr.setSchema(unverifiedSchema);
         assertEquals(dmr.unverifiedSchema, unverifiedSchema);
         assertNull(dmr.verifiedSchema);
+        verify (dmd, times(1)).getSchemas(null, "Public");
+        verify (dmd, times(1)).getSchemas(null, "PUBLIC");
+        verify (dmd, times(1)).getSchemas(null, "public");
+        verify (dmd, times(1)).getSchemas();
         
-        //2nd pass
+        //2nd pass - lower case name matches
+        ResultSet rs2 = mock(ResultSet.class);
+        when (dmd.getSchemas(null, "public")).thenReturn(rs2);
+        when (rs2.next()).thenReturn(true, false);
+        when (rs2.getString("TABLE_SCHEM")).thenReturn("public");
         dmr.setSchema(unverifiedSchema);
         assertEquals(dmr.unverifiedSchema, unverifiedSchema);
-        assertNotNull(dmr.verifiedSchema);
+        assertEquals("public", dmr.verifiedSchema);
+        verify (dmd, times(1)).getSchemas();
  
     }
 
@@ -384,8 +399,10 @@ public class GenericDMRTest {
         //2nd pass - this will call setSchema to verify the unvirified value
         dmr.verifiedSchema = null;
         dmr.unverifiedSchema = "PubLic";
+        ResultSet empty = mock(ResultSet.class);
         ResultSet rs = mock(ResultSet.class);
-        when (dmd.getSchemas()).thenReturn(rs);
+        when (dmd.getSchemas(anyString(), anyString())).thenReturn(empty);
+        when (dmd.getSchemas(null, "public")).thenReturn(rs);
         when (rs.next()).thenReturn(true, false);
         when (rs.getString("TABLE_SCHEM")).thenReturn("public");
         String result2 = dmr.getSchema();
@@ -405,20 +422,30 @@ public class GenericDMRTest {
         dmr.verifiedAuditConfigTable = null;
 
         
+        String[] types = new String[]{"TABLE"};
+        ResultSet empty = mock(ResultSet.class);
         ResultSet rs = mock(ResultSet.class);
-        when (dmd.getTables(null, "public", null, null)).thenReturn(rs);
-        when (rs.next()).thenReturn(true, false, true, false);
-        when (rs.getString("TABLE_NAME")).thenReturn("wrong_result","auditconfig");
+        when (dmd.getTables(anyString(), anyString(), anyString(), any(String[].class))).thenReturn(empty);
+        when (dmd.getTables(null, "public", null, types)).thenReturn(rs);
+        when (rs.next()).thenReturn(true, false);
+        when (rs.getString("TABLE_NAME")).thenReturn("wrong_result");
 
-        //1st pass
+        //1st pass - no name matches, so all tables are read
         dmr.setAuditConfigTableName(unverifiedAuditConfigTable);
         assertEquals(dmr.unverifiedAuditConfigTable, unverifiedAuditConfigTable);
         assertNull(dmr.verifiedAuditConfigTable);       
+        verify (dmd, times(1)).getTables(null, "public", null, types);
         
-        //2nd pass
+        //2nd pass - lower case name matches
+        ResultSet rs2 = mock(ResultSet.class);
+        when (dmd.getTables(null, "public", "auditconfig", types)).thenReturn(rs2);
+        when (rs2.next()).thenReturn(true, false);
+        when (rs2.getString("TABLE_NAME")).thenReturn("auditconfig");
+        when (rs2.getString("TABLE_SCHEM")).thenReturn("public");
         dmr.setAuditConfigTableName(unverifiedAuditConfigTable);
         assertEquals(dmr.unverifiedAuditConfigTable, unverifiedAuditConfigTable);
-        assertNotNull(dmr.verifiedAuditConfigTable); 
+        assertEquals("auditconfig", dmr.verifiedAuditConfigTable); 
+        verify (dmd, times(1)).getTables(null, "public", null, types);
     }
 
     /**
@@ -439,10 +466,13 @@ public class GenericDMRTest {
         //2nd pass - this will call setSchema to verify the unvirified value
         dmr.unverifiedAuditConfigTable = "auditCONFIG";
         dmr.verifiedAuditConfigTable = null;
+        ResultSet empty = mock(ResultSet.class);
         ResultSet rs = mock(ResultSet.class);
-        when (dmd.getTables(null, "PUBLIC", null, null)).thenReturn(rs);
+        when (dmd.getTables(anyString(), anyString(), anyString(), any(String[].class))).thenReturn(empty);
+        when (dmd.getTables(null, "PUBLIC", "auditconfig", new String[]{"TABLE"})).thenReturn(rs);
         when (rs.next()).thenReturn(true, false);
         when (rs.getString("TABLE_NAME")).thenReturn("auditconfig");
+        when (rs.getString("TABLE_SCHEM")).thenReturn("PUBLIC");
         String result2 = dmr.getAuditConfigTableName();
         assertEquals("auditconfig", result2);
     }
@@ -483,6 +513,7 @@ public class GenericDMRTest {
         System.out.println("getTables");
         dmr.dataSource = dataSource;
         dmr.verifiedSchema = "public";
+        dmr.bulkIntrospection = false;
         ResultSet rs = mock(ResultSet.class);
         ResultSet rsCol = mock(ResultSet.class);
         ResultSet rsTypes = mock(ResultSet.class);
@@ -513,6 +544,189 @@ public class GenericDMRTest {
 
     }
 
+    /**
+     * Test of getTables method, of class GenericDMR, reading columns per
+     * table on several threads.  Table order is kept, and a table that
+     * fails is dropped and its error recorded.
+     */
+    @Test
+    public void testGetTablesParallel() throws SQLException {
+        System.out.println("getTablesParallel");
+        dmr.dataSource = dataSource;
+        dmr.verifiedSchema = "public";
+        dmr.bulkIntrospection = false;
+        dmr.setMaxThreads(3);
+        ResultSet rs = mock(ResultSet.class);
+        ResultSet rsCol = mock(ResultSet.class);
+        ResultSet rsTypes = mock(ResultSet.class);
+        ResultSetMetaData rsmd = mock(ResultSetMetaData.class);
+        when(dmd.getTables(null, dmr.verifiedSchema, null, new String[]{"TABLE"})).thenReturn(rs);
+        when(dmd.getColumns(null, dmr.verifiedSchema, "address", null)).thenReturn(rsCol);
+        when(dmd.getColumns(null, dmr.verifiedSchema, "person", null)).thenThrow(new SQLException("gone"));
+        when(dmd.getColumns(null, dmr.verifiedSchema, "phone", null)).thenReturn(rsCol);
+        when(dmd.getColumns(null, dmr.verifiedSchema, "zip", null)).thenReturn(rsCol);
+        when(rsCol.getMetaData()).thenReturn(rsmd);
+        when(rsCol.isBeforeFirst()).thenReturn(Boolean.TRUE);
+        when(rsCol.next()).thenReturn(false); //no columns
+        
+        when(rs.next()).thenReturn(true, true, true, true, false);
+        when(rs.getString("TABLE_NAME")).thenReturn("address", "person", "phone", "zip");
+        
+        when(dmd.getTypeInfo()).thenReturn(rsTypes);
+        when(rsTypes.isBeforeFirst()).thenReturn(Boolean.TRUE);
+        when(rsTypes.next()).thenReturn(true, false);
+        when(rsTypes.getString("TYPE_NAME")).thenReturn("integer");
+        
+        List<TableDef> result = dmr.getTables();
+        
+        assertEquals(3, result.size());
+        assertEquals("address", result.get(0).getName());
+        assertEquals("phone", result.get(1).getName());
+        assertEquals("zip", result.get(2).getName());
+        
+        List<TableDef> tables = new ArrayList<>();
+        tables.add(new TableDef());
+        tables.get(0).setName("person");
+        tables.add(new TableDef());
+        tables.get(1).setName("zip");
+        Map<String, Throwable> errors = dmr.loadColumnsParallel(tables);
+        assertEquals(1, errors.size());
+        assertTrue(errors.containsKey("person"));
+        assertEquals(1, tables.size());
+        assertEquals("zip", tables.get(0).getName());
+
+    }
+
+    /**
+     * Test of getTables method, of class GenericDMR, reading the columns
+     * for all tables with one metadata call.
+     */
+    @Test
+    public void testGetTablesBulk() throws SQLException {
+        System.out.println("getTablesBulk");
+        dmr.dataSource = dataSource;
+        dmr.verifiedSchema = "public";
+        ResultSet rs = mock(ResultSet.class);
+        ResultSet rsCol = mock(ResultSet.class);
+        ResultSet rsTypes = mock(ResultSet.class);
+        ResultSetMetaData rsmd = mock(ResultSetMetaData.class);
+        when(dmd.getTables(null, dmr.verifiedSchema, null, new String[]{"TABLE"})).thenReturn(rs);
+        when(dmd.getColumns(null, dmr.verifiedSchema, null, null)).thenReturn(rsCol);
+        when(rsCol.getMetaData()).thenReturn(rsmd);
+        
+        when(rs.next()).thenReturn(true, true, false);
+        when(rs.getString("TABLE_NAME")).thenReturn("address","person");
+        
+        //three columns for address, one for a view that is not in the table list, one for person
+        when(rsCol.next()).thenReturn(true, true, true, true, true, false);
+        when(rsCol.getString("TABLE_NAME")).thenReturn("address", "address", "address", "a_view", "person");
+        when(rsCol.getString("COLUMN_NAME")).thenReturn("addressId", "street", "city", "viewCol", "personId");
+        when(rsCol.getString("TYPE_NAME")).thenReturn("integer", "char", "char", "integer", "integer");
+        
+        when(dmd.getTypeInfo()).thenReturn(rsTypes);
+        when(rsTypes.isBeforeFirst()).thenReturn(Boolean.TRUE);
+        when(rsTypes.next()).thenReturn(true, true, false);
+        when(rsTypes.getString("TYPE_NAME")).thenReturn("integer","char");
+        when(rsTypes.getString("CREATE_PARAMS")).thenReturn(null,"length");
+        
+        List<TableDef> result = dmr.getTables();
+        
+        verify(dmd, times(1)).getColumns(null, dmr.verifiedSchema, null, null);
+        verify(dmd, never()).getColumns(null, dmr.verifiedSchema, "address", null);
+        assertEquals(2, result.size());
+        assertEquals("address", result.get(0).getName());
+        assertEquals(3, result.get(0).getColumns().size());
+        assertEquals("city", result.get(0).getColumns().get(2).getName());
+        assertEquals("person", result.get(1).getName());
+        assertEquals(1, result.get(1).getColumns().size());
+
+    }
+
+    /**
+     * Test of getTables method, of class GenericDMR, with a TableFilter.
+     */
+    @Test
+    public void testGetTablesFiltered() throws SQLException {
+        System.out.println("getTablesFiltered");
+        dmr.dataSource = dataSource;
+        dmr.verifiedSchema = "public";
+        ResultSet rs = mock(ResultSet.class);
+        ResultSet rsCol = mock(ResultSet.class);
+        ResultSet rsTypes = mock(ResultSet.class);
+        ResultSetMetaData rsmd = mock(ResultSetMetaData.class);
+        when(dmd.getTables(null, dmr.verifiedSchema, null, new String[]{"TABLE"})).thenReturn(rs);
+        when(dmd.getColumns(null, dmr.verifiedSchema, "order_%", null)).thenReturn(rsCol);
+        when(rsCol.getMetaData()).thenReturn(rsmd);
+        
+        when(rs.next()).thenReturn(true, true, true, false);
+        when(rs.getString("TABLE_NAME")).thenReturn("order_head", "order_line", "staging");
+        
+        when(rsCol.next()).thenReturn(true, true, false);
+        when(rsCol.getString("TABLE_NAME")).thenReturn("order_head", "order_line");
+        when(rsCol.getString("COLUMN_NAME")).thenReturn("orderId", "orderId");
+        when(rsCol.getString("TYPE_NAME")).thenReturn("integer", "integer");
+        
+        when(dmd.getTypeInfo()).thenReturn(rsTypes);
+        when(rsTypes.isBeforeFirst()).thenReturn(Boolean.TRUE);
+        when(rsTypes.next()).thenReturn(true, false);
+        when(rsTypes.getString("TYPE_NAME")).thenReturn("integer");
+        
+        TableFilter filter = new TableFilter() {
+            @Override
+            public boolean accept(String tableName) {
+                return !tableName.equals("staging");
+            }
+        };
+        
+        List<TableDef> result = dmr.getTables(filter);
+        
+        verify(dmd, times(1)).getColumns(null, dmr.verifiedSchema, "order_%", null);
+        verify(dmd, never()).getColumns(null, dmr.verifiedSchema, null, null);
+        assertEquals(3, result.size());
+        assertEquals(1, result.get(0).getColumns().size());
+        assertEquals(1, result.get(1).getColumns().size());
+        assertEquals("staging", result.get(2).getName());
+        assertTrue(result.get(2).getColumns().isEmpty());
+
+    }
+
+    /**
+     * Test of getTables method, of class GenericDMR, for a window of named
+     * tables, read with one metadata call narrowed to their name prefix.
+     */
+    @Test
+    public void testGetTablesNamed() throws SQLException {
+        System.out.println("getTablesNamed");
+        dmr.dataSource = dataSource;
+        dmr.verifiedSchema = "public";
+        ResultSet rsCol = mock(ResultSet.class);
+        ResultSet rsTypes = mock(ResultSet.class);
+        ResultSetMetaData rsmd = mock(ResultSetMetaData.class);
+        when(dmd.getColumns(null, dmr.verifiedSchema, "order_%", null)).thenReturn(rsCol);
+        when(rsCol.getMetaData()).thenReturn(rsmd);
+        
+        when(rsCol.next()).thenReturn(true, true, true, false);
+        when(rsCol.getString("TABLE_NAME")).thenReturn("order_head", "order_item", "order_line");
+        when(rsCol.getString("COLUMN_NAME")).thenReturn("orderId", "itemId", "orderId");
+        when(rsCol.getString("TYPE_NAME")).thenReturn("integer", "integer", "integer");
+        
+        when(dmd.getTypeInfo()).thenReturn(rsTypes);
+        when(rsTypes.isBeforeFirst()).thenReturn(Boolean.TRUE);
+        when(rsTypes.next()).thenReturn(true, false);
+        when(rsTypes.getString("TYPE_NAME")).thenReturn("integer");
+        
+        List<TableDef> result = dmr.getTables(Arrays.asList("order_head", "order_line"));
+        
+        verify(dmd, times(1)).getColumns(null, dmr.verifiedSchema, "order_%", null);
+        verify(dmd, never()).getColumns(null, dmr.verifiedSchema, "order_head", null);
+        assertEquals(2, result.size());
+        assertEquals("order_head", result.get(0).getName());
+        assertEquals(1, result.get(0).getColumns().size());
+        assertEquals("order_line", result.get(1).getName());
+        assertEquals(1, result.get(1).getColumns().size());
+
+    }
+
     /**
      * Test of getColumns method, of class GenericDMR.
      */
@@ -552,11 +766,15 @@ public class GenericDMRTest {
         verify (rs, times(2)).getString("COLUMN_NAME");
         verify (rs, times(3)).next();
         verify (rsmd, times(1)).getColumnCount();
-        verify (rsmd, times(2)).getColumnName(1);
-        verify (rsmd, times(2)).getColumnName(2);
+        //column names are read once per result set, not once per row
+        verify (rsmd, times(1)).getColumnName(1);
+        verify (rsmd, times(1)).getColumnName(2);
         verifyNoMoreInteractions(rsmd);
 
         assertEquals(2, result.size());
+        ColumnDef first = (ColumnDef) result.get(0);
+        assertEquals("value1", first.getSourceMeta().get("METATESTCOL1"));
+        assertEquals("value2", first.getSourceMeta().get("metaTestCol2"));
 
     }
 
@@ -636,6 +854,104 @@ public class GenericDMRTest {
 
     }
 
+    /**
+     * Test of executeChanges method, of class GenericDMR, over several
+     * calls of a run.  The threads and connections are kept until close(),
+     * and an operation without SQL is counted as failed without stopping
+     * the ones after it.
+     */
+    @Test
+    public void testExecuteChanges_Run() throws SQLException {
+        System.out.println("executeChanges_Run");
+        DataSource realDs = HsqldbDMR.getRunTimeDataSource();
+        GenericDMR instance = new GenericDMR(realDs);
+        instance.dataSource = spy(realDs);
+        instance.setMaxThreads(2);
+        
+        for (String tableName : new String[]{"RUN_A", "RUN_B", "RUN_C"}){
+            List<DBChangeUnit> op = new ArrayList<>();
+            op.add(new DBChangeUnit(DBChangeType.begin));
+            DBChangeUnit unit = new DBChangeUnit(DBChangeType.createTable);
+            unit.setTableName(tableName);
+            op.add(unit);
+            unit = new DBChangeUnit(DBChangeType.addColumn);
+            unit.setTableName(tableName);
+            unit.setColumnName("id");
+            unit.setTypeName("integer");
+            op.add(unit);
+            op.add(new DBChangeUnit(DBChangeType.end));
+            instance.operations.add(op);
+            
+            if (tableName.equals("RUN_A")){
+                //no SQL for this one
+                op = new ArrayList<>();
+                op.add(new DBChangeUnit(DBChangeType.begin));
+                unit = new DBChangeUnit(DBChangeType.addColumn);
+                unit.setTableName(tableName);
+                op.add(unit);
+                op.add(new DBChangeUnit(DBChangeType.end));
+                instance.operations.add(op);
+            }
+            instance.executeChanges();
+        }
+        
+        assertTrue(instance.operations.isEmpty());
+        assertEquals(1, instance.getFailedUpdateCount());
+        verify(instance.dataSource, atMost(2)).getConnection();
+        ApplyScheduler scheduler = instance.scheduler;
+        assertNotNull(scheduler);
+        
+        instance.close();
+        assertNull(instance.scheduler);
+        assertTrue(scheduler.executor.isShutdown());
+        
+        ExecutionSession session = new ExecutionSession(realDs);
+        List<ExecutionSession.Result> results = session.execute(Arrays.asList(
+                "DROP TABLE RUN_A", "DROP TABLE RUN_B", "DROP TABLE RUN_C"));
+        session.close();
+        for (ExecutionSession.Result result : results){
+            assertFalse(result.isFailed());
+        }
+    }
+
+    /**
+     * Test of executeStatements method, of class GenericDMR.  Statements
+     * are grouped by audit table and applied through the scheduler of the
+     * run, on maxThreads connections.
+     */
+    @Test
+    public void testExecuteStatements() throws SQLException {
+        System.out.println("executeStatements");
+        DataSource realDs = HsqldbDMR.getRunTimeDataSource();
+        GenericDMR instance = new GenericDMR(realDs);
+        instance.dataSource = spy(realDs);
+        instance.setMaxThreads(2);
+        
+        List<String> tableNames = Arrays.asList("STMT_A", "STMT_A", "STMT_B", "STMT_A");
+        List<String> auditTableNames = Arrays.asList("ZZ_STMT_A", "ZZ_STMT_A", "", "");
+        List<String> statements = Arrays.asList(
+                "CREATE TABLE ZZ_STMT_A (id integer)",
+                "CREATE TABLE STMT_A (id integer)",
+                "CREATE TABLE STMT_B (id integer)",
+                "bad statement");
+        instance.executeStatements(tableNames, auditTableNames, statements);
+        
+        assertEquals(1, instance.getFailedUpdateCount());
+        ApplyScheduler scheduler = instance.scheduler;
+        assertNotNull(scheduler);
+        assertNotNull(scheduler.executor);
+        instance.close();
+        verify(instance.dataSource, times(2)).getConnection();
+        
+        ExecutionSession session = new ExecutionSession(realDs);
+        List<ExecutionSession.Result> results = session.execute(Arrays.asList(
+                "DROP TABLE ZZ_STMT_A", "DROP TABLE STMT_A", "DROP TABLE STMT_B"));
+        session.close();
+        for (ExecutionSession.Result result : results){
+            assertFalse(result.isFailed());
+        }
+    }
+
     /**
      * Test of executeDBChangeList method, of class GenericDMR.
      */
@@ -852,6 +1168,148 @@ public class GenericDMRTest {
 
     }
 
+    /**
+     * Test of getSQL method, of class GenericDMR.  SQL rendered from the
+     * cache for a table of the same shape should be the same as rendering it.
+     */
+    @Test
+    public void testGetSQL() {
+        System.out.println("getSQL");
+        
+        ConfigSource realConfigSource = new ConfigSource();
+        for (String name : new String[]{"Tenant1", "Tenant2"}){
+            TableDef td = new TableDef();
+            td.name = name;
+            ColumnDef cd = new ColumnDef();
+            cd.name = name + "Id";
+            cd.typeName = "integer";
+            td.addColumn(cd);
+            realConfigSource.addTable(td);
+        }
+        ChangeSourceFactory factory = new ChangeSourceFactory(realConfigSource);
+        dmr.verifiedSchema = "public";
+        dmr.readDBChangeList(factory.getDBChangeList());
+        
+        int size = dmr.getSQLCache().size();
+        while (!dmr.operations.isEmpty()){
+            List<DBChangeUnit> op = dmr.operations.remove();
+            if (op.get(1).getChangeType() == DBChangeType.createTriggers){
+                assertEquals(dmr.getCreateTriggerSQL(op), dmr.getSQL(op));
+                assertTrue(dmr.getSQL(op).contains("public." + op.get(1).getTableName()));
+            }
+        }
+        //one shape for both triggers
+        assertEquals(size + 1, dmr.getSQLCache().size());
+    }
+
+    /**
+     * Test of getSQL method, of class GenericDMR, with names that need
+     * quotes.  Names are quoted by what the table names of a shape stand
+     * for, and generated names take the stored case.
+     */
+    @Test
+    public void testGetSQL_Quoted() {
+        System.out.println("getSQL_Quoted");
+        
+        dmr.idMetaData.setStoresLowerCaseIds(true);
+        dmr.idMetaData.setQuoteString("\"");
+        ConfigSource realConfigSource = new ConfigSource();
+        realConfigSource.setIdentifierMetaData(dmr.idMetaData);
+        for (String name : new String[]{"Tenant1", "tenant2"}){
+            TableDef td = new TableDef();
+            td.name = name;
+            ColumnDef cd = new ColumnDef();
+            cd.name = name + "_id";
+            cd.typeName = "integer";
+            td.addColumn(cd);
+            realConfigSource.addTable(td);
+        }
+        ChangeSourceFactory factory = new ChangeSourceFactory(realConfigSource);
+        factory.auditIdTypeName = "integer";
+        factory.auditUserTypeName = "char";
+        factory.auditActionTypeName = "char";
+        factory.auditTimeStampTypeName = "timestamp";
+        Map<String, DataTypeDef> dtds = new HashMap<>();
+        for (String typeName : new String[]{"integer", "char", "timestamp"}){
+            dtds.put(typeName, new DataTypeDef());
+        }
+        dmr.dataTypes = dtds;
+        dmr.verifiedSchema = "public";
+        dmr.readDBChangeList(factory.getDBChangeList());
+        
+        Map<String, String> sql = new HashMap<>();
+        while (!dmr.operations.isEmpty()){
+            List<DBChangeUnit> op = dmr.operations.remove();
+            sql.put(op.get(1).getChangeType() + " " + op.get(1).getTableName(), dmr.getSQL(op));
+        }
+        
+        String create = sql.get("createTable zz_Tenant1");
+        assertTrue(create.contains("CREATE TABLE public.\"zz_Tenant1\""));
+        assertTrue(create.contains("\"zz_Tenant1id\" serial"));
+        assertTrue(create.contains("\"Tenant1_id\" integer"));
+        String trigger = sql.get("createTriggers Tenant1");
+        assertTrue(trigger.contains("FUNCTION public.\"process_Tenant1_audit\"()"));
+        assertTrue(trigger.contains("INSERT INTO public.\"zz_Tenant1\" (zz_action, zz_userid, zz_ts, \"Tenant1_id\")"));
+        assertTrue(trigger.contains("NEW.\"Tenant1_id\""));
+        assertTrue(trigger.contains("ON public.\"Tenant1\""));
+        
+        create = sql.get("createTable zz_tenant2");
+        assertTrue(create.contains("CREATE TABLE public.zz_tenant2 "));
+        assertTrue(create.contains("zz_tenant2id serial"));
+        trigger = sql.get("createTriggers tenant2");
+        assertTrue(trigger.contains("CREATE TRIGGER tenant2_audit"));
+        assertTrue(trigger.contains("NEW.tenant2_id"));
+        assertFalse(trigger.contains("\""));
+    }
+
+    /**
+     * Test of renderChanges method, of class GenericDMR, with operations
+     * spilled to file.  The statements come out the same, in order.
+     */
+    @Test
+    public void testRenderChanges_Spill() throws Exception {
+        System.out.println("renderChanges_Spill");
+        
+        ConfigSource realConfigSource = new ConfigSource();
+        for (int i = 1; i <= 5; i++){
+            TableDef td = new TableDef();
+            td.name = "Tenant" + i;
+            ColumnDef cd = new ColumnDef();
+            cd.name = td.name + "Id";
+            cd.typeName = "integer";
+            td.addColumn(cd);
+            realConfigSource.addTable(td);
+        }
+        ChangeSourceFactory factory = new ChangeSourceFactory(realConfigSource);
+        //triggers only, the create table SQL needs data types
+        List<DBChangeUnit> units = new ArrayList<>();
+        for (ChangePlan.Operation op : ChangePlan.of(factory.getDBChangeList())){
+            if (op.getChangeType() == DBChangeType.createTriggers){
+                units.addAll(op.toUnitList());
+            }
+        }
+        
+        PlanFile expected = new PlanFile("public");
+        dmr.readDBChangeList(units);
+        assertTrue(dmr.renderChanges(expected));
+        
+        File dir = java.nio.file.Files.createTempDirectory("spill").toFile();
+        dir.deleteOnExit();
+        dmr.setSpillDir(dir);
+        dmr.spillThreshold = 2;
+        PlanFile result = new PlanFile("public");
+        dmr.readDBChangeList(units);
+        assertEquals(2, dmr.operations.size());
+        assertNotNull(dmr.spill);
+        assertTrue(dmr.renderChanges(result));
+        
+        assertEquals(expected.statements, result.statements);
+        assertEquals(expected.statementTables, result.statementTables);
+        assertEquals(expected.changeTypes, result.changeTypes);
+        assertNull(dmr.spill);
+        assertEquals(0, dir.listFiles().length);
+    }
+
     /**
      * Test of getCreateTriggerSQL method, of class GenericDMR.
      */
@@ -967,6 +1425,40 @@ public class GenericDMRTest {
 
     }
 
+    /**
+     * Test of getTableFingerprints method, of class GenericDMR.
+     */
+    @Test
+    public void testGetTableFingerprints() throws SQLException {
+        System.out.println("getTableFingerprints");
+        DataSource realDs = HsqldbDMR.getRunTimeDataSource();
+        GenericDMR instance = new GenericDMR(realDs);
+        instance.setSchema("PUBLIC");
+        instance.executeUpdate("CREATE TABLE FPTEST (id integer, data varchar(20))");
+        
+        Map<String, String> before = instance.getTableFingerprints();
+        assertTrue(before.containsKey("FPTEST"));
+        assertEquals(before, instance.getTableFingerprints());
+        
+        instance.executeUpdate("ALTER TABLE FPTEST ALTER COLUMN data SET DATA TYPE varchar(40)");
+        Map<String, String> after = instance.getTableFingerprints();
+        assertFalse(before.get("FPTEST").equals(after.get("FPTEST")));
+        
+        //a dropped trigger changes the fingerprint
+        instance.executeUpdate("CREATE TRIGGER FPTEST_TRIG AFTER INSERT ON FPTEST FOR EACH ROW INSERT INTO FPTEST VALUES (0, 'x')");
+        Map<String, String> withTrigger = instance.getTableFingerprints();
+        assertFalse(after.get("FPTEST").equals(withTrigger.get("FPTEST")));
+        instance.executeUpdate("DROP TRIGGER FPTEST_TRIG");
+        assertEquals(after.get("FPTEST"), instance.getTableFingerprints().get("FPTEST"));
+        
+        //without a way to list triggers, there are no fingerprints
+        GenericDMR noTriggers = spy(instance);
+        doReturn(null).when(noTriggers).getTriggerListSQL();
+        assertNull(noTriggers.getTableFingerprints());
+        
+        instance.executeUpdate("DROP TABLE FPTEST");
+    }
+
     /**
      * Test of getDataTypes method, of class GenericDMR.
      */
@@ -19,6 +19,8 @@
 package net.certifi.audittablegen;
 
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.sql.DataSource;
@@ -134,6 +136,46 @@ public class HsqldbDMRTest {
         logger.trace("Got connection to schema: {}", ds.getConnection().getSchema());
     }
 
+    /**
+     * Test of loadColumnsBulk method, of class HsqldbDMR.  Columns read in
+     * bulk should be the same as columns read per table.
+     */
+    @Test
+    public void testLoadColumnsBulk() throws SQLException {
+        System.out.println("loadColumnsBulk");
+        HsqldbDMR instance = new HsqldbDMR(HsqldbDMR.getRunTimeDataSource());
+        instance.setSchema("PUBLIC");
+        instance.executeUpdate("CREATE TABLE BULK_A (id integer, name varchar(40), amount decimal(12,2))");
+        instance.executeUpdate("CREATE TABLE BULK_B (id bigint, created timestamp)");
+        instance.executeUpdate("CREATE VIEW BULK_V AS SELECT id FROM BULK_A");
+        
+        List<TableDef> tables = new ArrayList<>();
+        for (String name : new String[]{"BULK_A", "BULK_B"}){
+            TableDef td = new TableDef();
+            td.setName(name);
+            tables.add(td);
+        }
+        instance.loadColumnsBulk(tables);
+        
+        for (TableDef td : tables){
+            List<ColumnDef> expected = instance.getColumns(td.getName());
+            assertEquals(expected.size(), td.getColumns().size());
+            for (int i = 0; i < expected.size(); i++){
+                ColumnDef cd = td.getColumns().get(i);
+                assertEquals(expected.get(i).getName(), cd.getName());
+                assertEquals(expected.get(i).getTypeName(), cd.getTypeName());
+                assertEquals(expected.get(i).getSize(), cd.getSize());
+                assertEquals(expected.get(i).getDecimalSize(), cd.getDecimalSize());
+            }
+        }
+        assertEquals("AMOUNT", tables.get(0).getColumns().get(2).getName());
+        assertEquals(2, tables.get(0).getColumns().get(2).getDecimalSize());
+        
+        instance.executeUpdate("DROP VIEW BULK_V");
+        instance.executeUpdate("DROP TABLE BULK_A");
+        instance.executeUpdate("DROP TABLE BULK_B");
+    }
+
     @Test
     public void testGetRunTimeDataSource_Properties() {
     }
@@ -147,4 +147,64 @@ public class IdentifierMetaDataTest {
         instance.setStoresMixedCaseIds(true);
         assertEquals("MyColumnName", instance.convertId(identifier));
     }
+
+    /**
+     * Test of getIdentifier method, of class IdentifierMetaData.
+     */
+    @Test
+    public void testGetIdentifier() {
+        System.out.println("getIdentifier");
+        IdentifierMetaData instance = new IdentifierMetaData();
+        Identifier id = instance.getIdentifier("MyTable");
+        assertEquals("MyTable", id.getName());
+        assertEquals("mytable", id.getKey());
+        assertEquals(id, instance.getIdentifier("MYTABLE"));
+        assertEquals(id.hashCode(), instance.getIdentifier("mytable").hashCode());
+        assertSame(id.getKey(), instance.getIdentifier("MYTABLE").getKey());
+        assertFalse(id.equals(instance.getIdentifier("MyTable2")));
+        assertSame(id, instance.getIdentifier("MyTable"));
+        
+        instance.setStoresUpperCaseIds(true);
+        assertEquals("MYTABLE", instance.getIdentifier("MyTable").getKey());
+        assertEquals(instance.getIdentifier("mytable"), instance.getIdentifier("MyTable"));
+    }
+
+    /**
+     * Test of quote method, of class IdentifierMetaData.
+     */
+    @Test
+    public void testQuote() {
+        System.out.println("quote");
+        IdentifierMetaData instance = new IdentifierMetaData();
+        assertEquals("my_table", instance.quote("my_table"));
+        assertEquals("\"MyTable\"", instance.quote("MyTable"));
+        assertEquals("\"my table\"", instance.quote("my table"));
+        assertEquals("\"my\"\"table\"", instance.quote("my\"table"));
+        assertEquals("\"1table\"", instance.quote("1table"));
+        
+        instance.setStoresUpperCaseIds(true);
+        assertEquals("MY_TABLE", instance.quote("MY_TABLE"));
+        assertEquals("\"my_table\"", instance.quote("my_table"));
+        
+        instance.setStoresMixedCaseIds(true);
+        assertEquals("MyTable", instance.quote("MyTable"));
+        
+        instance.setStoresLowerCaseIds(true);
+        instance.setQuoteString(" ");
+        assertEquals("MyTable", instance.quote("MyTable"));
+    }
+
+    /**
+     * Test of getStoredName method, of class IdentifierMetaData.
+     */
+    @Test
+    public void testGetStoredName() {
+        System.out.println("getStoredName");
+        IdentifierMetaData instance = new IdentifierMetaData();
+        assertEquals("mytable", instance.getStoredName("MyTable"));
+        instance.setStoresUpperCaseIds(true);
+        assertEquals("MYTABLE", instance.getStoredName("MyTable"));
+        instance.setStoresMixedCaseIds(true);
+        assertEquals("MyTable", instance.getStoredName("MyTable"));
+    }
 }
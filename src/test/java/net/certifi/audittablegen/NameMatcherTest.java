@@ -0,0 +1,137 @@
+/*    Copyright 2014 Certifi Inc.
+ *
+ *    This file is part of AuditTableGen.
+ *
+ *        AuditTableGen is free software: you can redistribute it and/or modify
+ *        it under the terms of the GNU General Public License as published by
+ *        the Free Software Foundation, either version 3 of the License, or
+ *        (at your option) any later version.
+ *
+ *        AuditTableGen is distributed in the hope that it will be useful,
+ *        but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *        GNU General Public License for more details.
+ *
+ *        You should have received a copy of the GNU General Public License
+ *        along with AuditTableGen.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.certifi.audittablegen;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class NameMatcherTest {
+    
+    public NameMatcherTest() {
+    }
+    
+    /**
+     * Test of matches method, of class NameMatcher.
+     */
+    @Test
+    public void testMatches() {
+        System.out.println("matches");
+        NameMatcher instance = new NameMatcher();
+        assertTrue(instance.isEmpty());
+        assertFalse(instance.matches("invoice"));
+        
+        instance.add("Invoice");    //exact
+        instance.add("tmp_*");      //prefix
+        instance.add("*_log");      //glob
+        instance.add("user_?");     //glob
+        instance.add("re:cache[0-9]+"); //regex
+        assertFalse(instance.isEmpty());
+        
+        assertTrue(instance.matches("INVOICE"));
+        assertFalse(instance.matches("invoices"));
+        assertFalse(instance.matches("invoic"));
+        assertTrue(instance.matches("tmp_"));
+        assertTrue(instance.matches("TMP_orders"));
+        assertTrue(instance.matches("Access_Log"));
+        assertFalse(instance.matches("access_logs"));
+        assertTrue(instance.matches("user_a"));
+        assertFalse(instance.matches("user_ab"));
+        assertTrue(instance.matches("CACHE12"));
+        assertFalse(instance.matches("cache"));
+        assertFalse(instance.matches(null));
+    }
+    
+    /**
+     * Test of add method, of class NameMatcher, with patterns which match
+     * every name or are not valid.
+     */
+    @Test
+    public void testAdd() {
+        System.out.println("add");
+        assertTrue(NameMatcher.of("").matches("anything"));
+        assertTrue(NameMatcher.of("*").matches("anything"));
+        
+        //characters which mean something in a regex are literal
+        assertTrue(NameMatcher.of("order.line").matches("ORDER.LINE"));
+        assertFalse(NameMatcher.of("order.line").matches("orderXline"));
+        assertTrue(NameMatcher.of("$tmp").matches("$tmp"));
+        assertFalse(NameMatcher.of("a+").matches("aa"));
+        assertTrue(NameMatcher.of("log(old)*").matches("log(old)_2013"));
+        
+        //invalid regex is rejected
+        for (String pattern : new String[]{"re:bad[", "re:"}){
+            try {
+                NameMatcher.of(pattern);
+                fail("accepted " + pattern);
+            } catch (IllegalArgumentException e) {
+                //expected
+            }
+        }
+        NameMatcher.validate("bad[");
+        
+
+        //glob characters other than * and ? are literal
+        assertFalse(NameMatcher.of("a*b").matches("a.b.c"));
+        assertTrue(NameMatcher.of("a*b").matches("a.b"));
+    }
+    
+    /**
+     * Test of ExclusionRules with many rules, of class NameMatcher.
+     */
+    @Test
+    public void testExclusionRules() {
+        System.out.println("exclusionRules");
+        List<ConfigAttribute> excludes = new ArrayList<>();
+        List<ConfigAttribute> includes = new ArrayList<>();
+        for (int i = 0; i < 1000; i++){
+            excludes.add(getAttribute(ConfigAttributeTypes.exclude, "table" + i, "secret"));
+        }
+        excludes.add(getAttribute(ConfigAttributeTypes.exclude, "tmp_*", ""));
+        excludes.add(getAttribute(ConfigAttributeTypes.exclude, "*", "password"));
+        includes.add(getAttribute(ConfigAttributeTypes.include, "tmp_keep", ""));
+        includes.add(getAttribute(ConfigAttributeTypes.include, "users", "re:pass.*"));
+        ExclusionRules instance = new ExclusionRules(excludes, includes);
+        
+        assertTrue(instance.isTableExcluded("TMP_orders"));
+        assertFalse(instance.isTableExcluded("tmp_keep"));
+        assertFalse(instance.isTableExcluded("table1"));
+        
+        //column rules are resolved per table by ConfigSource
+        ConfigSource configSource = new ConfigSource();
+        configSource.addAttributes(excludes);
+        configSource.addAttributes(includes);
+        assertTrue(configSource.getPlanningConfig("Table999").isColumnExcluded("SECRET"));
+        assertFalse(configSource.getPlanningConfig("table1000").isColumnExcluded("secret"));
+        assertTrue(configSource.getPlanningConfig("table1000").isColumnExcluded("password"));
+        assertFalse(configSource.getPlanningConfig("users").isColumnExcluded("password"));
+        //table exclusion applies to all columns
+        assertTrue(configSource.getPlanningConfig("tmp_x").isColumnExcluded("id"));
+        assertFalse(configSource.getPlanningConfig("tmp_keep").isColumnExcluded("id"));
+    }
+    
+    ConfigAttribute getAttribute(ConfigAttributeTypes type, String table, String column){
+        ConfigAttribute attrib = new ConfigAttribute();
+        attrib.setType(type);
+        attrib.setTableName(table);
+        attrib.setColumnName(column);
+        return attrib;
+    }
+}
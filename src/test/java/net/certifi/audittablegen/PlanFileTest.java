@@ -0,0 +1,164 @@
+/*    Copyright 2014 Certifi Inc.
+ *
+ *    This file is part of AuditTableGen.
+ *
+ *        AuditTableGen is free software: you can redistribute it and/or modify
+ *        it under the terms of the GNU General Public License as published by
+ *        the Free Software Foundation, either version 3 of the License, or
+ *        (at your option) any later version.
+ *
+ *        AuditTableGen is distributed in the hope that it will be useful,
+ *        but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *        GNU General Public License for more details.
+ *
+ *        You should have received a copy of the GNU General Public License
+ *        along with AuditTableGen.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.certifi.audittablegen;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+public class PlanFileTest {
+    
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    
+    public PlanFileTest() {
+    }
+    
+    /**
+     * Test of save and load methods, of class PlanFile.
+     */
+    @Test
+    public void testSaveLoad() throws Exception {
+        System.out.println("saveLoad");
+        String sql = "create function f() returns trigger as $f$\n\tbegin\r\n select '\\x';\nend $f$";
+        
+        PlanFile plan = new PlanFile("public");
+        plan.addStatement(DBChangeType.createTable, "invoice_audit", "", "create table invoice_audit ()");
+        plan.addStatement(DBChangeType.createTriggers, "invoice", "invoice_audit", sql);
+        Map<String, String> current = new HashMap<>();
+        current.put("INVOICE", "abc");
+        plan.setFingerprints(current);
+        
+        File file = folder.newFile("plan.txt");
+        plan.save(file);
+        PlanFile loaded = PlanFile.load(file);
+        
+        assertEquals("public", loaded.schema);
+        assertEquals(plan.statements, loaded.statements);
+        assertEquals(sql, loaded.statements.get(1));
+        assertEquals(plan.changeTypes, loaded.changeTypes);
+        assertEquals(plan.statementTables, loaded.statementTables);
+        assertEquals(plan.statementAuditTables, loaded.statementAuditTables);
+        assertEquals(40, loaded.hash.length());
+        assertEquals("abc", loaded.fingerprints.get("invoice"));
+        assertEquals("", loaded.fingerprints.get("invoice_audit"));
+    }
+    
+    /**
+     * Test of save and load methods, of class PlanFile, with the statements
+     * spilled to file.
+     */
+    @Test
+    public void testSaveLoad_Spill() throws Exception {
+        System.out.println("saveLoad_Spill");
+        
+        PlanFile plan = new PlanFile("public");
+        plan.addStatement(DBChangeType.createTable, "invoice_audit", "", "create table invoice_audit ()");
+        plan.spillTo(folder.newFolder("spill"));
+        plan.addStatement(DBChangeType.createTriggers, "invoice", "invoice_audit", "create trigger\n");
+        plan.addStatement(DBChangeType.createTriggers, "customer", "customer_audit", "create trigger");
+        assertEquals(3, plan.getStatementCount());
+        assertEquals(1, plan.statements.size());
+        
+        File file = folder.newFile("plan.txt");
+        plan.save(file);
+        plan.close();
+        PlanFile loaded = PlanFile.load(file);
+        
+        assertEquals(3, loaded.getStatementCount());
+        assertEquals("create trigger\n", loaded.statements.get(1));
+        assertEquals(Arrays.asList("invoice_audit", "invoice", "customer"), loaded.statementTables);
+        assertEquals(Arrays.asList("", "invoice_audit", "customer_audit"), loaded.statementAuditTables);
+        assertEquals(0, folder.getRoot().toPath().resolve("spill").toFile().list().length);
+    }
+    
+    /**
+     * Test of load method, of class PlanFile, on a file that is not a plan.
+     */
+    @Test(expected = java.io.IOException.class)
+    public void testLoadInvalid() throws Exception {
+        System.out.println("loadInvalid");
+        File file = folder.newFile("other.txt");
+        java.nio.file.Files.write(file.toPath(), "schema\tpublic\n".getBytes("UTF-8"));
+        PlanFile.load(file);
+    }
+    
+    /**
+     * Test of getDrift method, of class PlanFile.
+     */
+    @Test
+    public void testGetDrift() {
+        System.out.println("getDrift");
+        PlanFile plan = new PlanFile("public");
+        plan.addStatement(DBChangeType.createTriggers, "invoice", "invoice_audit", "sql");
+        plan.addStatement(DBChangeType.createTriggers, "customer", "customer_audit", "sql");
+        Map<String, String> current = new HashMap<>();
+        current.put("invoice", "a");
+        current.put("customer", "b");
+        current.put("customer_audit", "c");
+        plan.setFingerprints(current);
+        
+        assertTrue(plan.getDrift(current).isEmpty());
+        
+        current.put("invoice", "a2");           //changed
+        current.put("invoice_audit", "d");      //added
+        current.remove("customer_audit");       //dropped
+        List<String> drift = plan.getDrift(current);
+        assertEquals(3, drift.size());
+        assertTrue(drift.contains("invoice"));
+        assertTrue(drift.contains("invoice_audit"));
+        assertTrue(drift.contains("customer_audit"));
+    }
+    
+    /**
+     * Test of getAppliedTables method, of class PlanFile.  Only the tables
+     * of groups whose statements are all in the journal are applied.
+     */
+    @Test
+    public void testGetAppliedTables() throws Exception {
+        System.out.println("getAppliedTables");
+        PlanFile plan = new PlanFile("public");
+        plan.addStatement(DBChangeType.createTable, "invoice", "invoice_audit", "create table");
+        plan.addStatement(DBChangeType.createTriggers, "invoice", "invoice_audit", "create trigger");
+        plan.addStatement(DBChangeType.createTriggers, "customer", "customer_audit", "create trigger");
+        
+        ApplyJournal journal = ApplyJournal.open(folder.newFile("journal"), "plan x");
+        journal.complete(ApplyJournal.hash(Arrays.asList("create table", "create trigger")));
+        journal.complete(ApplyJournal.hash(Arrays.asList("create trigger")));
+        
+        Set<String> applied = plan.getAppliedTables(journal);
+        journal.close();
+        assertEquals(4, applied.size());
+        assertTrue(applied.contains("INVOICE_AUDIT"));
+        assertTrue(applied.contains("customer"));
+        
+        plan.addStatement(DBChangeType.alterTable, "customer", "customer_audit", "alter table");
+        journal = ApplyJournal.open(folder.newFile("journal2"), "plan x");
+        journal.complete(ApplyJournal.hash(Arrays.asList("create trigger")));
+        applied = plan.getAppliedTables(journal);
+        journal.close();
+        assertTrue(applied.isEmpty());
+    }
+}
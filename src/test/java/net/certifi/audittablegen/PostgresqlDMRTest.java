@@ -0,0 +1,174 @@
+/*    Copyright 2014 Certifi Inc.
+ *
+ *    This file is part of AuditTableGen.
+ *
+ *        AuditTableGen is free software: you can redistribute it and/or modify
+ *        it under the terms of the GNU General Public License as published by
+ *        the Free Software Foundation, either version 3 of the License, or
+ *        (at your option) any later version.
+ *
+ *        AuditTableGen is distributed in the hope that it will be useful,
+ *        but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *        GNU General Public License for more details.
+ *
+ *        You should have received a copy of the GNU General Public License
+ *        along with AuditTableGen.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.certifi.audittablegen;
+
+import java.sql.*;
+import java.util.*;
+import javax.sql.DataSource;
+import static org.junit.Assert.*;
+import org.junit.*;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.*;
+
+public class PostgresqlDMRTest {
+    
+    PostgresqlDMR dmr;
+    DataSource dataSource = mock(DataSource.class);
+    DatabaseMetaData dmd = mock(DatabaseMetaData.class);
+    Connection conn = mock(Connection.class);
+    
+    public PostgresqlDMRTest() {
+    }
+    
+    @Before
+    public void setUp() throws SQLException {
+        
+        when(dataSource.getConnection()).thenReturn(conn);
+        when(conn.getMetaData()).thenReturn(dmd);
+        dmr = new PostgresqlDMR(dataSource);
+    }
+
+    /**
+     * Test of getColumnSize and getDecimalDigits methods, of class PostgresqlDMR.
+     */
+    @Test
+    public void testTypeModifiers() {
+        System.out.println("typeModifiers");
+        
+        //varchar(40)
+        assertEquals(40, PostgresqlDMR.getColumnSize("varchar", 44));
+        assertEquals(0, PostgresqlDMR.getDecimalDigits("varchar", 44));
+        //varchar without length
+        assertEquals(0, PostgresqlDMR.getColumnSize("varchar", -1));
+        //numeric(12,2)
+        assertEquals(12, PostgresqlDMR.getColumnSize("numeric", (12 << 16) + 2 + 4));
+        assertEquals(2, PostgresqlDMR.getDecimalDigits("numeric", (12 << 16) + 2 + 4));
+        //numeric without precision
+        assertEquals(0, PostgresqlDMR.getColumnSize("numeric", -1));
+        assertEquals(10, PostgresqlDMR.getColumnSize("int4", -1));
+        assertEquals(26, PostgresqlDMR.getColumnSize("timestamp", -1));
+        assertEquals(6, PostgresqlDMR.getDecimalDigits("timestamp", -1));
+        assertEquals(0, PostgresqlDMR.getColumnSize("text", -1));
+    }
+
+    /**
+     * Test of loadColumnsBulk method, of class PostgresqlDMR.
+     */
+    @Test
+    public void testLoadColumnsBulk() throws SQLException {
+        System.out.println("loadColumnsBulk");
+        dmr.verifiedSchema = "public";
+        PreparedStatement stmt = mock(PreparedStatement.class);
+        ResultSet rs = mock(ResultSet.class);
+        ResultSet rsTypes = mock(ResultSet.class);
+        ResultSetMetaData rsmd = mock(ResultSetMetaData.class);
+        when(conn.prepareStatement(anyString())).thenReturn(stmt);
+        when(stmt.executeQuery()).thenReturn(rs);
+        when(rs.getMetaData()).thenReturn(rsmd);
+        
+        when(rs.next()).thenReturn(true, true, true, false);
+        when(rs.getString("table_name")).thenReturn("invoice", "invoice", "staging");
+        when(rs.getString("column_name")).thenReturn("invoiceId", "amount", "data");
+        when(rs.getString("type_name")).thenReturn("int4", "numeric", "text");
+        when(rs.getInt("type_mod")).thenReturn(-1, (12 << 16) + 2 + 4, -1);
+        when(rs.getBoolean("audit_trigger")).thenReturn(true, false);
+        
+        when(dmd.getTypeInfo()).thenReturn(rsTypes);
+        when(rsTypes.isBeforeFirst()).thenReturn(Boolean.TRUE);
+        when(rsTypes.next()).thenReturn(true, true, true, false);
+        when(rsTypes.getString("TYPE_NAME")).thenReturn("int4", "numeric", "text");
+        when(rsTypes.getInt("DATA_TYPE")).thenReturn(Types.INTEGER, Types.NUMERIC, Types.VARCHAR);
+        
+        List<TableDef> tables = new ArrayList<>();
+        for (String name : new String[]{"invoice", "staging"}){
+            TableDef td = new TableDef();
+            td.setName(name);
+            tables.add(td);
+        }
+        
+        dmr.loadColumnsBulk(tables);
+        
+        verify(stmt).setString(1, "public");
+        verify(conn).createArrayOf("text", new Object[]{"invoice", "staging"});
+        verify(dmd, never()).getColumns(anyString(), anyString(), anyString(), anyString());
+        assertEquals(Boolean.TRUE, tables.get(0).getAuditTrigger());
+        assertEquals(2, tables.get(0).getColumns().size());
+        ColumnDef amount = tables.get(0).getColumns().get(1);
+        assertEquals("numeric", amount.getTypeName());
+        assertEquals(Types.NUMERIC, amount.getSqlType());
+        assertEquals(12, amount.getSize());
+        assertEquals(2, amount.getDecimalSize());
+        assertEquals(Boolean.FALSE, tables.get(1).getAuditTrigger());
+        assertEquals(1, tables.get(1).getColumns().size());
+    }
+
+    /**
+     * Test of getTriggerFingerprints method, of class PostgresqlDMR.  A
+     * trigger installed as planned is left out of the operations.
+     */
+    @Test
+    public void testGetTriggerFingerprints() throws SQLException {
+        System.out.println("getTriggerFingerprints");
+        dmr.verifiedSchema = "public";
+        PreparedStatement stmt = mock(PreparedStatement.class);
+        ResultSet rs = mock(ResultSet.class);
+        when(conn.prepareStatement(anyString())).thenReturn(stmt);
+        when(stmt.executeQuery()).thenReturn(rs);
+        
+        ConfigSource configSource = new ConfigSource();
+        TableDef td = new TableDef();
+        td.name = "Table1";
+        ColumnDef cd = new ColumnDef();
+        cd.name = "Data";
+        cd.typeName = "varchar";
+        cd.size = 255;
+        td.addColumn(cd);
+        configSource.addTable(td);
+        ChangeSourceFactory factory = new ChangeSourceFactory(configSource);
+        List<DBChangeUnit> units = factory.getDBChangeList();
+        
+        //no triggers installed
+        dmr.readDBChangeList(units);
+        assertEquals(2, dmr.operations.size());
+        dmr.operations.remove();
+        String query = dmr.getCreateTriggerSQL(dmr.operations.remove());
+        String reference = GenericDMR.TRIGGER_BODY_TAG;
+        int start = query.indexOf(reference) + reference.length();
+        String prosrc = query.substring(start, query.indexOf(reference, start));
+        
+        //trigger installed as planned
+        when(rs.next()).thenReturn(true, false);
+        when(rs.getString("relname")).thenReturn("Table1");
+        when(rs.getString("proname")).thenReturn("process_Table1_audit");
+        when(rs.getInt("tgtype")).thenReturn(29); //row, insert, delete, update
+        when(rs.getString("tgenabled")).thenReturn("O");
+        when(rs.getString("prosrc")).thenReturn(prosrc);
+        dmr.readDBChangeList(units);
+        assertEquals(1, dmr.operations.size());
+        verify(stmt, times(2)).setString(2, "public");
+        verify(conn, times(2)).createArrayOf("text", new Object[]{"Table1"});
+        assertEquals(DBChangeType.createTable, dmr.operations.remove().get(1).getChangeType());
+        
+        //trigger disabled
+        when(rs.next()).thenReturn(true, false);
+        when(rs.getString("tgenabled")).thenReturn("D");
+        dmr.readDBChangeList(units);
+        assertEquals(2, dmr.operations.size());
+    }
+}
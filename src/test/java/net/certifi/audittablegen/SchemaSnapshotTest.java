@@ -0,0 +1,145 @@
+/*    Copyright 2014 Certifi Inc.
+ *
+ *    This file is part of AuditTableGen.
+ *
+ *        AuditTableGen is free software: you can redistribute it and/or modify
+ *        it under the terms of the GNU General Public License as published by
+ *        the Free Software Foundation, either version 3 of the License, or
+ *        (at your option) any later version.
+ *
+ *        AuditTableGen is distributed in the hope that it will be useful,
+ *        but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *        GNU General Public License for more details.
+ *
+ *        You should have received a copy of the GNU General Public License
+ *        along with AuditTableGen.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package net.certifi.audittablegen;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.*;
+import static org.junit.Assert.*;
+import org.junit.rules.TemporaryFolder;
+
+public class SchemaSnapshotTest {
+    
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    
+    public SchemaSnapshotTest() {
+    }
+    
+    TableDef getTableDef(String name, int size){
+        TableDef td = new TableDef();
+        td.name = name;
+        ColumnDef cd = new ColumnDef();
+        cd.name = name + "Id";
+        cd.typeName = "integer";
+        cd.sqlType = java.sql.Types.INTEGER;
+        td.addColumn(cd);
+        cd = new ColumnDef();
+        cd.name = "Data";
+        cd.typeName = "numeric";
+        cd.sqlType = java.sql.Types.NUMERIC;
+        cd.size = size;
+        cd.decimalSize = 2;
+        td.addColumn(cd);
+        return td;
+    }
+
+    /**
+     * Test of save and load methods, of class SchemaSnapshot.
+     */
+    @Test
+    public void testSaveLoad() throws IOException {
+        System.out.println("saveLoad");
+        File file = new File(folder.getRoot(), "schema.snapshot");
+        SchemaSnapshot snapshot = new SchemaSnapshot();
+        snapshot.configHash = "abc";
+        snapshot.putTable(getTableDef("Table1", 10), "fp1");
+        snapshot.putTable(getTableDef("Table2", 12), "fp2");
+        snapshot.save(file);
+        
+        SchemaSnapshot result = SchemaSnapshot.load(file);
+        assertEquals("abc", result.configHash);
+        assertEquals(2, result.fingerprints.size());
+        assertEquals("fp2", result.fingerprints.get("Table2"));
+        TableDef td = result.getTable("Table2");
+        assertEquals(2, td.getColumns().size());
+        ColumnDef cd = td.getColumns().get(1);
+        assertEquals("Data", cd.getName());
+        assertEquals("numeric", cd.getTypeName());
+        assertEquals(java.sql.Types.NUMERIC, cd.getSqlType());
+        assertEquals(12, cd.getSize());
+        assertEquals(2, cd.getDecimalSize());
+    }
+    
+    /**
+     * Test of load method, of class SchemaSnapshot, with no file.
+     */
+    @Test
+    public void testLoadMissing() {
+        System.out.println("loadMissing");
+        SchemaSnapshot result = SchemaSnapshot.load(new File(folder.getRoot(), "missing"));
+        assertTrue(result.fingerprints.isEmpty());
+        assertEquals("", result.configHash);
+    }
+
+    /**
+     * Test of getChangedTables method, of class SchemaSnapshot.
+     */
+    @Test
+    public void testGetChangedTables() {
+        System.out.println("getChangedTables");
+        SchemaSnapshot snapshot = new SchemaSnapshot();
+        snapshot.putTable(getTableDef("Table1", 10), "fp1");
+        snapshot.putTable(getTableDef("Table2", 10), "fp2");
+        snapshot.putTable(getTableDef("Dropped", 10), "fp3");
+        
+        Map<String, String> current = new LinkedHashMap<>();
+        current.put("New", "fp4");
+        current.put("Table1", "fp1");
+        current.put("Table2", "fp2-altered");
+        
+        List<String> result = snapshot.getChangedTables(current);
+        assertEquals(2, result.size());
+        assertEquals("New", result.get(0));
+        assertEquals("Table2", result.get(1));
+    }
+
+    /**
+     * Test of getConfigHash method, of class SchemaSnapshot.
+     */
+    @Test
+    public void testGetConfigHash() {
+        System.out.println("getConfigHash");
+        ConfigAttribute exclude = new ConfigAttribute();
+        exclude.setAttribute("exclude");
+        exclude.setTableName("transient");
+        ConfigAttribute prefix = new ConfigAttribute();
+        prefix.setAttribute("tableprefix");
+        prefix.setValue("aud_");
+        
+        List<ConfigAttribute> attributes = new ArrayList<>();
+        attributes.add(exclude);
+        attributes.add(prefix);
+        List<ConfigAttribute> reversed = new ArrayList<>();
+        reversed.add(prefix);
+        reversed.add(exclude);
+        
+        String hash = SchemaSnapshot.getConfigHash(attributes, 30);
+        assertEquals(hash, SchemaSnapshot.getConfigHash(reversed, 30));
+        assertFalse(hash.equals(SchemaSnapshot.getConfigHash(attributes, 40)));
+        
+        prefix.setValue("zz_");
+        assertFalse(hash.equals(SchemaSnapshot.getConfigHash(attributes, 30)));
+    }
+}
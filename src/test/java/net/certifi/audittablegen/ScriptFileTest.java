@@ -0,0 +1,83 @@
+/*    Copyright 2014 Certifi Inc.
+ *
+ *    This file is part of AuditTableGen.
+ *
+ *        AuditTableGen is free software: you can redistribute it and/or modify
+ *        it under the terms of the GNU General Public License as published by
+ *        the Free Software Foundation, either version 3 of the License, or
+ *        (at your option) any later version.
+ *
+ *        AuditTableGen is distributed in the hope that it will be useful,
+ *        but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *        GNU General Public License for more details.
+ *
+ *        You should have received a copy of the GNU General Public License
+ *        along with AuditTableGen.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.certifi.audittablegen;
+
+import com.google.common.base.Charsets;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+public class ScriptFileTest {
+    
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    
+    public ScriptFileTest() {
+    }
+    
+    /**
+     * Test of addStatement method, of class ScriptFile.  Statements larger
+     * than the buffer are written whole, and the file only appears once
+     * the script is closed.
+     */
+    @Test
+    public void testAddStatement() throws Exception {
+        System.out.println("addStatement");
+        File file = new File(folder.getRoot(), "audit.sql");
+        ScriptFile instance = ScriptFile.create(file, "public");
+        
+        StringBuilder large = new StringBuilder("CREATE TABLE big (");
+        for (int i = 0; i < ScriptFile.bufferSize / 10; i++){
+            large.append("col").append(i).append(" int, ");
+        }
+        large.append("id int)");
+        
+        instance.addStatement(DBChangeType.createTable, "big", "", large.toString());
+        instance.addStatement(DBChangeType.createTriggers, "t", "t_audit", "DROP TRIGGER x ON t;\nCREATE TRIGGER x;\n");
+        assertEquals(2, instance.getStatementCount());
+        assertFalse(file.exists());
+        
+        instance.close();
+        List<String> lines = Files.readAllLines(file.toPath(), Charsets.UTF_8);
+        assertEquals("-- AuditTableGen script", lines.get(0));
+        assertEquals("-- schema public", lines.get(1));
+        assertEquals("-- createTable big", lines.get(3));
+        assertEquals(large.toString() + ";", lines.get(4));
+        assertEquals("-- createTriggers t", lines.get(6));
+        assertEquals("CREATE TRIGGER x;", lines.get(8));
+        assertEquals(1, folder.getRoot().list().length);
+    }
+    
+    /**
+     * Test of discard method, of class ScriptFile.
+     */
+    @Test
+    public void testDiscard() throws Exception {
+        System.out.println("discard");
+        File file = new File(folder.getRoot(), "audit.sql");
+        ScriptFile instance = ScriptFile.create(file, null);
+        instance.addStatement(DBChangeType.createTable, "t", "", "CREATE TABLE t (id int)");
+        
+        instance.discard();
+        assertEquals(0, folder.getRoot().list().length);
+    }
+}
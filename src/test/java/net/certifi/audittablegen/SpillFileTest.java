@@ -0,0 +1,71 @@
+/*    Copyright 2014 Certifi Inc.
+ *
+ *    This file is part of AuditTableGen.
+ *
+ *        AuditTableGen is free software: you can redistribute it and/or modify
+ *        it under the terms of the GNU General Public License as published by
+ *        the Free Software Foundation, either version 3 of the License, or
+ *        (at your option) any later version.
+ *
+ *        AuditTableGen is distributed in the hope that it will be useful,
+ *        but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *        GNU General Public License for more details.
+ *
+ *        You should have received a copy of the GNU General Public License
+ *        along with AuditTableGen.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.certifi.audittablegen;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+public class SpillFileTest {
+    
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    
+    public SpillFileTest() {
+    }
+    
+    /**
+     * Test of append and iterator methods, of class SpillFile.  Records are
+     * larger than a segment, and cross segment boundaries.
+     */
+    @Test
+    public void testAppend() throws Exception {
+        System.out.println("append");
+        SpillFile instance = SpillFile.create(folder.getRoot());
+        instance.segmentSize = 64;
+        
+        List<String[]> expected = new ArrayList<>();
+        for (int i = 0; i < 50; i++){
+            StringBuilder sql = new StringBuilder("insert into t").append(i);
+            for (int j = 0; j < i; j++){
+                sql.append(" é").append(j);
+            }
+            String[] record = {"createTriggers", "t" + i, i % 7 == 0 ? null : sql.toString()};
+            expected.add(record);
+            instance.append(record);
+        }
+        assertEquals(50, instance.size());
+        
+        //read twice, the file is not consumed
+        for (int pass = 0; pass < 2; pass++){
+            int i = 0;
+            for (String[] record : instance){
+                assertTrue(Arrays.equals(expected.get(i), record));
+                i++;
+            }
+            assertEquals(50, i);
+        }
+        
+        instance.close();
+        assertFalse(instance.file.exists());
+    }
+}
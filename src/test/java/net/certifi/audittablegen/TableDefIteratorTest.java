@@ -0,0 +1,103 @@
+/*    Copyright 2014 Certifi Inc.
+ *
+ *    This file is part of AuditTableGen.
+ *
+ *        AuditTableGen is free software: you can redistribute it and/or modify
+ *        it under the terms of the GNU General Public License as published by
+ *        the Free Software Foundation, either version 3 of the License, or
+ *        (at your option) any later version.
+ *
+ *        AuditTableGen is distributed in the hope that it will be useful,
+ *        but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *        GNU General Public License for more details.
+ *
+ *        You should have received a copy of the GNU General Public License
+ *        along with AuditTableGen.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.certifi.audittablegen;
+
+import java.util.*;
+import static org.junit.Assert.*;
+import org.junit.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class TableDefIteratorTest {
+    
+    DataSourceDMR dmr = mock(DataSourceDMR.class);
+    
+    public TableDefIteratorTest() {
+    }
+    
+    @Before
+    public void setUp() {
+        
+        //every table read has one column. "broken" cannot be read
+        when(dmr.getTables(any(Collection.class))).thenAnswer(new Answer<List<TableDef>>() {
+            @Override
+            public List<TableDef> answer(InvocationOnMock invocation) {
+                List<TableDef> tables = new ArrayList<>();
+                for (String name : (Collection<String>) invocation.getArguments()[0]){
+                    if (name.equals("broken")){
+                        continue;
+                    }
+                    TableDef td = new TableDef();
+                    td.setName(name);
+                    td.addColumn(new ColumnDef());
+                    tables.add(td);
+                }
+                return tables;
+            }
+        });
+    }
+
+    /**
+     * Test of iteration over windows, of class TableDefIterator.
+     */
+    @Test
+    public void testIterate() {
+        System.out.println("iterate");
+        List<String> names = Arrays.asList("t1", "t2", "broken", "staging", "t3");
+        TableFilter filter = new TableFilter() {
+            @Override
+            public boolean accept(String tableName) {
+                return !tableName.equals("staging");
+            }
+        };
+        
+        TableDefIterator instance = new TableDefIterator(dmr, names, filter, 2);
+        
+        List<TableDef> result = new ArrayList<>();
+        while (instance.hasNext()){
+            result.add(instance.next());
+        }
+        
+        //three windows: [t1, t2], [broken, staging], [t3]
+        verify(dmr, times(1)).getTables(Arrays.asList("t1", "t2"));
+        verify(dmr, times(1)).getTables(Arrays.asList("broken"));
+        verify(dmr, times(1)).getTables(Arrays.asList("t3"));
+        assertEquals(4, result.size());
+        assertEquals("t1", result.get(0).getName());
+        assertEquals("t2", result.get(1).getName());
+        assertEquals("staging", result.get(2).getName());
+        assertTrue(result.get(2).getColumns().isEmpty());
+        assertEquals("t3", result.get(3).getName());
+        assertEquals(1, result.get(3).getColumns().size());
+    }
+
+    /**
+     * Test of hasNext method, of class TableDefIterator, with nothing to read.
+     */
+    @Test
+    public void testEmpty() {
+        System.out.println("empty");
+        TableDefIterator instance = new TableDefIterator(dmr, new ArrayList<String>(), null, 10);
+        
+        assertFalse(instance.hasNext());
+        verify(dmr, never()).getTables(any(Collection.class));
+    }
+}